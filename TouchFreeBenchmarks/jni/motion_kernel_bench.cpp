@@ -0,0 +1,46 @@
+#include <jni.h>
+
+#include "motion_kernel.h"
+
+// A host build of the motion kernel for the benchmarks. The frames are Java byte arrays instead of
+// OpenCV matrices, otherwise this is the same call MotionDetector makes through motion_averager.cpp.
+
+extern "C" {
+
+JNIEXPORT void JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_NativeMotionKernel_accumulate(JNIEnv* env, jclass,
+                                                                                                    jbyteArray currentArray,
+                                                                                                    jbyteArray previousArray,
+                                                                                                    jint step,
+                                                                                                    jint rows,
+                                                                                                    jint cols,
+                                                                                                    jint rowStart,
+                                                                                                    jint rowEnd,
+                                                                                                    jint threshold,
+                                                                                                    jint border,
+                                                                                                    jint stride,
+                                                                                                    jboolean histogram,
+                                                                                                    jlongArray sumsArray)
+{
+    MotionParams params;
+    params.threshold = threshold < 0 ? 0 : (threshold > MOTION_MAX_THRESHOLD ? MOTION_MAX_THRESHOLD : threshold);
+    params.border = border < 0 ? 0 : border;
+    params.stride = stride < 1 ? 1 : stride;
+    params.histogram = histogram ? 1 : 0;
+
+    MotionSums sums;
+    void* current = env->GetPrimitiveArrayCritical(currentArray, 0);
+    void* previous = env->GetPrimitiveArrayCritical(previousArray, 0);
+    if (current != 0 && previous != 0)
+        AccumulateMotionStripe((const uint8_t*)current, (const uint8_t*)previous, step, rows, cols, rowStart, rowEnd, &params, &sums);
+    if (previous != 0)
+        env->ReleasePrimitiveArrayCritical(previousArray, previous, JNI_ABORT);
+    if (current != 0)
+        env->ReleasePrimitiveArrayCritical(currentArray, current, JNI_ABORT);
+    if (current == 0 || previous == 0)
+        return;
+
+    // MotionSums is laid out as int64s in the order MotionMoments expects
+    env->SetLongArrayRegion(sumsArray, 0, sizeof(MotionSums) / sizeof(jlong), (const jlong*)&sums);
+}
+
+}
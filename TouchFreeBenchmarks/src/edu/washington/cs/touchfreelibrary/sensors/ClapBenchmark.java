@@ -0,0 +1,179 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * <p>Times the clap detectors of {@link MicrophoneClickSensor} over synthetic microphone audio, at several
+ * block sizes. For every detector and block size it reports the time and the bytes allocated per block, the
+ * blocks per second, the processor time per second of audio, how many of the claps were found, how many
+ * other sounds were taken for claps, and the median and largest latency from the start of a clap until the
+ * end of the block it was reported in.</p>
+ *
+ * <pre>
+ * java -cp bin edu.washington.cs.touchfreelibrary.sensors.ClapBenchmark
+ *     [--seconds 60] [--interval 1.5] [--blocks 512,1024,2048] [--detectors amplitude,flux,hfc]
+ *     [--warmup 2000] [--time 5000]
+ * </pre>
+ *
+ * <p>The sensor reads blocks of 1024 samples on most devices. Each block is copied out of the recording
+ * first, as the microphone would, and the copy is timed along with the detection. A clap counts as found if
+ * it is reported within {@link #TOLERANCE_SECONDS} of its start.</p>
+ */
+public final class ClapBenchmark {
+	// how many blocks run between looks at the clock
+	private static final int BLOCKS_PER_CHECK = 16;
+	// how long after its start a clap may be reported
+	private static final double TOLERANCE_SECONDS = 0.5;
+
+	private static final String AMPLITUDE = "amplitude";
+	private static final String FLUX = "flux";
+	private static final String HFC = "hfc";
+
+	private final SyntheticAudio mAudio;
+	private final long mWarmupMillis;
+	private final long mMeasureMillis;
+
+	private ClapBenchmark(SyntheticAudio audio, long warmupMillis, long measureMillis) {
+		mAudio = audio;
+		mWarmupMillis = warmupMillis;
+		mMeasureMillis = measureMillis;
+	}
+
+	public static void main(String [] args) throws Exception {
+		double seconds = 60;
+		double interval = 1.5;
+		String blocks = "512,1024,2048";
+		String detectors = AMPLITUDE + "," + FLUX + "," + HFC;
+		long warmup = 2000;
+		long time = 5000;
+
+		for(int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if(i + 1 == args.length)
+				usage("missing value for " + arg);
+			else if(arg.equals("--seconds"))
+				seconds = Double.parseDouble(args[++i]);
+			else if(arg.equals("--interval"))
+				interval = Double.parseDouble(args[++i]);
+			else if(arg.equals("--blocks"))
+				blocks = args[++i];
+			else if(arg.equals("--detectors"))
+				detectors = args[++i];
+			else if(arg.equals("--warmup"))
+				warmup = Long.parseLong(args[++i]);
+			else if(arg.equals("--time"))
+				time = Long.parseLong(args[++i]);
+			else
+				usage("unknown option " + arg);
+		}
+
+		SyntheticAudio audio = SyntheticAudio.claps(seconds, interval, 1);
+		ClapBenchmark benchmark = new ClapBenchmark(audio, warmup, time);
+		System.out.println(String.format("# %.0f s of audio at %d Hz with %d claps, warm up %d ms, measured %d ms",
+				audio.getSeconds(), SyntheticAudio.SAMPLE_RATE, audio.clapStarts.length, warmup, time));
+		System.out.println(String.format("%-10s %6s %10s %12s %10s %14s %7s %6s %11s %11s",
+				"detector", "block", "ns/block", "bytes/block", "blocks/s", "cpu ms/audio s", "claps", "false", "latency p50", "latency max"));
+		for(String detector : detectors.split(",")) {
+			for(String block : blocks.split(","))
+				benchmark.measure(detector, Integer.parseInt(block));
+		}
+	}
+
+	private static void usage(String message) {
+		System.err.println(message);
+		System.err.println("usage: ClapBenchmark [--seconds S] [--interval S] [--blocks N,...] [--detectors NAME,...] "
+				+ "[--warmup MILLIS] [--time MILLIS] where NAME is " + AMPLITUDE + ", " + FLUX + " or " + HFC);
+		System.exit(1);
+	}
+
+	private static ClapDetector createDetector(String name) {
+		if(name.equals(AMPLITUDE))
+			return new AmplitudeClapDetector();
+		if(name.equals(FLUX))
+			return new SpectralOnsetDetector(false);
+		if(name.equals(HFC))
+			return new SpectralOnsetDetector(true);
+		usage("unknown detector " + name);
+		return null;
+	}
+
+	private void measure(String name, int blockSize) {
+		short [] recording = mAudio.samples;
+		int [] clapStarts = mAudio.clapStarts;
+		int blockCount = recording.length / blockSize;
+		short [] block = new short [blockSize];
+
+		// once through the recording to match what was reported with the claps
+		ClapDetector detector = createDetector(name);
+		int tolerance = (int)(TOLERANCE_SECONDS * SyntheticAudio.SAMPLE_RATE);
+		boolean [] matched = new boolean [clapStarts.length];
+		long [] latencies = new long [clapStarts.length];
+		int found = 0;
+		int falseCount = 0;
+		for(int i = 0; i < blockCount; i++) {
+			System.arraycopy(recording, i * blockSize, block, 0, blockSize);
+			if(!detector.process(block, blockSize))
+				continue;
+
+			// the latest clap that started before the end of the block
+			int end = (i + 1) * blockSize;
+			int clap = Arrays.binarySearch(clapStarts, end);
+			clap = clap >= 0 ? clap : -clap - 2;
+			if(clap >= 0 && !matched[clap] && end - clapStarts[clap] <= tolerance) {
+				matched[clap] = true;
+				latencies[found++] = end - clapStarts[clap];
+			}
+			else
+				falseCount++;
+		}
+		Arrays.sort(latencies, 0, found);
+
+		// then in a loop for as long as asked, the detector carries on where it was
+		long index = 0;
+		long end = System.nanoTime() + mWarmupMillis * 1000000;
+		while(System.nanoTime() < end) {
+			for(int i = 0; i < BLOCKS_PER_CHECK; i++, index++) {
+				System.arraycopy(recording, (int)(index % blockCount) * blockSize, block, 0, blockSize);
+				detector.process(block, blockSize);
+			}
+		}
+
+		long allocated = getAllocatedBytes();
+		long start = System.nanoTime();
+		end = start + mMeasureMillis * 1000000;
+		long processed = 0;
+		long now;
+		do {
+			for(int i = 0; i < BLOCKS_PER_CHECK; i++, index++) {
+				System.arraycopy(recording, (int)(index % blockCount) * blockSize, block, 0, blockSize);
+				detector.process(block, blockSize);
+			}
+			processed += BLOCKS_PER_CHECK;
+			now = System.nanoTime();
+		} while(now < end);
+		allocated = getAllocatedBytes() - allocated;
+
+		long elapsed = now - start;
+		double blocksPerSecond = processed * 1e9 / elapsed;
+		double audioSecondsPerSecond = blocksPerSecond * blockSize / SyntheticAudio.SAMPLE_RATE;
+		String bytes = allocated < 0 ? "n/a" : String.format("%.2f", (double)allocated / processed);
+		String median = found == 0 ? "n/a" : String.format("%.1f ms", latencies[found / 2] * 1000.0 / SyntheticAudio.SAMPLE_RATE);
+		String max = found == 0 ? "n/a" : String.format("%.1f ms", latencies[found - 1] * 1000.0 / SyntheticAudio.SAMPLE_RATE);
+		System.out.println(String.format("%-10s %6d %10.0f %12s %10.0f %14.3f %7s %6d %11s %11s",
+				name, blockSize, (double)elapsed / processed, bytes, blocksPerSecond, 1000 / audioSecondsPerSecond,
+				found + "/" + clapStarts.length, falseCount, median, max));
+	}
+
+	// the bytes this thread has allocated so far, or a large negative number if the JVM cannot tell
+	private static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean) {
+			long bytes = ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+			if(bytes >= 0)
+				return bytes;
+		}
+		return Long.MIN_VALUE / 2;
+	}
+}
@@ -0,0 +1,82 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * The constants of motion detection and of the gesture and click decisions that {@link GestureEvaluator}
+ * and {@link GestureTuner} try out, all at the library's defaults to begin with.
+ */
+final class DetectorSettings {
+	int threshold = MotionDetector.DEFAULT_THRESHOLD;
+	double minFractionInMotion = GestureRecognizer.DEFAULT_MIN_FRACTION_IN_MOTION;
+	long minMillisBetweenGestures = GestureRecognizer.DEFAULT_MIN_MILLIS_BETWEEN_GESTURES;
+	long gestureTimeoutMillis = GestureRecognizer.DEFAULT_GESTURE_TIMEOUT_MILLIS;
+	double minSwipeFraction = GestureRecognizer.DEFAULT_MIN_SWIPE_FRACTION;
+	int clickPeakDistance = GestureRecognizer.DEFAULT_CLICK_PEAK_DISTANCE;
+	int clickBrightenedPeakDistance = GestureRecognizer.DEFAULT_CLICK_BRIGHTENED_PEAK_DISTANCE;
+	double clickMaxBrightening = GestureRecognizer.DEFAULT_CLICK_MAX_BRIGHTENING;
+
+	/**
+	 * Sets one setting from a command line option.
+	 * @param option the option without its leading dashes, as listed by {@link #OPTIONS}
+	 * @param value the value
+	 * @return true if the option is a setting, false otherwise
+	 * @throws NumberFormatException if the value is not a number
+	 */
+	boolean set(String option, String value) {
+		if(option.equals("threshold"))
+			threshold = Integer.parseInt(value);
+		else if(option.equals("fraction"))
+			minFractionInMotion = Double.parseDouble(value);
+		else if(option.equals("gap"))
+			minMillisBetweenGestures = Long.parseLong(value);
+		else if(option.equals("timeout"))
+			gestureTimeoutMillis = Long.parseLong(value);
+		else if(option.equals("swipe"))
+			minSwipeFraction = Double.parseDouble(value);
+		else if(option.equals("click-peak"))
+			clickPeakDistance = Integer.parseInt(value);
+		else if(option.equals("click-brightened-peak"))
+			clickBrightenedPeakDistance = Integer.parseInt(value);
+		else if(option.equals("click-brightening"))
+			clickMaxBrightening = Double.parseDouble(value);
+		else
+			return false;
+		return true;
+	}
+
+	/** the options {@link #set(String, String)} knows, for usage messages */
+	static final String OPTIONS = "[--threshold N] [--fraction F] [--gap MILLIS] [--timeout MILLIS] [--swipe F] "
+			+ "[--click-peak N] [--click-brightened-peak N] [--click-brightening N]";
+
+	/**
+	 * Creates a motion detector with these settings.
+	 * @return a single threaded detector
+	 */
+	MotionDetector createDetector() {
+		MotionDetector detector = new MotionDetector();
+		detector.setThreshold(threshold);
+		return detector;
+	}
+
+	/**
+	 * Creates a recognizer with these settings.
+	 * @param width the width of the frames
+	 * @param height the height of the frames
+	 * @return the recognizer
+	 */
+	GestureRecognizer createRecognizer(int width, int height) {
+		GestureRecognizer recognizer = new GestureRecognizer(width, height);
+		recognizer.setMinFractionInMotion(minFractionInMotion);
+		recognizer.setMinTimeBetweenGestures(minMillisBetweenGestures);
+		recognizer.setGestureTimeout(gestureTimeoutMillis);
+		recognizer.setMinSwipeFraction(minSwipeFraction);
+		recognizer.setClickRules(clickPeakDistance, clickBrightenedPeakDistance, clickMaxBrightening);
+		return recognizer;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("--threshold %d --fraction %s --gap %d --timeout %d --swipe %s --click-peak %d --click-brightened-peak %d --click-brightening %s",
+				threshold, minFractionInMotion, minMillisBetweenGestures, gestureTimeoutMillis, minSwipeFraction,
+				clickPeakDistance, clickBrightenedPeakDistance, clickMaxBrightening);
+	}
+}
@@ -0,0 +1,111 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The frames a benchmark runs over, either drawn here or read from a session file recorded by
+ * {@link FrameRecorder}. Frames are played in a loop, each compared with the one before it.
+ */
+final class FrameSet {
+	// time between synthetic frames, 30 frames a second
+	private static final long FRAME_NANOS = 33 * 1000000;
+
+	final String name;
+	final int width;
+	final int height;
+	final byte [][] frames;
+	final long [] times;
+
+	private FrameSet(String name, int width, int height, byte [][] frames, long [] times) {
+		this.name = name;
+		this.width = width;
+		this.height = height;
+		this.frames = frames;
+		this.times = times;
+	}
+
+	/**
+	 * Draws frames of a dark hand sweeping across a noisy background, left to right and back, with
+	 * still frames in between, so both the kernel and the recognizer see motion and rest.
+	 * @param width the width of the frames
+	 * @param height the height of the frames
+	 * @param count the number of frames
+	 * @return the frames
+	 */
+	static FrameSet synthetic(int width, int height, int count) {
+		Random random = new Random(width * 31 + height);
+		byte [] background = new byte [width * height];
+		for(int y = 0; y < height; y++)
+			for(int x = 0; x < width; x++)
+				background[y * width + x] = (byte)(60 + 120 * x / width + random.nextInt(8));
+
+		byte [][] frames = new byte [count][];
+		long [] times = new long [count];
+		int hand = Math.max(4, width / 6);
+		for(int i = 0; i < count; i++) {
+			byte [] frame = background.clone();
+			// sensor noise below the motion threshold
+			for(int p = random.nextInt(16); p < frame.length; p += 16)
+				frame[p] = (byte)((frame[p] & 0xFF) + random.nextInt(9) - 4);
+
+			// a sweep takes 8 frames, followed by 8 frames without motion
+			int phase = i % 16;
+			if(phase < 8) {
+				int sweep = i / 16 % 2 == 0 ? phase : 7 - phase;
+				int x0 = (width - hand) * sweep / 7;
+				int y0 = (height - hand) / 2;
+				for(int y = y0; y < y0 + hand; y++)
+					for(int x = x0; x < x0 + hand; x++)
+						frame[y * width + x] = (byte)(20 + random.nextInt(8));
+			}
+			frames[i] = frame;
+			times[i] = i * FRAME_NANOS;
+		}
+		return new FrameSet("synthetic", width, height, frames, times);
+	}
+
+	/**
+	 * Reads every frame of a session file into memory.
+	 * @param file the session file
+	 * @return the frames, or null if the file could not be read
+	 */
+	static FrameSet recorded(File file) {
+		SessionFrameSource source = new SessionFrameSource(file, false);
+		if(!source.open(1))
+			return null;
+
+		int width = (int)source.getSupportedFrameSizes().get(0).width;
+		int height = (int)source.getSupportedFrameSizes().get(0).height;
+		List<byte []> frames = new ArrayList<byte []>();
+		List<Long> times = new ArrayList<Long>();
+		while(source.grab()) {
+			byte [] frame = new byte [width * height];
+			source.retrieve(frame);
+			frames.add(frame);
+			times.add(source.getFrameTime());
+		}
+		source.release();
+		if(frames.size() < 2)
+			return null;
+
+		long [] frameTimes = new long [times.size()];
+		for(int i = 0; i < frameTimes.length; i++)
+			frameTimes[i] = times.get(i);
+		return new FrameSet(file.getName(), width, height, frames.toArray(new byte [frames.size()][]), frameTimes);
+	}
+
+	/**
+	 * Gets the time of a frame, counting on past the last frame as if the frames were played again.
+	 * @param index the number of the frame, from 0 without limit
+	 * @return the time of the frame in nanoseconds, later for every index
+	 */
+	long getTime(long index) {
+		int count = frames.length;
+		long loop = index / count;
+		long loopLength = times[count - 1] - times[0] + FRAME_NANOS;
+		return times[(int)(index % count)] + loop * loopLength;
+	}
+}
@@ -0,0 +1,389 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <p>Runs the gesture and click decisions over a directory of labelled sessions recorded with
+ * <code>CameraGestureSensor.startRecording</code>, and reports the precision and recall of every kind of
+ * gesture. Sessions are shared out over all cores with fork/join. It needs neither a camera nor Android nor
+ * the native libraries, so a change to a threshold can be checked against hours of recordings in minutes.</p>
+ *
+ * <pre>
+ * java -cp bin:opencv.jar edu.washington.cs.touchfreelibrary.sensors.GestureEvaluator DIRECTORY
+ *     [--threads N] [--tolerance 750] [--stride 1] [--threshold 20] [--fraction 0.1] [--gap 500]
+ *     [--timeout 700] [--swipe 0.2] [--click-peak 1] [--click-brightened-peak 3] [--click-brightening 10]
+ * </pre>
+ *
+ * <p>Every <code>NAME.tfrs</code> session in the directory needs a <code>NAME.labels</code> text file next to
+ * it, with one line per gesture the user made: the time in milliseconds, on the clock of the recorded frame
+ * times, and one of <code>Click</code>, <code>Left</code>, <code>Right</code>, <code>Up</code> or
+ * <code>Down</code>. Directions are those of the camera image, before the sensor turns them to match the
+ * screen. Lines starting with <code>#</code> are ignored. A reported gesture counts as correct if a label of
+ * the same kind lies within the tolerance of it and has not been matched yet.</p>
+ */
+public final class GestureEvaluator {
+	private static final String SESSION_SUFFIX = ".tfrs";
+	private static final String LABELS_SUFFIX = ".labels";
+	private static final GestureTrace.Kind [] KINDS = GestureTrace.Kind.values();
+
+	/**
+	 * A gesture at a moment of a session, made by the user or reported by the recognizer.
+	 */
+	static final class Label implements Comparable<Label> {
+		final long time;
+		final GestureTrace.Kind kind;
+
+		Label(long time, GestureTrace.Kind kind) {
+			this.time = time;
+			this.kind = kind;
+		}
+
+		@Override
+		public int compareTo(Label other) {
+			return time < other.time ? -1 : (time == other.time ? 0 : 1);
+		}
+	}
+
+	/**
+	 * A session file and the gestures the user made in it.
+	 */
+	static final class LabelledSession {
+		final File file;
+		final List<Label> labels;
+
+		LabelledSession(File file, List<Label> labels) {
+			this.file = file;
+			this.labels = labels;
+		}
+	}
+
+	/**
+	 * The counts of correct, wrong and missed gestures of each kind, and the frames looked at.
+	 */
+	static final class Score {
+		final long [] labelled = new long [KINDS.length];
+		final long [] reported = new long [KINDS.length];
+		final long [] correct = new long [KINDS.length];
+		long frames;
+
+		void add(Score other) {
+			for(int i = 0; i < KINDS.length; i++) {
+				labelled[i] += other.labelled[i];
+				reported[i] += other.reported[i];
+				correct[i] += other.correct[i];
+			}
+			frames += other.frames;
+		}
+
+		// the kind, or all kinds for null
+		double getPrecision(GestureTrace.Kind kind) {
+			long reportedCount = sum(reported, kind);
+			return reportedCount == 0 ? 1 : (double)sum(correct, kind) / reportedCount;
+		}
+
+		double getRecall(GestureTrace.Kind kind) {
+			long labelledCount = sum(labelled, kind);
+			return labelledCount == 0 ? 1 : (double)sum(correct, kind) / labelledCount;
+		}
+
+		private static long sum(long [] counts, GestureTrace.Kind kind) {
+			if(kind != null)
+				return counts[kind.ordinal()];
+			long total = 0;
+			for(long count : counts)
+				total += count;
+			return total;
+		}
+	}
+
+	/** the default time a reported gesture may be away from its label, in milliseconds */
+	static final long DEFAULT_TOLERANCE_MILLIS = 750;
+
+	private final DetectorSettings mSettings = new DetectorSettings();
+	private int mIdleSampleStride = 1;
+	private long mToleranceMillis = DEFAULT_TOLERANCE_MILLIS;
+
+	public static void main(String [] args) throws Exception {
+		GestureEvaluator evaluator = new GestureEvaluator();
+		File directory = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		for(int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if(!arg.startsWith("--")) {
+				directory = new File(arg);
+				continue;
+			}
+			if(i + 1 == args.length)
+				usage("missing value for " + arg);
+			String value = args[++i];
+			if(arg.equals("--threads"))
+				threads = Integer.parseInt(value);
+			else if(arg.equals("--tolerance"))
+				evaluator.mToleranceMillis = Long.parseLong(value);
+			else if(arg.equals("--stride"))
+				evaluator.mIdleSampleStride = Integer.parseInt(value);
+			else if(!evaluator.mSettings.set(arg.substring(2), value))
+				usage("unknown option " + arg);
+		}
+		if(directory == null)
+			usage("no session directory given");
+
+		List<LabelledSession> sessions = loadSessions(directory);
+		if(sessions.isEmpty())
+			usage("no labelled sessions in " + directory);
+
+		long start = System.nanoTime();
+		Score score = evaluator.evaluate(sessions, new ForkJoinPool(threads));
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.println(String.format("# %d sessions, %d frames in %.1f s on %d threads, %.0f frames/s",
+				sessions.size(), score.frames, seconds, threads, score.frames / seconds));
+		System.out.println(String.format("# %s --stride %d --tolerance %d",
+				evaluator.mSettings, evaluator.mIdleSampleStride, evaluator.mToleranceMillis));
+		System.out.println(String.format("%-6s %8s %9s %8s %10s %8s", "kind", "labelled", "reported", "correct", "precision", "recall"));
+		for(GestureTrace.Kind kind : KINDS)
+			printRow(kind.name(), score, kind);
+		printRow("all", score, null);
+	}
+
+	private static void usage(String message) {
+		System.err.println(message);
+		System.err.println("usage: GestureEvaluator DIRECTORY [--threads N] [--tolerance MILLIS] [--stride N] " + DetectorSettings.OPTIONS);
+		System.exit(1);
+	}
+
+	static void printRow(String name, Score score, GestureTrace.Kind kind) {
+		System.out.println(String.format("%-6s %8d %9d %8d %10.3f %8.3f", name, Score.sum(score.labelled, kind),
+				Score.sum(score.reported, kind), Score.sum(score.correct, kind), score.getPrecision(kind), score.getRecall(kind)));
+	}
+
+	/**
+	 * Finds every session in a directory that has a labels file, in name order.
+	 * @param directory the directory to look in
+	 * @return the sessions and their labels
+	 * @throws IOException if a labels file could not be read
+	 */
+	static List<LabelledSession> loadSessions(File directory) throws IOException {
+		File [] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(SESSION_SUFFIX);
+			}
+		});
+		List<LabelledSession> sessions = new ArrayList<LabelledSession>();
+		if(files == null)
+			return sessions;
+
+		Arrays.sort(files);
+		for(File file : files) {
+			String name = file.getName();
+			File labels = new File(file.getParentFile(), name.substring(0, name.length() - SESSION_SUFFIX.length()) + LABELS_SUFFIX);
+			if(!labels.isFile()) {
+				System.err.println("# skipping " + file + ", it has no " + labels.getName());
+				continue;
+			}
+			sessions.add(new LabelledSession(file, readLabels(labels)));
+		}
+		return sessions;
+	}
+
+	private static List<Label> readLabels(File file) throws IOException {
+		List<Label> labels = new ArrayList<Label>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			int lineNumber = 0;
+			while((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if(line.length() == 0 || line.startsWith("#"))
+					continue;
+
+				String [] fields = line.split("\\s+");
+				try {
+					labels.add(new Label(Long.parseLong(fields[0]), GestureTrace.Kind.valueOf(fields[1])));
+				} catch (RuntimeException e) {
+					throw new IOException(file + ":" + lineNumber + ": expected a time and a kind of gesture");
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		Collections.sort(labels);
+		return labels;
+	}
+
+	/**
+	 * Evaluates every session, each on a thread of the pool.
+	 * @param sessions the sessions to evaluate
+	 * @param pool the pool to run on
+	 * @return the counts over all sessions
+	 */
+	Score evaluate(List<LabelledSession> sessions, ForkJoinPool pool) {
+		return pool.invoke(new EvaluateTask(sessions, 0, sessions.size()));
+	}
+
+	// splits its share of the sessions in half until there is one left
+	private final class EvaluateTask extends RecursiveTask<Score> {
+		private static final long serialVersionUID = 1L;
+
+		private final List<LabelledSession> mSessions;
+		private final int mFrom;
+		private final int mTo;
+
+		EvaluateTask(List<LabelledSession> sessions, int from, int to) {
+			mSessions = sessions;
+			mFrom = from;
+			mTo = to;
+		}
+
+		@Override
+		protected Score compute() {
+			if(mTo - mFrom == 1)
+				return evaluate(mSessions.get(mFrom));
+
+			int middle = (mFrom + mTo) >>> 1;
+			EvaluateTask first = new EvaluateTask(mSessions, mFrom, middle);
+			first.fork();
+			Score score = new EvaluateTask(mSessions, middle, mTo).compute();
+			score.add(first.join());
+			return score;
+		}
+	}
+
+	/**
+	 * Plays a session through motion detection and the recognizer, the way the sensor's analysis thread
+	 * does, and compares what was reported with the labels.
+	 * @param session the session
+	 * @return the counts of the session
+	 */
+	Score evaluate(LabelledSession session) {
+		Score score = new Score();
+		SessionFrameSource source = new SessionFrameSource(session.file, false);
+		if(!source.open(1)) {
+			System.err.println("# could not read " + session.file);
+			return score;
+		}
+
+		try {
+			int cols = (int)source.getSupportedFrameSizes().get(0).width;
+			int rows = (int)source.getSupportedFrameSizes().get(0).height;
+			byte [] current = new byte [rows * cols];
+			byte [] previous = new byte [rows * cols];
+
+			MotionDetector detector = mSettings.createDetector();
+			MotionDetectionReturnValue motion = new MotionDetectionReturnValue();
+
+			List<Label> reported = new ArrayList<Label>();
+			long [] frameTime = new long [1];
+			GestureRecognizer recognizer = mSettings.createRecognizer(cols, rows);
+			recognizer.setListener(createReporter(reported, frameTime));
+
+			boolean isFirstFrame = true;
+			while(source.grab() && source.retrieve(current)) {
+				score.frames++;
+				if(!isFirstFrame) {
+					// the same stride rule as CameraGestureSensor's analysis thread, without low power mode
+					detector.setSampleStride(recognizer.isGestureInProgress() ? 1 : mIdleSampleStride);
+					detector.detect(current, previous, rows, cols, motion);
+					if(!recognizer.isGestureInProgress() && motion.sampleStride > 1
+							&& motion.fractionOfScreenInMotion > recognizer.getMinFractionInMotion()) {
+						detector.setSampleStride(1);
+						detector.detect(current, previous, rows, cols, motion);
+					}
+
+					frameTime[0] = source.getFrameTime();
+					recognizer.update(frameTime[0], motion.intensityMean, motion.fractionOfScreenInMotion,
+							motion.averagePosition.x, motion.averagePosition.y);
+				}
+				isFirstFrame = false;
+
+				byte [] swap = previous;
+				previous = current;
+				current = swap;
+			}
+
+			match(session.labels, reported, mToleranceMillis, score);
+		} finally {
+			source.release();
+		}
+		return score;
+	}
+
+	/**
+	 * Creates a listener that notes every click and gesture as a label.
+	 * @param reported the list to add the labels to
+	 * @param frameTime holds the time of the frame being decided on, in nanoseconds, which the labels get in milliseconds
+	 * @return the listener
+	 */
+	static GestureRecognizer.Listener createReporter(final List<Label> reported, final long [] frameTime) {
+		return new GestureRecognizer.Listener() {
+			@Override
+			public void onClick(GestureRecognizer caller, long gestureLength) {
+				reported.add(new Label(frameTime[0] / 1000000, GestureTrace.Kind.Click));
+			}
+
+			@Override
+			public void onGesture(GestureRecognizer caller, GestureRecognizer.Direction direction, long gestureLength) {
+				GestureTrace.Kind kind = toKind(direction);
+				if(kind != null)
+					reported.add(new Label(frameTime[0] / 1000000, kind));
+			}
+		};
+	}
+
+	static GestureTrace.Kind toKind(GestureRecognizer.Direction direction) {
+		switch(direction) {
+			case Left:
+				return GestureTrace.Kind.Left;
+			case Right:
+				return GestureTrace.Kind.Right;
+			case Up:
+				return GestureTrace.Kind.Up;
+			case Down:
+				return GestureTrace.Kind.Down;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Matches reported gestures with labelled ones of the same kind, each label at most once, in the order
+	 * they were reported, and adds the counts to the score.
+	 * @param labels the gestures the user made, in time order
+	 * @param reported the gestures that were reported, in time order
+	 * @param toleranceMillis how far apart a label and a report may be
+	 * @param score the counts to add to
+	 */
+	static void match(List<Label> labels, List<Label> reported, long toleranceMillis, Score score) {
+		boolean [] isMatched = new boolean [labels.size()];
+		for(Label label : labels)
+			score.labelled[label.kind.ordinal()]++;
+
+		int first = 0;
+		for(Label report : reported) {
+			score.reported[report.kind.ordinal()]++;
+			// labels too early for this report are too early for every later one
+			while(first < labels.size() && labels.get(first).time < report.time - toleranceMillis)
+				first++;
+			for(int i = first; i < labels.size() && labels.get(i).time <= report.time + toleranceMillis; i++) {
+				if(!isMatched[i] && labels.get(i).kind == report.kind) {
+					isMatched[i] = true;
+					score.correct[report.kind.ordinal()]++;
+					break;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>Searches for the detector constants that recognize the labelled sessions of a directory best, and prints
+ * the configurations no other one beats on both precision and recall. Each constant is given a list of values
+ * to try; every combination is tried, or a random sample of them.</p>
+ *
+ * <pre>
+ * java -cp bin:opencv.jar edu.washington.cs.touchfreelibrary.sensors.GestureTuner DIRECTORY
+ *     [--threads N] [--tolerance 750] [--random N] [--seed N]
+ *     [--threshold 15,20,25] [--fraction 0.05,0.1,0.15] [--gap 300,500] [--timeout 500,700,900]
+ *     [--swipe 0.15,0.2,0.25] [--click-peak 1,2] [--click-brightened-peak 2,3,4] [--click-brightening 5,10,15]
+ * </pre>
+ *
+ * <p>Sessions and labels are read as by {@link GestureEvaluator}. The motion kernel runs once per session and
+ * threshold, at full resolution, and its results are kept in memory, so only the cheap decisions run for each
+ * configuration. Both steps are shared out over all cores with fork/join. A constant that is not given keeps
+ * the library's default.</p>
+ */
+public final class GestureTuner {
+	// the option names, in the order they are printed, and the values to try for each
+	private final Map<String, String []> mValues = new LinkedHashMap<String, String []>();
+
+	private GestureTuner() {
+		for(String option : new String [] { "threshold", "fraction", "gap", "timeout", "swipe",
+				"click-peak", "click-brightened-peak", "click-brightening" })
+			mValues.put(option, null);
+	}
+
+	/**
+	 * A configuration and how well it did.
+	 */
+	private static final class Candidate {
+		final DetectorSettings settings;
+		final GestureEvaluator.Score score = new GestureEvaluator.Score();
+
+		Candidate(DetectorSettings settings) {
+			this.settings = settings;
+		}
+
+		double getF1() {
+			double precision = score.getPrecision(null);
+			double recall = score.getRecall(null);
+			return precision + recall == 0 ? 0 : 2 * precision * recall / (precision + recall);
+		}
+	}
+
+	// work done once for every index of a range
+	private interface IndexedWork {
+		void run(int index);
+	}
+
+	// runs work for every index of a range, splitting it in half until a single index is left
+	private static final class ParallelFor extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final IndexedWork mWork;
+		private final int mFrom;
+		private final int mTo;
+
+		ParallelFor(IndexedWork work, int from, int to) {
+			mWork = work;
+			mFrom = from;
+			mTo = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(mTo - mFrom <= 1) {
+				if(mTo > mFrom)
+					mWork.run(mFrom);
+				return;
+			}
+			int middle = (mFrom + mTo) >>> 1;
+			invokeAll(new ParallelFor(mWork, mFrom, middle), new ParallelFor(mWork, middle, mTo));
+		}
+	}
+
+	public static void main(String [] args) throws Exception {
+		GestureTuner tuner = new GestureTuner();
+		File directory = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long tolerance = GestureEvaluator.DEFAULT_TOLERANCE_MILLIS;
+		int sampleCount = 0;
+		long seed = 1;
+
+		for(int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if(!arg.startsWith("--")) {
+				directory = new File(arg);
+				continue;
+			}
+			if(i + 1 == args.length)
+				usage("missing value for " + arg);
+			String value = args[++i];
+			String option = arg.substring(2);
+			if(option.equals("threads"))
+				threads = Integer.parseInt(value);
+			else if(option.equals("tolerance"))
+				tolerance = Long.parseLong(value);
+			else if(option.equals("random"))
+				sampleCount = Integer.parseInt(value);
+			else if(option.equals("seed"))
+				seed = Long.parseLong(value);
+			else if(tuner.mValues.containsKey(option)) {
+				String [] values = value.split(",");
+				for(String single : values) {
+					// checks the value now rather than halfway through the search
+					if(!new DetectorSettings().set(option, single))
+						usage("unknown option " + arg);
+				}
+				tuner.mValues.put(option, values);
+			}
+			else
+				usage("unknown option " + arg);
+		}
+		if(directory == null)
+			usage("no session directory given");
+
+		List<GestureEvaluator.LabelledSession> sessions = GestureEvaluator.loadSessions(directory);
+		if(sessions.isEmpty())
+			usage("no labelled sessions in " + directory);
+
+		List<Candidate> candidates = tuner.createCandidates(sampleCount, new Random(seed));
+		ForkJoinPool pool = new ForkJoinPool(threads);
+
+		long start = System.nanoTime();
+		Map<Integer, MotionTrack []> tracks = measure(sessions, candidates, pool);
+		double measureSeconds = (System.nanoTime() - start) / 1e9;
+
+		start = System.nanoTime();
+		evaluate(sessions, candidates, tracks, tolerance, pool);
+		double evaluateSeconds = (System.nanoTime() - start) / 1e9;
+
+		long frames = 0;
+		for(MotionTrack [] perThreshold : tracks.values()) {
+			for(MotionTrack track : perThreshold)
+				frames += track.frameCount;
+		}
+		System.out.println(String.format("# %d sessions, %d thresholds, %d frames measured in %.1f s on %d threads",
+				sessions.size(), tracks.size(), frames, measureSeconds, threads));
+		System.out.println(String.format("# %d configurations decided in %.1f s, %.0f configurations/s",
+				candidates.size(), evaluateSeconds, candidates.size() / evaluateSeconds));
+		System.out.println(String.format("%9s %8s %6s  %s", "precision", "recall", "f1", "configuration"));
+		for(Candidate candidate : getParetoFront(candidates)) {
+			System.out.println(String.format("%9.3f %8.3f %6.3f  %s", candidate.score.getPrecision(null),
+					candidate.score.getRecall(null), candidate.getF1(), candidate.settings));
+		}
+	}
+
+	private static void usage(String message) {
+		System.err.println(message);
+		System.err.println("usage: GestureTuner DIRECTORY [--threads N] [--tolerance MILLIS] [--random N] [--seed N] "
+				+ "[--OPTION VALUE,...] where OPTION is any of " + DetectorSettings.OPTIONS);
+		System.exit(1);
+	}
+
+	// every combination of the values, or a sample of distinct ones if there are more than sampleCount
+	private List<Candidate> createCandidates(int sampleCount, Random random) {
+		List<String> options = new ArrayList<String>();
+		List<String []> values = new ArrayList<String []>();
+		long combinations = 1;
+		for(Map.Entry<String, String []> entry : mValues.entrySet()) {
+			if(entry.getValue() == null)
+				continue;
+			options.add(entry.getKey());
+			values.add(entry.getValue());
+			combinations *= entry.getValue().length;
+		}
+
+		List<Long> indexes = new ArrayList<Long>();
+		if(sampleCount <= 0 || sampleCount >= combinations) {
+			for(long index = 0; index < combinations; index++)
+				indexes.add(index);
+		}
+		else {
+			Set<Long> picked = new HashSet<Long>();
+			while(picked.size() < sampleCount)
+				picked.add((long)(random.nextDouble() * combinations));
+			indexes.addAll(picked);
+			Collections.sort(indexes);
+		}
+
+		List<Candidate> candidates = new ArrayList<Candidate>(indexes.size());
+		for(long index : indexes) {
+			DetectorSettings settings = new DetectorSettings();
+			for(int i = 0; i < options.size(); i++) {
+				String [] optionValues = values.get(i);
+				settings.set(options.get(i), optionValues[(int)(index % optionValues.length)]);
+				index /= optionValues.length;
+			}
+			candidates.add(new Candidate(settings));
+		}
+		return candidates;
+	}
+
+	// runs the motion kernel over every session once for every threshold the candidates use
+	private static Map<Integer, MotionTrack []> measure(final List<GestureEvaluator.LabelledSession> sessions,
+			List<Candidate> candidates, ForkJoinPool pool) throws IOException {
+		final List<Integer> thresholds = new ArrayList<Integer>();
+		for(Candidate candidate : candidates) {
+			if(!thresholds.contains(candidate.settings.threshold))
+				thresholds.add(candidate.settings.threshold);
+		}
+
+		final MotionTrack [][] tracks = new MotionTrack [thresholds.size()][sessions.size()];
+		final IOException [] failure = new IOException [1];
+		pool.invoke(new ParallelFor(new IndexedWork() {
+			@Override
+			public void run(int index) {
+				int threshold = index / sessions.size();
+				int session = index % sessions.size();
+				try {
+					tracks[threshold][session] = MotionTrack.read(sessions.get(session).file, thresholds.get(threshold));
+				} catch (IOException e) {
+					synchronized(failure) {
+						failure[0] = e;
+					}
+				}
+			}
+		}, 0, thresholds.size() * sessions.size()));
+		if(failure[0] != null)
+			throw failure[0];
+
+		Map<Integer, MotionTrack []> byThreshold = new LinkedHashMap<Integer, MotionTrack []>();
+		for(int i = 0; i < thresholds.size(); i++)
+			byThreshold.put(thresholds.get(i), tracks[i]);
+		return byThreshold;
+	}
+
+	// runs the decisions of every candidate over every session
+	private static void evaluate(final List<GestureEvaluator.LabelledSession> sessions, final List<Candidate> candidates,
+			final Map<Integer, MotionTrack []> tracks, final long tolerance, ForkJoinPool pool) {
+		pool.invoke(new ParallelFor(new IndexedWork() {
+			@Override
+			public void run(int index) {
+				Candidate candidate = candidates.get(index);
+				MotionTrack [] perSession = tracks.get(candidate.settings.threshold);
+				List<GestureEvaluator.Label> reported = new ArrayList<GestureEvaluator.Label>();
+				for(int i = 0; i < sessions.size(); i++) {
+					reported.clear();
+					perSession[i].decide(candidate.settings, reported);
+					GestureEvaluator.match(sessions.get(i).labels, reported, tolerance, candidate.score);
+					candidate.score.frames += perSession[i].frameCount;
+				}
+			}
+		}, 0, candidates.size()));
+	}
+
+	/**
+	 * Picks the candidates that no other candidate beats on both precision and recall, with the most precise
+	 * first. Of candidates that score the same only the first is kept.
+	 */
+	private static List<Candidate> getParetoFront(List<Candidate> candidates) {
+		List<Candidate> sorted = new ArrayList<Candidate>(candidates);
+		Collections.sort(sorted, new Comparator<Candidate>() {
+			@Override
+			public int compare(Candidate a, Candidate b) {
+				int byPrecision = Double.compare(b.score.getPrecision(null), a.score.getPrecision(null));
+				return byPrecision != 0 ? byPrecision : Double.compare(b.score.getRecall(null), a.score.getRecall(null));
+			}
+		});
+
+		List<Candidate> front = new ArrayList<Candidate>();
+		double bestRecall = -1;
+		for(Candidate candidate : sorted) {
+			double recall = candidate.score.getRecall(null);
+			if(recall > bestRecall) {
+				front.add(candidate);
+				bestRecall = recall;
+			}
+		}
+		return front;
+	}
+}
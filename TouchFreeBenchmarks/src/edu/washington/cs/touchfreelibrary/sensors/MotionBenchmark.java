@@ -0,0 +1,263 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * <p>Times the motion kernel, in Java and native, and the gesture recognizer over synthetic frames at
+ * several sizes or over a recorded session, on one or more threads. For every combination it reports the
+ * time per frame on each thread, the bytes allocated per frame and the frames per second of all threads
+ * together.</p>
+ *
+ * <pre>
+ * java -cp bin:opencv.jar -Djava.library.path=jni edu.washington.cs.touchfreelibrary.sensors.MotionBenchmark
+ *     [--session FILE] [--sizes 160x120,320x240,640x480,1280x720] [--threads 1,2,4]
+ *     [--stride 1] [--histogram] [--warmup 2000] [--time 5000]
+ * </pre>
+ *
+ * <p>The native kernel is skipped if jni/Makefile has not been run. Each measurement first runs for the
+ * warm up time so the JIT compiler has settled, then every thread runs its own copy of the work for the
+ * measurement time.</p>
+ */
+public final class MotionBenchmark {
+	private static final int SYNTHETIC_FRAME_COUNT = 32;
+	// how many frames run between looks at the clock
+	private static final int FRAMES_PER_CHECK = 16;
+
+	private static final String JAVA_KERNEL = "java-kernel";
+	private static final String NATIVE_KERNEL = "native-kernel";
+	private static final String RECOGNIZER = "recognizer";
+
+	// one thread's copy of the work, run once per frame
+	private interface Workload {
+		void run(long index);
+	}
+
+	private final int mStride;
+	private final boolean mIsHistogramEnabled;
+	private final long mWarmupMillis;
+	private final long mMeasureMillis;
+
+	private MotionBenchmark(int stride, boolean histogram, long warmupMillis, long measureMillis) {
+		mStride = stride;
+		mIsHistogramEnabled = histogram;
+		mWarmupMillis = warmupMillis;
+		mMeasureMillis = measureMillis;
+	}
+
+	public static void main(String [] args) throws Exception {
+		File session = null;
+		String sizes = "160x120,320x240,640x480,1280x720";
+		String threads = "1,2,4";
+		int stride = 1;
+		boolean histogram = false;
+		long warmup = 2000;
+		long time = 5000;
+
+		for(int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if(arg.equals("--histogram"))
+				histogram = true;
+			else if(i + 1 == args.length)
+				usage("missing value for " + arg);
+			else if(arg.equals("--session"))
+				session = new File(args[++i]);
+			else if(arg.equals("--sizes"))
+				sizes = args[++i];
+			else if(arg.equals("--threads"))
+				threads = args[++i];
+			else if(arg.equals("--stride"))
+				stride = Integer.parseInt(args[++i]);
+			else if(arg.equals("--warmup"))
+				warmup = Long.parseLong(args[++i]);
+			else if(arg.equals("--time"))
+				time = Long.parseLong(args[++i]);
+			else
+				usage("unknown option " + arg);
+		}
+
+		List<FrameSet> frameSets = new ArrayList<FrameSet>();
+		if(session != null) {
+			FrameSet recorded = FrameSet.recorded(session);
+			if(recorded == null)
+				usage("could not read " + session);
+			frameSets.add(recorded);
+		}
+		else {
+			for(String size : sizes.split(",")) {
+				String [] dimensions = size.split("x");
+				frameSets.add(FrameSet.synthetic(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]), SYNTHETIC_FRAME_COUNT));
+			}
+		}
+
+		List<String> cases = new ArrayList<String>();
+		cases.add(JAVA_KERNEL);
+		if(NativeMotionKernel.isAvailable())
+			cases.add(NATIVE_KERNEL);
+		else
+			System.out.println("# native kernel not found on java.library.path, run make in jni/ to build it");
+		cases.add(RECOGNIZER);
+
+		MotionBenchmark benchmark = new MotionBenchmark(stride, histogram, warmup, time);
+		System.out.println(String.format("# stride %d, histogram %s, warm up %d ms, measured %d ms", stride, histogram, warmup, time));
+		System.out.println(String.format("%-12s %-10s %-14s %7s %12s %12s %12s",
+				"frames", "size", "case", "threads", "ns/frame", "bytes/frame", "frames/s"));
+		for(FrameSet frames : frameSets) {
+			for(String name : cases) {
+				for(String count : threads.split(","))
+					benchmark.measure(frames, name, Integer.parseInt(count));
+			}
+		}
+	}
+
+	private static void usage(String message) {
+		System.err.println(message);
+		System.err.println("usage: MotionBenchmark [--session FILE] [--sizes WxH,...] [--threads N,...] [--stride N] [--histogram] [--warmup MILLIS] [--time MILLIS]");
+		System.exit(1);
+	}
+
+	private void measure(FrameSet frames, String name, int threadCount) throws InterruptedException {
+		final Workload [] workloads = new Workload [threadCount];
+		for(int i = 0; i < threadCount; i++)
+			workloads[i] = createWorkload(frames, name);
+
+		final long [] frameCounts = new long [threadCount];
+		final long [] elapsedNanos = new long [threadCount];
+		final long [] allocatedBytes = new long [threadCount];
+		final CyclicBarrier barrier = new CyclicBarrier(threadCount);
+		Thread [] threads = new Thread [threadCount];
+		for(int t = 0; t < threadCount; t++) {
+			final int thread = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Workload workload = workloads[thread];
+					long index = 0;
+					long end = System.nanoTime() + mWarmupMillis * 1000000;
+					while(System.nanoTime() < end) {
+						for(int i = 0; i < FRAMES_PER_CHECK; i++)
+							workload.run(index++);
+					}
+
+					try {
+						barrier.await();
+					} catch (Exception e) {
+						return;
+					}
+
+					long allocated = getAllocatedBytes();
+					long start = System.nanoTime();
+					end = start + mMeasureMillis * 1000000;
+					long frameCount = 0;
+					long now;
+					do {
+						for(int i = 0; i < FRAMES_PER_CHECK; i++)
+							workload.run(index++);
+						frameCount += FRAMES_PER_CHECK;
+						now = System.nanoTime();
+					} while(now < end);
+
+					elapsedNanos[thread] = now - start;
+					frameCounts[thread] = frameCount;
+					allocatedBytes[thread] = getAllocatedBytes() - allocated;
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread thread : threads)
+			thread.join();
+
+		double nanosPerFrame = 0;
+		double framesPerSecond = 0;
+		long totalFrames = 0;
+		long totalAllocated = 0;
+		for(int t = 0; t < threadCount; t++) {
+			nanosPerFrame += (double)elapsedNanos[t] / frameCounts[t] / threadCount;
+			framesPerSecond += frameCounts[t] * 1e9 / elapsedNanos[t];
+			totalFrames += frameCounts[t];
+			totalAllocated += allocatedBytes[t];
+		}
+		String allocated = totalAllocated < 0 ? "n/a" : String.format("%.2f", (double)totalAllocated / totalFrames);
+		System.out.println(String.format("%-12s %-10s %-14s %7d %12.0f %12s %12.0f",
+				frames.name, frames.width + "x" + frames.height, name, threadCount, nanosPerFrame, allocated, framesPerSecond));
+	}
+
+	// the bytes this thread has allocated so far, or a large negative number if the JVM cannot tell
+	private static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean) {
+			long bytes = ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+			if(bytes >= 0)
+				return bytes;
+		}
+		return Long.MIN_VALUE / 2;
+	}
+
+	private Workload createWorkload(final FrameSet frames, String name) {
+		final byte [][] images = frames.frames;
+		final int rows = frames.height;
+		final int cols = frames.width;
+		final int count = images.length;
+
+		if(name.equals(JAVA_KERNEL)) {
+			final MotionDetector detector = createDetector();
+			final MotionDetectionReturnValue out = new MotionDetectionReturnValue();
+			return new Workload() {
+				@Override
+				public void run(long index) {
+					int i = (int)(index % count);
+					detector.detect(images[i], images[(i + count - 1) % count], rows, cols, out);
+				}
+			};
+		}
+
+		if(name.equals(NATIVE_KERNEL)) {
+			final MotionMoments moments = new MotionMoments();
+			final MotionDetectionReturnValue out = new MotionDetectionReturnValue();
+			return new Workload() {
+				@Override
+				public void run(long index) {
+					int i = (int)(index % count);
+					NativeMotionKernel.accumulate(images[i], images[(i + count - 1) % count], cols, rows, cols, 0, rows,
+							MotionDetector.DEFAULT_THRESHOLD, MotionDetector.DEFAULT_BORDER, mStride, mIsHistogramEnabled, moments.values);
+					moments.finish(out, rows, cols, mStride);
+				}
+			};
+		}
+
+		// the recognizer is fed what the kernel measured, worked out once up front
+		final double [] intensities = new double [count];
+		final double [] fractions = new double [count];
+		final double [] xs = new double [count];
+		final double [] ys = new double [count];
+		MotionDetector detector = createDetector();
+		MotionDetectionReturnValue out = new MotionDetectionReturnValue();
+		for(int i = 0; i < count; i++) {
+			detector.detect(images[i], images[(i + count - 1) % count], rows, cols, out);
+			intensities[i] = out.intensityMean;
+			fractions[i] = out.fractionOfScreenInMotion;
+			xs[i] = out.averagePosition.x;
+			ys[i] = out.averagePosition.y;
+		}
+
+		final GestureRecognizer recognizer = new GestureRecognizer(cols, rows);
+		return new Workload() {
+			@Override
+			public void run(long index) {
+				int i = (int)(index % count);
+				recognizer.update(frames.getTime(index), intensities[i], fractions[i], xs[i], ys[i]);
+			}
+		};
+	}
+
+	private MotionDetector createDetector() {
+		MotionDetector detector = new MotionDetector();
+		detector.setSampleStride(mStride);
+		detector.enableHistogram(mIsHistogramEnabled);
+		return detector;
+	}
+}
@@ -0,0 +1,96 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * <p>What the motion kernel measured on every frame of a session, at full resolution and one threshold. The
+ * gesture and click decisions only need these few numbers per frame, so {@link GestureTuner} measures each
+ * session once per threshold and then runs the decisions as often as it likes.</p>
+ *
+ * <p>The first frame of a session has nothing to be compared with and is left out, as in the sensor.</p>
+ */
+final class MotionTrack {
+	final int width;
+	final int height;
+	final int frameCount;
+	final long [] times;
+	final double [] intensities;
+	final double [] fractions;
+	final double [] xs;
+	final double [] ys;
+
+	private MotionTrack(int width, int height, int capacity) {
+		this.width = width;
+		this.height = height;
+		times = new long [capacity];
+		intensities = new double [capacity];
+		fractions = new double [capacity];
+		xs = new double [capacity];
+		ys = new double [capacity];
+		frameCount = capacity;
+	}
+
+	/**
+	 * Measures every frame of a session.
+	 * @param file the session file
+	 * @param threshold the change in intensity above which a pixel counts as moving
+	 * @return the measurements
+	 * @throws IOException if the session could not be read
+	 */
+	static MotionTrack read(File file, int threshold) throws IOException {
+		SessionFrameSource source = new SessionFrameSource(file, false);
+		if(!source.open(1))
+			throw new IOException("could not read " + file);
+
+		try {
+			int width = (int)source.getSupportedFrameSizes().get(0).width;
+			int height = (int)source.getSupportedFrameSizes().get(0).height;
+			MotionTrack track = new MotionTrack(width, height, (int)Math.max(0, source.getFrameCount() - 1));
+
+			byte [] current = new byte [width * height];
+			byte [] previous = new byte [width * height];
+			MotionDetector detector = new MotionDetector();
+			detector.setThreshold(threshold);
+			MotionDetectionReturnValue motion = new MotionDetectionReturnValue();
+
+			int frame = -1;
+			while(frame < track.frameCount && source.grab() && source.retrieve(current)) {
+				if(frame >= 0) {
+					detector.detect(current, previous, height, width, motion);
+					track.times[frame] = source.getFrameTime();
+					track.intensities[frame] = motion.intensityMean;
+					track.fractions[frame] = motion.fractionOfScreenInMotion;
+					track.xs[frame] = motion.averagePosition.x;
+					track.ys[frame] = motion.averagePosition.y;
+				}
+				frame++;
+
+				byte [] swap = previous;
+				previous = current;
+				current = swap;
+			}
+			if(frame < track.frameCount)
+				throw new IOException(file + " ended after " + frame + " frames");
+			return track;
+		} finally {
+			source.release();
+		}
+	}
+
+	/**
+	 * Runs the gesture and click decisions over the track.
+	 * @param settings the decision settings, the threshold is the one the track was measured at
+	 * @param reported the list the clicks and gestures are added to, in time order
+	 */
+	void decide(DetectorSettings settings, List<GestureEvaluator.Label> reported) {
+		long [] frameTime = new long [1];
+		GestureRecognizer recognizer = settings.createRecognizer(width, height);
+		recognizer.setListener(GestureEvaluator.createReporter(reported, frameTime));
+		for(int i = 0; i < frameCount; i++) {
+			frameTime[0] = times[i];
+			recognizer.update(times[i], intensities[i], fractions[i], xs[i], ys[i]);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * The native motion kernel from motion_kernel.cpp, built for the host by jni/Makefile. It takes the same
+ * arguments and fills in the same sums as {@link MotionKernel}.
+ */
+final class NativeMotionKernel {
+	private static final boolean sIsAvailable;
+	static {
+		boolean available;
+		try {
+			System.loadLibrary("touch_free_bench");
+			available = true;
+		} catch (UnsatisfiedLinkError e) {
+			available = false;
+		}
+		sIsAvailable = available;
+	}
+
+	private NativeMotionKernel() {
+	}
+
+	/**
+	 * Test if the library was found on <code>java.library.path</code>.
+	 * @return true if {@link #accumulate} can be called, false otherwise
+	 */
+	static boolean isAvailable() {
+		return sIsAvailable;
+	}
+
+	/**
+	 * See {@link MotionKernel#accumulate(byte[], byte[], int, int, int, int, int, int, int, int, boolean, long[])}.
+	 */
+	static native void accumulate(byte [] current, byte [] previous, int step, int rows, int cols, int rowStart, int rowEnd,
+			int threshold, int border, int stride, boolean histogram, long [] sums);
+}
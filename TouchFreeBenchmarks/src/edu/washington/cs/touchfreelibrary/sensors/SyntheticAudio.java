@@ -0,0 +1,86 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.Random;
+
+/**
+ * Microphone audio drawn here for the clap benchmarks: a quiet room with a low hum and some hiss, and claps
+ * at roughly regular intervals. Each clap is a short burst of broadband noise that dies away within a few
+ * tens of milliseconds, like a real clap or snap. Between every third pair of claps a loud broadband noise
+ * swells up and fades away again, like a passing car, which should not count as a clap.
+ */
+final class SyntheticAudio {
+	/** the sample rate the microphone sensor records at */
+	static final int SAMPLE_RATE = 44100;
+
+	private static final double HUM_HERTZ = 100;
+	private static final double HUM_AMPLITUDE = 300;
+	private static final double HISS_AMPLITUDE = 150;
+	private static final double CLAP_AMPLITUDE = 12000;
+	// a clap decays by a factor e every this many seconds, and is over after CLAP_SECONDS
+	private static final double CLAP_DECAY_SECONDS = 0.008;
+	private static final double CLAP_SECONDS = 0.06;
+	private static final double SWELL_AMPLITUDE = 3000;
+	private static final double SWELL_RISE_SECONDS = 0.15;
+	private static final double SWELL_SECONDS = 0.45;
+
+	final short [] samples;
+	// the first sample of every clap
+	final int [] clapStarts;
+
+	private SyntheticAudio(short [] samples, int [] clapStarts) {
+		this.samples = samples;
+		this.clapStarts = clapStarts;
+	}
+
+	/**
+	 * Draws a recording with claps every interval, give or take a quarter of it.
+	 * @param seconds the length of the recording
+	 * @param clapIntervalSeconds the average time from one clap to the next
+	 * @param seed the seed of the noise and of the clap times
+	 * @return the recording
+	 */
+	static SyntheticAudio claps(double seconds, double clapIntervalSeconds, long seed) {
+		Random random = new Random(seed);
+		double [] signal = new double [(int)(seconds * SAMPLE_RATE)];
+		for(int i = 0; i < signal.length; i++)
+			signal[i] = HUM_AMPLITUDE * Math.sin(2 * Math.PI * HUM_HERTZ * i / SAMPLE_RATE) + HISS_AMPLITUDE * random.nextGaussian();
+
+		int clapSamples = (int)(CLAP_SECONDS * SAMPLE_RATE);
+		int interval = (int)(clapIntervalSeconds * SAMPLE_RATE);
+		int swellSamples = (int)(SWELL_SECONDS * SAMPLE_RATE);
+		int riseSamples = (int)(SWELL_RISE_SECONDS * SAMPLE_RATE);
+		int [] starts = new int [signal.length / Math.max(1, interval) + 1];
+		int clapCount = 0;
+		// the first clap comes after a full interval, so the detectors have learned what quiet sounds like
+		for(int start = interval; start + clapSamples < signal.length; start += interval * 3 / 4 + random.nextInt(interval / 2 + 1)) {
+			starts[clapCount++] = start;
+			for(int i = 0; i < clapSamples; i++)
+				signal[start + i] += CLAP_AMPLITUDE * Math.exp(-i / (CLAP_DECAY_SECONDS * SAMPLE_RATE)) * random.nextGaussian();
+
+			// the swell starts halfway to the earliest the next clap can come, and is over before it
+			int swell = start + interval * 3 / 8;
+			if(clapCount % 3 == 0 && swell + swellSamples < Math.min(signal.length, start + interval * 3 / 4)) {
+				for(int i = 0; i < swellSamples; i++) {
+					double envelope = Math.min(1, Math.min((double)i / riseSamples, (double)(swellSamples - i) / riseSamples));
+					signal[swell + i] += SWELL_AMPLITUDE * envelope * random.nextGaussian();
+				}
+			}
+		}
+
+		short [] samples = new short [signal.length];
+		for(int i = 0; i < signal.length; i++)
+			samples[i] = (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(signal[i])));
+
+		int [] clapStarts = new int [clapCount];
+		System.arraycopy(starts, 0, clapStarts, 0, clapCount);
+		return new SyntheticAudio(samples, clapStarts);
+	}
+
+	/**
+	 * Gets the length of the recording.
+	 * @return the length in seconds
+	 */
+	double getSeconds() {
+		return (double)samples.length / SAMPLE_RATE;
+	}
+}
@@ -8,11 +8,22 @@ OPENCV_INSTALL_MODULES:=on
 include /Users/nixdell/Desktop/HandsFree/HandsFree-master/sdk/native/jni/OpenCV.mk
 	
 LOCAL_MODULE    := touch_free_library
-LOCAL_SRC_FILES := motion_averager.cpp
+LOCAL_SRC_FILES := motion_averager.cpp motion_kernel.cpp frame_source.cpp
 LOCAL_LDLIBS +=  -llog -ldl
 
+# armeabi-v7a does not guarantee NEON: build the NEON kernel separately and pick it at runtime
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+    LOCAL_SRC_FILES += motion_kernel_neon.cpp.neon
+    LOCAL_CFLAGS += -DHAVE_NEON=1
+    LOCAL_STATIC_LIBRARIES += cpufeatures
+endif
+
+# x86 always has SSE2, which motion_kernel.cpp picks up through __SSE2__
+
 all:
 	@echo $(LOCAL_PATH)
 
 
-include $(BUILD_SHARED_LIBRARY)
\ No newline at end of file
+include $(BUILD_SHARED_LIBRARY)
+
+$(call import-module,android/cpufeatures)
@@ -1,4 +1,4 @@
 APP_STL := gnustl_static
 APP_CPPFLAGS := -frtti -fexceptions
-APP_ABI := armeabi-v7a
+APP_ABI := armeabi-v7a x86
 APP_PLATFORM := android-8
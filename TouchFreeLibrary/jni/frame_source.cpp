@@ -0,0 +1,36 @@
+#include <jni.h>
+#include <opencv2/core/core.hpp>
+
+using namespace cv;
+
+extern "C" {
+
+JNIEXPORT void JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_Camera2FrameSource_WrapPlane(JNIEnv* env, jclass,
+                                                                                                   jlong frameAddr,
+                                                                                                   jobject plane,
+                                                                                                   jint rows,
+                                                                                                   jint cols,
+                                                                                                   jint rowStride);
+
+JNIEXPORT void JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_Camera2FrameSource_WrapPlane(JNIEnv* env, jclass,
+                                                                                                   jlong frameAddr,
+                                                                                                   jobject plane,
+                                                                                                   jint rows,
+                                                                                                   jint cols,
+                                                                                                   jint rowStride)
+{
+    Mat& frame = *(Mat*)frameAddr;
+
+    unsigned char* data = (unsigned char*)env->GetDirectBufferAddress(plane);
+    if (data == NULL || env->GetDirectBufferCapacity(plane) < (jlong)rowStride * (rows - 1) + cols)
+    {
+        frame.release();
+        return;
+    }
+
+    // A header over memory the Image owns: nothing is copied, and since the header does not own the
+    // data, releasing or reassigning the frame later frees nothing. Rows may be padded to rowStride.
+    frame = Mat(rows, cols, CV_8UC1, data, (size_t)rowStride);
+}
+
+}
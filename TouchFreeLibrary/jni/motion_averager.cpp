@@ -3,6 +3,13 @@
 #include <opencv2/imgproc/imgproc.hpp>
 #include <opencv2/features2d/features2d.hpp>
 #include <vector>
+#include <string.h>
+
+#ifdef MOTION_KERNEL_VERIFY
+#include <android/log.h>
+#endif
+
+#include "motion_kernel.h"
 
 using namespace std;
 using namespace cv;
@@ -13,90 +20,142 @@ using namespace cv;
 // specific version
 #define ELEM(mat,xpos,ypos) *((unsigned char*)(mat.data+mat.step*(ypos)+(xpos)))
 
+// layout of the results handed to the MotionDetectionReturnValue constructor
+#define RESULT_AVERAGE_X            0
+#define RESULT_AVERAGE_Y            1
+#define RESULT_FRACTION             2
+#define RESULT_BOTTOM_RIGHT         3
+#define RESULT_BOTTOM_LEFT          4
+#define RESULT_TOP_RIGHT            5
+#define RESULT_TOP_LEFT             6
+#define RESULT_VALUE_COUNT          7
+
+// number of int64 fields in MotionSums, must match MotionMoments.SIZE
+#define MOTION_SUMS_COUNT           29
+typedef char MotionSumsMatchesCount[sizeof(MotionSums) == MOTION_SUMS_COUNT * sizeof(jlong) ? 1 : -1];
+
+// looked up once in JNI_OnLoad instead of on every frame
+static jclass    gReturnValueClass = NULL;
+static jmethodID gReturnValueConstructor = NULL;
+
+// Only used by the legacy DetectMovementPosition. The frame loop gets the raw sums through
+// MotionDetector.AccumulateMotion and finishes them in MotionMoments instead.
+static void DetectMotion(const Mat& currentFrame, const Mat& previousFrame, double* result)
+{
+    const MotionParams params = { MOTION_THRESHOLD, MOTION_BORDER, 1, 0 };
+    MotionSums sums;
+    AccumulateMotion(currentFrame.data, previousFrame.data, currentFrame.step, currentFrame.rows, currentFrame.cols, &params, &sums);
+
+#ifdef MOTION_KERNEL_VERIFY
+    MotionSums reference;
+    AccumulateMotionScalar(currentFrame.data, previousFrame.data, currentFrame.step, currentFrame.rows, currentFrame.cols, &params, &reference);
+    if (memcmp(&sums, &reference, sizeof(MotionSums)) != 0)
+        __android_log_print(ANDROID_LOG_ERROR, "motion_averager", "vector kernel disagrees with the scalar kernel");
+#endif
+
+    double pointsCounted = (double)sums.count;
+    double area = (double)(currentFrame.rows/2 * currentFrame.cols/2);
+
+    result[RESULT_AVERAGE_X] = sums.count == 0 ? -1.0 : (double)sums.sumX / pointsCounted;
+    result[RESULT_AVERAGE_Y] = sums.count == 0 ? -1.0 : (double)sums.sumY / pointsCounted;
+    result[RESULT_FRACTION] = pointsCounted / (double)(currentFrame.rows * currentFrame.cols);
+    result[RESULT_BOTTOM_RIGHT] = (double)sums.bottomRight / area;
+    result[RESULT_BOTTOM_LEFT] = (double)sums.bottomLeft / area;
+    result[RESULT_TOP_RIGHT] = (double)sums.topRight / area;
+    result[RESULT_TOP_LEFT] = (double)sums.topLeft / area;
+}
+
 extern "C" {
 
     const double EPSILON = 0.00001;
-    
+
+JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void*)
+{
+    JNIEnv* env;
+    if (vm->GetEnv((void**)&env, JNI_VERSION_1_6) != JNI_OK)
+        return -1;
+
+    jclass cls = env->FindClass("edu/washington/cs/touchfreelibrary/sensors/MotionDetectionReturnValue");
+    if (cls == NULL)
+        return -1;
+
+    gReturnValueClass = (jclass)env->NewGlobalRef(cls);
+    gReturnValueConstructor = env->GetMethodID(cls, "<init>", "(DDDDDDD)V");
+    env->DeleteLocalRef(cls);
+    if (gReturnValueConstructor == NULL)
+        return -1;
+
+    return JNI_VERSION_1_6;
+}
+
 JNIEXPORT jobject JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_CameraGestureSensor_DetectMovementPosition(JNIEnv* env, jobject,
                                                                                                                      jlong currentFrameAddr,
-                                                                                                                     jlong previousFrameAddr/*,
-                                                                                                                     jlong outputFrameAddr*/);
+                                                                                                                     jlong previousFrameAddr);
+
+JNIEXPORT void JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_MotionDetector_AccumulateMotion(JNIEnv* env, jclass,
+                                                                                                        jlong currentFrameAddr,
+                                                                                                        jlong previousFrameAddr,
+                                                                                                        jint rowStart,
+                                                                                                        jint rowEnd,
+                                                                                                        jint threshold,
+                                                                                                        jint border,
+                                                                                                        jint stride,
+                                                                                                        jboolean histogram,
+                                                                                                        jlongArray sumsArray);
 
 JNIEXPORT jobject JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_CameraGestureSensor_DetectMovementPosition(JNIEnv* env, jobject,
                                                                                                                      jlong currentFrameAddr,
-                                                                                                                     jlong previousFrameAddr/*,
-                                                                                                                     jlong outputFrameAddr*/)
+                                                                                                                     jlong previousFrameAddr)
 {
     Mat& currentFrame  = *(Mat*)currentFrameAddr;
     Mat& previousFrame  = *(Mat*)previousFrameAddr;
-    //Mat& outputFrame  = *(Mat*)outputFrameAddr;
-    
-    //absdiff(currentFrame, previousFrame, outputFrame);
-    
-    //blur(outputFrame, outputFrame, Point(5, 5));
-    
-    Point2d avg(-1.0, -1.0);
-    double pointsCounted = 0.0;
-    double bottomLeft = 0.0;
-    double bottomRight = 0.0;
-    double topLeft = 0.0;
-    double topRight = 0.0;
-
-    for(int y = 2; y < currentFrame.rows - 2; y++)
+
+    double result[RESULT_VALUE_COUNT];
+    DetectMotion(currentFrame, previousFrame, result);
+
+    // create the object to be returned
+    return env->NewObject(gReturnValueClass, gReturnValueConstructor,
+                          result[RESULT_AVERAGE_X], result[RESULT_AVERAGE_Y], result[RESULT_FRACTION],
+                          result[RESULT_BOTTOM_RIGHT], result[RESULT_BOTTOM_LEFT], result[RESULT_TOP_RIGHT], result[RESULT_TOP_LEFT]);
+}
+
+JNIEXPORT void JNICALL Java_edu_washington_cs_touchfreelibrary_sensors_MotionDetector_AccumulateMotion(JNIEnv* env, jclass,
+                                                                                                        jlong currentFrameAddr,
+                                                                                                        jlong previousFrameAddr,
+                                                                                                        jint rowStart,
+                                                                                                        jint rowEnd,
+                                                                                                        jint threshold,
+                                                                                                        jint border,
+                                                                                                        jint stride,
+                                                                                                        jboolean histogram,
+                                                                                                        jlongArray sumsArray)
+{
+    Mat& currentFrame  = *(Mat*)currentFrameAddr;
+    Mat& previousFrame  = *(Mat*)previousFrameAddr;
+
+    MotionParams params;
+    params.threshold = threshold < 0 ? 0 : (threshold > MOTION_MAX_THRESHOLD ? MOTION_MAX_THRESHOLD : threshold);
+    params.border = border < 0 ? 0 : border;
+    params.stride = stride < 1 ? 1 : stride;
+    params.histogram = histogram ? 1 : 0;
+
+    MotionSums sums;
+    AccumulateMotionStripe(currentFrame.data, previousFrame.data, currentFrame.step, currentFrame.rows, currentFrame.cols,
+                           rowStart, rowEnd, &params, &sums);
+
+#ifdef MOTION_KERNEL_VERIFY
+    if (rowStart <= 0 && rowEnd >= currentFrame.rows)
     {
-        for(int x = 2; x < currentFrame.cols - 2; x++) {
-            int currPixel = abs(ELEM(currentFrame, x, y) - ELEM(previousFrame, x, y));
-            if(currPixel > 20) {
-                avg.x = (avg.x * pointsCounted + (double)x) / (pointsCounted + 1.0);
-                avg.y = (avg.y * pointsCounted + (double)y) / (pointsCounted + 1.0);
-                
-                pointsCounted++;
-
-                if (y > currentFrame.rows/2)
-                {
-                	if (x > currentFrame.cols/2)
-                	{
-                		bottomRight++;
-                	}
-                	else
-                	{
-                		bottomLeft++;
-                	}
-                }
-                else
-                {
-                	if (x > currentFrame.cols/2)
-                	{
-                		topRight++;
-                	}
-                	else
-                	{
-                		topLeft++;
-                	}
-                }
-                //ELEM(outputFrame, x, y) = 255;
-            } //else ELEM(outputFrame, x, y) = 0;
-        }
+        MotionSums reference;
+        AccumulateMotionScalar(currentFrame.data, previousFrame.data, currentFrame.step, currentFrame.rows, currentFrame.cols, &params, &reference);
+        if (memcmp(&sums, &reference, sizeof(MotionSums)) != 0)
+            __android_log_print(ANDROID_LOG_ERROR, "motion_averager", "vector kernel disagrees with the scalar kernel");
     }
-    
-    double area = (double)(currentFrame.rows/2 * currentFrame.cols/2);
+#endif
 
-    double totalFraction = pointsCounted / (double)(currentFrame.rows * currentFrame.cols);
-    double bottomRightFraction = bottomRight / area;
-    double bottomLeftFraction = bottomLeft / area;
-    double topRightFraction = topRight / area;
-    double topLeftFraction = topLeft / area;
-
-    // create the point object to be returned
-    jobject object;
-    jmethodID constructor;
-    jclass cls;
-    
-    cls = env->FindClass("edu/washington/cs/touchfreelibrary/sensors/MotionDetectionReturnValue");
-    constructor = env->GetMethodID(cls, "<init>", "(DDDDDDD)V");
-    object = env->NewObject(cls, constructor, avg.x, avg.y, totalFraction, bottomRightFraction, bottomLeftFraction, topRightFraction, topLeftFraction);
-
-    return object;
+    // MotionSums is laid out as MOTION_SUMS_COUNT int64s, the same order MotionMoments expects,
+    // so it is copied straight into the caller's array and nothing is allocated on the Java heap
+    env->SetLongArrayRegion(sumsArray, 0, MOTION_SUMS_COUNT, (const jlong*)&sums);
 }
 
 }
@@ -0,0 +1,307 @@
+#include "motion_kernel.h"
+
+#include <stdlib.h>
+#include <string.h>
+
+#if defined(__SSE2__)
+#include <emmintrin.h>
+#endif
+
+#if defined(HAVE_NEON) && defined(__arm__)
+#include <cpu-features.h>
+#endif
+
+void AccumulateRowRangeScalar(const uint8_t* current, const uint8_t* previous, int x0, int x1, const MotionParams* params, RowSums* sums)
+{
+    int stride = params->stride;
+    int threshold = params->threshold;
+
+    int64_t count = 0;
+    int64_t sumX = 0;
+    int64_t sumXX = 0;
+    int64_t samples = 0;
+    int64_t intensitySum = 0;
+    int64_t intensitySumSquares = 0;
+
+    for(int x = x0; x < x1; x += stride) {
+        int value = current[x];
+        samples++;
+        intensitySum += value;
+        intensitySumSquares += value * value;
+        if(params->histogram)
+            sums->histogram[value >> 4]++;
+
+        if(abs(value - previous[x]) > threshold) {
+            count++;
+            sumX += x;
+            sumXX += (int64_t)x * x;
+        }
+    }
+
+    sums->count += count;
+    sums->sumX += sumX;
+    sums->sumXX += sumXX;
+    sums->samples += samples;
+    sums->intensitySum += intensitySum;
+    sums->intensitySumSquares += intensitySumSquares;
+}
+
+#if defined(__SSE2__)
+static inline int64_t HorizontalSum64(__m128i v)
+{
+    int64_t lanes[2];
+    _mm_storeu_si128((__m128i*)lanes, v);
+    return lanes[0] + lanes[1];
+}
+
+static inline int64_t HorizontalSum32(__m128i v)
+{
+    uint32_t lanes[4];
+    _mm_storeu_si128((__m128i*)lanes, v);
+    return (int64_t)lanes[0] + lanes[1] + lanes[2] + lanes[3];
+}
+
+// gathers the 16 samples at p, p + STRIDE, ..., p + 15 * STRIDE
+template <int STRIDE> static inline __m128i LoadSamples(const uint8_t* p);
+
+template <> inline __m128i LoadSamples<1>(const uint8_t* p)
+{
+    return _mm_loadu_si128((const __m128i*)p);
+}
+
+template <> inline __m128i LoadSamples<2>(const uint8_t* p)
+{
+    const __m128i lowBytes = _mm_set1_epi16(0x00FF);
+    __m128i a = _mm_and_si128(_mm_loadu_si128((const __m128i*)p), lowBytes);
+    __m128i b = _mm_and_si128(_mm_loadu_si128((const __m128i*)(p + 16)), lowBytes);
+    return _mm_packus_epi16(a, b);
+}
+
+template <> inline __m128i LoadSamples<4>(const uint8_t* p)
+{
+    const __m128i lowBytes = _mm_set1_epi32(0x000000FF);
+    __m128i a = _mm_and_si128(_mm_loadu_si128((const __m128i*)p), lowBytes);
+    __m128i b = _mm_and_si128(_mm_loadu_si128((const __m128i*)(p + 16)), lowBytes);
+    __m128i c = _mm_and_si128(_mm_loadu_si128((const __m128i*)(p + 32)), lowBytes);
+    __m128i d = _mm_and_si128(_mm_loadu_si128((const __m128i*)(p + 48)), lowBytes);
+    return _mm_packus_epi16(_mm_packs_epi32(a, b), _mm_packs_epi32(c, d));
+}
+
+template <int STRIDE, bool HISTOGRAM>
+static void AccumulateRowRangeSSE2Strided(const uint8_t* current, const uint8_t* previous, int x0, int x1, const MotionParams* params, RowSums* sums)
+{
+    const int threshold = params->threshold;
+    const __m128i zero = _mm_setzero_si128();
+    const __m128i lowNibbles = _mm_set1_epi8(0x0F);
+    const __m128i one = _mm_set1_epi8(1);
+    const __m128i offsets = _mm_setr_epi8(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15);
+    const __m128i squares = _mm_setr_epi8(0, 1, 4, 9, 16, 25, 36, 49, 64, 81, 100, 121, (char)144, (char)169, (char)196, (char)225);
+    // SSE2 has no unsigned byte compare, so test diff >= threshold + 1 as max(diff, threshold + 1) == diff
+    const __m128i limit = _mm_set1_epi8((char)(threshold + 1));
+
+    // a block reads 16 * STRIDE bytes, which must all lie below x1
+    int x = x0;
+    while(x + 16 * STRIDE <= x1) {
+        int blocks = (x1 - x) / (16 * STRIDE);
+        if(blocks > MAX_BLOCKS_PER_RUN)
+            blocks = MAX_BLOCKS_PER_RUN;
+
+        // _mm_sad_epu8 reduces each half into a 64 bit lane, so none of these can overflow
+        __m128i count = zero;
+        __m128i offsetSum = zero;
+        __m128i squareSum = zero;
+        __m128i prefix = zero;
+        __m128i offsetPrefix = zero;
+        __m128i prefixPrefix = zero;
+        // 64 bit lanes for the intensity, 32 bit lanes for its squares (at most 64 * 4 * 255^2 each),
+        // and byte lanes that count at most 64 samples per bin
+        __m128i intensity = zero;
+        __m128i intensitySquares = zero;
+        __m128i histogram[MOTION_HISTOGRAM_BINS];
+        if(HISTOGRAM) {
+            for(int bin = 0; bin < MOTION_HISTOGRAM_BINS; bin++)
+                histogram[bin] = zero;
+        }
+
+        for(int b = 0; b < blocks; b++) {
+            __m128i c = LoadSamples<STRIDE>(current + x + 16 * STRIDE * b);
+            __m128i p = LoadSamples<STRIDE>(previous + x + 16 * STRIDE * b);
+
+            __m128i low = _mm_unpacklo_epi8(c, zero);
+            __m128i high = _mm_unpackhi_epi8(c, zero);
+            intensity = _mm_add_epi64(intensity, _mm_sad_epu8(c, zero));
+            intensitySquares = _mm_add_epi32(intensitySquares, _mm_add_epi32(_mm_madd_epi16(low, low), _mm_madd_epi16(high, high)));
+            if(HISTOGRAM) {
+                __m128i bins = _mm_and_si128(_mm_srli_epi16(c, 4), lowNibbles);
+                for(int bin = 0; bin < MOTION_HISTOGRAM_BINS; bin++)
+                    histogram[bin] = _mm_sub_epi8(histogram[bin], _mm_cmpeq_epi8(bins, _mm_set1_epi8((char)bin)));
+            }
+
+            __m128i diff = _mm_or_si128(_mm_subs_epu8(c, p), _mm_subs_epu8(p, c));
+            __m128i moving = _mm_cmpeq_epi8(_mm_max_epu8(diff, limit), diff);
+
+            count = _mm_add_epi64(count, _mm_sad_epu8(_mm_and_si128(moving, one), zero));
+            offsetSum = _mm_add_epi64(offsetSum, _mm_sad_epu8(_mm_and_si128(moving, offsets), zero));
+            squareSum = _mm_add_epi64(squareSum, _mm_sad_epu8(_mm_and_si128(moving, squares), zero));
+            prefix = _mm_add_epi64(prefix, count);
+            offsetPrefix = _mm_add_epi64(offsetPrefix, offsetSum);
+            prefixPrefix = _mm_add_epi64(prefixPrefix, prefix);
+        }
+
+        AddVectorRun(sums, x, STRIDE, blocks,
+                     HorizontalSum64(count), HorizontalSum64(offsetSum), HorizontalSum64(squareSum),
+                     HorizontalSum64(prefix), HorizontalSum64(offsetPrefix), HorizontalSum64(prefixPrefix));
+        sums->samples += 16 * blocks;
+        sums->intensitySum += HorizontalSum64(intensity);
+        sums->intensitySumSquares += HorizontalSum32(intensitySquares);
+        if(HISTOGRAM) {
+            for(int bin = 0; bin < MOTION_HISTOGRAM_BINS; bin++)
+                sums->histogram[bin] += HorizontalSum64(_mm_sad_epu8(histogram[bin], zero));
+        }
+
+        x += 16 * STRIDE * blocks;
+    }
+
+    AccumulateRowRangeScalar(current, previous, x, x1, params, sums);
+}
+
+template <int STRIDE>
+static inline void AccumulateRowRangeSSE2Histogram(const uint8_t* current, const uint8_t* previous, int x0, int x1, const MotionParams* params, RowSums* sums)
+{
+    if(params->histogram)
+        AccumulateRowRangeSSE2Strided<STRIDE, true>(current, previous, x0, x1, params, sums);
+    else
+        AccumulateRowRangeSSE2Strided<STRIDE, false>(current, previous, x0, x1, params, sums);
+}
+
+void AccumulateRowRangeSSE2(const uint8_t* current, const uint8_t* previous, int x0, int x1, const MotionParams* params, RowSums* sums)
+{
+    switch(params->stride) {
+    case 1:
+        AccumulateRowRangeSSE2Histogram<1>(current, previous, x0, x1, params, sums);
+        break;
+    case 2:
+        AccumulateRowRangeSSE2Histogram<2>(current, previous, x0, x1, params, sums);
+        break;
+    case 4:
+        AccumulateRowRangeSSE2Histogram<4>(current, previous, x0, x1, params, sums);
+        break;
+    default:
+        AccumulateRowRangeScalar(current, previous, x0, x1, params, sums);
+        break;
+    }
+}
+#endif
+
+// the first sample at or after x on the grid start, start + stride, ...
+static inline int AlignToGrid(int x, int start, int stride)
+{
+    if(x <= start)
+        return start;
+    return start + (x - start + stride - 1) / stride * stride;
+}
+
+// Adds the moments of the sampled rows in [y0, y1), with the columns split into [x0, splitX) and
+// [splitX, x1). Only the column sums need the pixel loop: the y terms are y times the row totals.
+static void AccumulateRowBand(RowRangeKernel kernel, const uint8_t* current, const uint8_t* previous, size_t step,
+                              int y0, int y1, int x0, int splitX, int x1, const MotionParams* params,
+                              MotionSums* sums, int64_t* left, int64_t* right)
+{
+    for(int y = y0; y < y1; y += params->stride)
+    {
+        RowSums leftRow;
+        RowSums rightRow;
+        memset(&leftRow, 0, sizeof(RowSums));
+        memset(&rightRow, 0, sizeof(RowSums));
+        kernel(current + step * y, previous + step * y, x0, splitX, params, &leftRow);
+        kernel(current + step * y, previous + step * y, splitX, x1, params, &rightRow);
+
+        int64_t rowCount = leftRow.count + rightRow.count;
+        int64_t rowSumX = leftRow.sumX + rightRow.sumX;
+
+        sums->count += rowCount;
+        sums->sumX += rowSumX;
+        sums->sumXX += leftRow.sumXX + rightRow.sumXX;
+        sums->sumY += rowCount * y;
+        sums->sumYY += rowCount * y * y;
+        sums->sumXY += rowSumX * y;
+
+        sums->samples += leftRow.samples + rightRow.samples;
+        sums->intensitySum += leftRow.intensitySum + rightRow.intensitySum;
+        sums->intensitySumSquares += leftRow.intensitySumSquares + rightRow.intensitySumSquares;
+        if(params->histogram) {
+            for(int bin = 0; bin < MOTION_HISTOGRAM_BINS; bin++)
+                sums->histogram[bin] += leftRow.histogram[bin] + rightRow.histogram[bin];
+        }
+
+        *left += leftRow.count;
+        *right += rightRow.count;
+    }
+}
+
+// The quadrants split at y > rows/2 and x > cols/2. They come from running the top and bottom
+// halves as separate row bands with the columns split into two ranges, so no pixel is classified.
+// Only the sampled rows of [rowStart, rowEnd) are visited; rows are sampled on a grid that starts
+// at the border, so stripes that cover the frame add up to exactly the sums of the whole frame.
+static void AccumulateMotionRows(RowRangeKernel kernel, const uint8_t* current, const uint8_t* previous, size_t step, int rows, int cols,
+                                 int rowStart, int rowEnd, const MotionParams* params, MotionSums* sums)
+{
+    memset(sums, 0, sizeof(MotionSums));
+
+    int border = params->border;
+    int stride = params->stride;
+
+    int x0 = border;
+    int x1 = cols - border;
+    if(x1 < x0)
+        x1 = x0;
+    int splitX = AlignToGrid(cols/2 + 1, x0, stride);
+    if(splitX > x1)
+        splitX = x1;
+
+    int y0 = AlignToGrid(rowStart, border, stride);
+    int y1 = rowEnd < rows - border ? rowEnd : rows - border;
+    if(y1 < y0)
+        y1 = y0;
+    int splitY = AlignToGrid(rows/2 + 1, y0, stride);
+    if(splitY > y1)
+        splitY = y1;
+
+    AccumulateRowBand(kernel, current, previous, step, y0, splitY, x0, splitX, x1, params, sums, &sums->topLeft, &sums->topRight);
+    AccumulateRowBand(kernel, current, previous, step, splitY, y1, x0, splitX, x1, params, sums, &sums->bottomLeft, &sums->bottomRight);
+}
+
+void AccumulateMotionScalar(const uint8_t* current, const uint8_t* previous, size_t step, int rows, int cols,
+                            const MotionParams* params, MotionSums* sums)
+{
+    AccumulateMotionRows(AccumulateRowRangeScalar, current, previous, step, rows, cols, 0, rows, params, sums);
+}
+
+static RowRangeKernel SelectRowKernel()
+{
+#if defined(HAVE_NEON) && defined(__arm__)
+    // armeabi-v7a does not guarantee NEON, so ask the CPU
+    if(android_getCpuFamily() == ANDROID_CPU_FAMILY_ARM && (android_getCpuFeatures() & ANDROID_CPU_ARM_FEATURE_NEON) != 0)
+        return AccumulateRowRangeNEON;
+#elif defined(HAVE_NEON)
+    return AccumulateRowRangeNEON;
+#endif
+#if defined(__SSE2__)
+    return AccumulateRowRangeSSE2;
+#endif
+    return AccumulateRowRangeScalar;
+}
+
+void AccumulateMotionStripe(const uint8_t* current, const uint8_t* previous, size_t step, int rows, int cols,
+                            int rowStart, int rowEnd, const MotionParams* params, MotionSums* sums)
+{
+    static RowRangeKernel kernel = SelectRowKernel();
+
+    AccumulateMotionRows(kernel, current, previous, step, rows, cols, rowStart, rowEnd, params, sums);
+}
+
+void AccumulateMotion(const uint8_t* current, const uint8_t* previous, size_t step, int rows, int cols,
+                      const MotionParams* params, MotionSums* sums)
+{
+    AccumulateMotionStripe(current, previous, step, rows, cols, 0, rows, params, sums);
+}
@@ -0,0 +1,125 @@
+#ifndef MOTION_KERNEL_H
+#define MOTION_KERNEL_H
+
+#include <stddef.h>
+#include <stdint.h>
+
+// a pixel is "moving" when it changed by more than this between two frames
+#define MOTION_THRESHOLD 20
+
+// pixels this close to the edge of the frame are ignored
+#define MOTION_BORDER 2
+
+// the largest threshold the vector kernels can compare against
+#define MOTION_MAX_THRESHOLD 254
+
+// bins of the intensity histogram, each 16 intensity levels wide
+#define MOTION_HISTOGRAM_BINS 16
+
+// which pixels of a frame are looked at, and what counts as moving
+struct MotionParams
+{
+    int threshold;
+    int border;
+    // only every stride-th row and column is sampled, 1 samples every pixel
+    int stride;
+    // non-zero to also count the sampled pixels of the current frame into MOTION_HISTOGRAM_BINS bins
+    int histogram;
+};
+
+// integer moments over all moving pixels of a frame, identical for every kernel implementation.
+// Coordinates are always full resolution pixel coordinates, whatever the stride.
+// The same pass also sums the intensity of every sampled pixel of the current frame, so the
+// frame does not have to be read a second time for its brightness.
+struct MotionSums
+{
+    int64_t count;
+    int64_t sumX;
+    int64_t sumY;
+    int64_t sumXX;
+    int64_t sumYY;
+    int64_t sumXY;
+    int64_t topLeft;
+    int64_t topRight;
+    int64_t bottomLeft;
+    int64_t bottomRight;
+    int64_t samples;
+    int64_t intensitySum;
+    int64_t intensitySumSquares;
+    int64_t histogram[MOTION_HISTOGRAM_BINS];
+};
+
+// moments over the moving pixels of one row, sampled at x0, x0 + stride, ... while below x1,
+// and the intensity sums over all of those samples
+struct RowSums
+{
+    int64_t count;
+    int64_t sumX;
+    int64_t sumXX;
+    int64_t samples;
+    int64_t intensitySum;
+    int64_t intensitySumSquares;
+    int64_t histogram[MOTION_HISTOGRAM_BINS];
+};
+
+typedef void (*RowRangeKernel)(const uint8_t* current, const uint8_t* previous, int x0, int x1, const MotionParams* params, RowSums* sums);
+
+void AccumulateRowRangeScalar(const uint8_t* current, const uint8_t* previous, int x0, int x1, const MotionParams* params, RowSums* sums);
+
+// the vector kernels handle strides 1, 2 and 4 and fall back to the scalar kernel for any other stride
+#if defined(__SSE2__)
+void AccumulateRowRangeSSE2(const uint8_t* current, const uint8_t* previous, int x0, int x1, const MotionParams* params, RowSums* sums);
+#endif
+
+#if defined(HAVE_NEON)
+void AccumulateRowRangeNEON(const uint8_t* current, const uint8_t* previous, int x0, int x1, const MotionParams* params, RowSums* sums);
+#endif
+
+// The vector kernels work on runs of up to MAX_BLOCKS_PER_RUN blocks of 16 samples. Per run they
+// only keep vector accumulators (lane sums are reduced once at the end of the run):
+//
+//     C  = moving samples                   S  = sum of in-block offsets i (0..15) of moving samples
+//     Q  = sum of i^2 of moving samples     P  = sum over blocks of C so far
+//     PS = sum over blocks of S so far      R  = sum over blocks of P so far
+//
+// With c_b and s_b the count and offset sum of block b, the block-weighted sums follow as
+//
+//     sum(b c_b)   = B C - P
+//     sum(b s_b)   = B S - PS
+//     sum(b^2 c_b) = 2 R - (B^2 + B) C + (2 B + 1) sum(b c_b)
+//
+// Sample o = 16 b + i of a run that starts at xs lies at x = xs + stride * o, and AddVectorRun
+// rebuilds the row moments exactly from sum(o) and sum(o^2).
+#define MAX_BLOCKS_PER_RUN 64
+
+static inline void AddVectorRun(RowSums* sums, int xs, int stride, int blocks, int64_t C, int64_t S, int64_t Q, int64_t P, int64_t PS, int64_t R)
+{
+    int64_t x = xs;
+    int64_t s = stride;
+    int64_t b = blocks;
+    int64_t weightedCount = b * C - P;
+    int64_t weightedOffsets = b * S - PS;
+    int64_t squareWeightedCount = 2 * R - (b * b + b) * C + (2 * b + 1) * weightedCount;
+
+    int64_t sumOffsets = 16 * weightedCount + S;
+    int64_t sumSquareOffsets = 256 * squareWeightedCount + 32 * weightedOffsets + Q;
+
+    sums->count += C;
+    sums->sumX += x * C + s * sumOffsets;
+    sums->sumXX += x * x * C + 2 * x * s * sumOffsets + s * s * sumSquareOffsets;
+}
+
+// the reference implementation, built on AccumulateRowRangeScalar
+void AccumulateMotionScalar(const uint8_t* current, const uint8_t* previous, size_t step, int rows, int cols,
+                            const MotionParams* params, MotionSums* sums);
+
+// the same result as AccumulateMotionScalar, using the fastest row kernel the CPU supports
+void AccumulateMotion(const uint8_t* current, const uint8_t* previous, size_t step, int rows, int cols,
+                      const MotionParams* params, MotionSums* sums);
+
+// like AccumulateMotion, but only for the rows [rowStart, rowEnd). The sums of stripes that cover
+// the frame add up to the sums of AccumulateMotion, so stripes can be run on separate threads.
+void AccumulateMotionStripe(const uint8_t* current, const uint8_t* previous, size_t step, int rows, int cols,
+                            int rowStart, int rowEnd, const MotionParams* params, MotionSums* sums);
+
+#endif
@@ -0,0 +1,139 @@
+#include "motion_kernel.h"
+
+#include <arm_neon.h>
+
+static inline int64_t HorizontalSum16(uint16x8_t v)
+{
+    uint64x2_t wide = vpaddlq_u32(vpaddlq_u16(v));
+    return (int64_t)(vgetq_lane_u64(wide, 0) + vgetq_lane_u64(wide, 1));
+}
+
+static inline int64_t HorizontalSum32(uint32x4_t v)
+{
+    uint64x2_t wide = vpaddlq_u32(v);
+    return (int64_t)(vgetq_lane_u64(wide, 0) + vgetq_lane_u64(wide, 1));
+}
+
+// gathers the 16 samples at p, p + STRIDE, ..., p + 15 * STRIDE
+template <int STRIDE> static inline uint8x16_t LoadSamples(const uint8_t* p);
+
+template <> inline uint8x16_t LoadSamples<1>(const uint8_t* p)
+{
+    return vld1q_u8(p);
+}
+
+template <> inline uint8x16_t LoadSamples<2>(const uint8_t* p)
+{
+    return vld2q_u8(p).val[0];
+}
+
+template <> inline uint8x16_t LoadSamples<4>(const uint8_t* p)
+{
+    return vld4q_u8(p).val[0];
+}
+
+// see motion_kernel.h for what the accumulators hold and how the moments are rebuilt
+template <int STRIDE, bool HISTOGRAM>
+static void AccumulateRowRangeNEONStrided(const uint8_t* current, const uint8_t* previous, int x0, int x1, const MotionParams* params, RowSums* sums)
+{
+    static const uint8_t kOffsets[16] = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 };
+    static const uint8_t kSquares[16] = { 0, 1, 4, 9, 16, 25, 36, 49, 64, 81, 100, 121, 144, 169, 196, 225 };
+    const uint8x16_t offsets = vld1q_u8(kOffsets);
+    const uint8x16_t squares = vld1q_u8(kSquares);
+    const uint8x16_t one = vdupq_n_u8(1);
+    const uint8x16_t limit = vdupq_n_u8((uint8_t)params->threshold);
+
+    // a block reads 16 * STRIDE bytes, which must all lie below x1
+    int x = x0;
+    while(x + 16 * STRIDE <= x1) {
+        int blocks = (x1 - x) / (16 * STRIDE);
+        if(blocks > MAX_BLOCKS_PER_RUN)
+            blocks = MAX_BLOCKS_PER_RUN;
+
+        // per 16 bit lane, with at most 64 blocks: count <= 128, offsets <= 1920, squares <= 28800,
+        // prefix <= 4160, offset prefix <= 62400. The prefix of prefixes needs 32 bit lanes.
+        uint16x8_t count = vdupq_n_u16(0);
+        uint16x8_t offsetSum = vdupq_n_u16(0);
+        uint16x8_t squareSum = vdupq_n_u16(0);
+        uint16x8_t prefix = vdupq_n_u16(0);
+        uint16x8_t offsetPrefix = vdupq_n_u16(0);
+        uint32x4_t prefixPrefixLow = vdupq_n_u32(0);
+        uint32x4_t prefixPrefixHigh = vdupq_n_u32(0);
+        // the intensity reaches at most 64 * 2 * 255 per 16 bit lane, its squares 64 * 4 * 255^2
+        // per 32 bit lane, and each byte lane of a histogram bin counts at most 64 samples
+        uint16x8_t intensity = vdupq_n_u16(0);
+        uint32x4_t intensitySquares = vdupq_n_u32(0);
+        uint8x16_t histogram[MOTION_HISTOGRAM_BINS];
+        if(HISTOGRAM) {
+            for(int bin = 0; bin < MOTION_HISTOGRAM_BINS; bin++)
+                histogram[bin] = vdupq_n_u8(0);
+        }
+
+        for(int b = 0; b < blocks; b++) {
+            uint8x16_t c = LoadSamples<STRIDE>(current + x + 16 * STRIDE * b);
+            uint8x16_t p = LoadSamples<STRIDE>(previous + x + 16 * STRIDE * b);
+
+            intensity = vpadalq_u8(intensity, c);
+            intensitySquares = vpadalq_u16(intensitySquares, vmull_u8(vget_low_u8(c), vget_low_u8(c)));
+            intensitySquares = vpadalq_u16(intensitySquares, vmull_u8(vget_high_u8(c), vget_high_u8(c)));
+            if(HISTOGRAM) {
+                uint8x16_t bins = vshrq_n_u8(c, 4);
+                for(int bin = 0; bin < MOTION_HISTOGRAM_BINS; bin++)
+                    histogram[bin] = vsubq_u8(histogram[bin], vceqq_u8(bins, vdupq_n_u8((uint8_t)bin)));
+            }
+
+            uint8x16_t moving = vcgtq_u8(vabdq_u8(c, p), limit);
+
+            count = vpadalq_u8(count, vandq_u8(moving, one));
+            offsetSum = vpadalq_u8(offsetSum, vandq_u8(moving, offsets));
+            squareSum = vpadalq_u8(squareSum, vandq_u8(moving, squares));
+            prefix = vaddq_u16(prefix, count);
+            offsetPrefix = vaddq_u16(offsetPrefix, offsetSum);
+            prefixPrefixLow = vaddw_u16(prefixPrefixLow, vget_low_u16(prefix));
+            prefixPrefixHigh = vaddw_u16(prefixPrefixHigh, vget_high_u16(prefix));
+        }
+
+        AddVectorRun(sums, x, STRIDE, blocks,
+                     HorizontalSum16(count), HorizontalSum16(offsetSum), HorizontalSum16(squareSum),
+                     HorizontalSum16(prefix), HorizontalSum16(offsetPrefix),
+                     HorizontalSum32(prefixPrefixLow) + HorizontalSum32(prefixPrefixHigh));
+        sums->samples += 16 * blocks;
+        sums->intensitySum += HorizontalSum16(intensity);
+        sums->intensitySumSquares += HorizontalSum32(intensitySquares);
+        if(HISTOGRAM) {
+            for(int bin = 0; bin < MOTION_HISTOGRAM_BINS; bin++)
+                sums->histogram[bin] += HorizontalSum16(vpaddlq_u8(histogram[bin]));
+        }
+
+        x += 16 * STRIDE * blocks;
+    }
+
+    AccumulateRowRangeScalar(current, previous, x, x1, params, sums);
+}
+
+template <int STRIDE>
+static inline void AccumulateRowRangeNEONHistogram(const uint8_t* current, const uint8_t* previous, int x0, int x1, const MotionParams* params, RowSums* sums)
+{
+    if(params->histogram)
+        AccumulateRowRangeNEONStrided<STRIDE, true>(current, previous, x0, x1, params, sums);
+    else
+        AccumulateRowRangeNEONStrided<STRIDE, false>(current, previous, x0, x1, params, sums);
+}
+
+void AccumulateRowRangeNEON(const uint8_t* current, const uint8_t* previous, int x0, int x1, const MotionParams* params, RowSums* sums)
+{
+    switch(params->stride) {
+    case 1:
+        AccumulateRowRangeNEONHistogram<1>(current, previous, x0, x1, params, sums);
+        break;
+    case 2:
+        AccumulateRowRangeNEONHistogram<2>(current, previous, x0, x1, params, sums);
+        break;
+    case 4:
+        AccumulateRowRangeNEONHistogram<4>(current, previous, x0, x1, params, sums);
+        break;
+    default:
+        AccumulateRowRangeScalar(current, previous, x0, x1, params, sums);
+        break;
+    }
+}
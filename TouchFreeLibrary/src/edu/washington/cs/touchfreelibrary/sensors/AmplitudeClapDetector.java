@@ -0,0 +1,112 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p>The clap detection of {@link MicrophoneClickSensor}, apart from the microphone so it can be run over
+ * recorded or synthetic audio. Audio comes in blocks of 16 bit samples. A block whose mean absolute amplitude
+ * is well above the mean of the last few blocks may start a clap; the clap is reported once the sound has died
+ * down again, and forgotten if it lasts too long to be a clap.</p>
+ *
+ * <p>Nothing is allocated after construction. This class is not thread safe.</p>
+ */
+final class AmplitudeClapDetector implements ClapDetector {
+	// how many blocks the running mean is over
+	static final int NUMBER_IN_LIST = 8;
+	static final int MAX_LENGTH_OF_CLAP = 4; // in blocks
+	static final int TIME_TO_STAY_AVERAGE = 3; // also in blocks
+	static final double DEFAULT_MIN_CLAP_TO_SILENCE_RATIO = 8.0;
+
+	private static final double MAX_CURRENT_TO_PEAK_CLAP_RATIO = 0.33;
+
+	// the mean absolute amplitudes of the last blocks. The window never expires, the capacity bounds it.
+	private final RollingStatistics mBlockAmplitudes = new RollingStatistics(Long.MAX_VALUE, NUMBER_IN_LIST);
+
+	private volatile double mSensitivity = DEFAULT_MIN_CLAP_TO_SILENCE_RATIO;
+
+	// above 0 while in a possible clap, below 0 while waiting for it to stay quiet, counted in blocks
+	private int mClapCounter;
+	// blocks left to ignore after a sound that was too long to be a clap
+	private int mBreakCounter;
+	private double mPeakOfClap;
+
+	/**
+	 * Sets how far above the running mean a block has to be to start a clap.
+	 * @param sensitivity the ratio, lower is more sensitive
+	 */
+	@Override
+	public void setSensitivity(double sensitivity) {
+		mSensitivity = sensitivity;
+	}
+
+	@Override
+	public double getSensitivity() {
+		return mSensitivity;
+	}
+
+	@Override
+	public void reset() {
+		mBlockAmplitudes.clear();
+		mClapCounter = 0;
+		mBreakCounter = 0;
+		mPeakOfClap = 0;
+	}
+
+	/**
+	 * Looks at the next block of audio. A clap is only reported once it has died down, so a few blocks after
+	 * it started.
+	 * @param samples the samples, 16 bit signed
+	 * @param count how many of the samples to look at
+	 * @return true if a clap ended with this block
+	 */
+	@Override
+	public boolean process(short [] samples, int count) {
+		if(count <= 0)
+			return false;
+
+		// average the amplitudes of the data set
+		long totalAbsValue = 0;
+		for(int i = 0; i < count; i++) {
+			int sample = samples[i];
+			totalAbsValue += sample < 0 ? -sample : sample;
+		}
+		double averageAbsValue = (double)totalAbsValue / count;
+
+		boolean clapped = false;
+		if(mBreakCounter == 0) {
+			// now, let's check if our latest number is far from the norm
+			if(mBlockAmplitudes.getCount() == NUMBER_IN_LIST && mClapCounter == 0) {
+				if(averageAbsValue > mBlockAmplitudes.getMean() * mSensitivity) {
+					// potential clap detected!
+					mPeakOfClap = averageAbsValue;
+					mClapCounter++;
+				}
+			} else if(mClapCounter >= MAX_LENGTH_OF_CLAP) {
+				// the clap lasted too long. Let's let it be.
+				mClapCounter = 0;
+				mBreakCounter = NUMBER_IN_LIST;
+			} else if(mClapCounter > 0) {
+				// see if we're still at a "clap" point
+				if(averageAbsValue / mPeakOfClap >= MAX_CURRENT_TO_PEAK_CLAP_RATIO) {
+					if(mPeakOfClap < averageAbsValue && mClapCounter < 2)
+						mPeakOfClap = averageAbsValue;
+					mClapCounter++;
+				} else {
+					// we're out of the clap, I believe
+					mBlockAmplitudes.clear();
+
+					mClapCounter = -TIME_TO_STAY_AVERAGE;
+				}
+			} else if(mClapCounter < 0) {
+				if(averageAbsValue / mPeakOfClap < MAX_CURRENT_TO_PEAK_CLAP_RATIO) {
+					mClapCounter++;
+					if(mClapCounter == 0)
+						clapped = true;
+				}
+				else mClapCounter = 0;
+			}
+		} else mBreakCounter--;
+
+		// update the average
+		mBlockAmplitudes.add(0, averageAbsValue);
+		return clapped;
+	}
+}
@@ -0,0 +1,415 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Range;
+
+/**
+ * <p>A {@link FrameSource} that reads the front facing camera through the camera2 API and an
+ * <code>ImageReader</code>. Frames are not converted or copied: {@link #retrieve(Mat)} points the frame at
+ * the luminance plane of the <code>YUV_420_888</code> image, which is already the greyscale frame.</p>
+ *
+ * <p>The image stays open until the frame is passed to {@link #retrieve(Mat)} again or the source is
+ * released, so the <code>ImageReader</code> is created with room for every frame the sensor may hold.
+ * Needs Android 5.0 (API level 21); on older devices {@link #open(int)} returns false.</p>
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class Camera2FrameSource implements FrameSource {
+	private static final String TAG = "Camera2FrameSource";
+
+	// how long to wait for the camera to open or a session to be configured, and for a frame
+	private static final long OPEN_TIMEOUT_MILLIS = 2500;
+	private static final long FRAME_TIMEOUT_MILLIS = 1000;
+
+	private final Context mContext;
+
+	private HandlerThread mCameraThread;
+	private Handler mCameraHandler;
+	private CameraDevice mCameraDevice;
+	private CameraCaptureSession mSession;
+	private ImageReader mImageReader;
+	private StreamConfigurationMap mStreamConfigurations;
+	private Range<Integer> [] mFrameRateRanges;
+	private Range<Integer> mFrameRateRange;
+	private int mHeldFrames;
+
+	// signals from the camera thread, guarded by mLock
+	private final Object mLock = new Object();
+	private boolean mIsOpenFinished;
+	private boolean mIsConfigureFinished;
+	private boolean mIsImageAvailable;
+
+	// the image grabbed but not yet retrieved, and which frame points at which image
+	private Image mGrabbedImage;
+	private long mFrameTime;
+	private Mat [] mBoundFrames;
+	private Image [] mBoundImages;
+
+	/**
+	 * Creates a source for the front facing camera.
+	 * @param context a Context to get the camera service from
+	 */
+	public Camera2FrameSource(Context context) {
+		mContext = context;
+	}
+
+	@Override
+	public boolean open(int heldFrames) {
+		if(Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+			return false;
+
+		release();
+		mHeldFrames = heldFrames;
+		mBoundFrames = new Mat [heldFrames];
+		mBoundImages = new Image [heldFrames];
+
+		CameraManager manager = (CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
+		try {
+			String cameraId = findFrontFacingCamera(manager);
+			if(cameraId == null)
+				return false;
+
+			CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
+			mStreamConfigurations = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+			mFrameRateRanges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+			mFrameRateRange = null;
+
+			mCameraThread = new HandlerThread(TAG);
+			mCameraThread.start();
+			mCameraHandler = new Handler(mCameraThread.getLooper());
+
+			synchronized(mLock) {
+				mIsOpenFinished = false;
+				DeviceCallback callback = new DeviceCallback(mCameraThread);
+				manager.openCamera(cameraId, callback, mCameraHandler);
+				waitFor(OPEN_TIMEOUT_MILLIS, true);
+				if(!mIsOpenFinished) {
+					// the camera may still open later. Its thread is left running for the callback, which
+					// closes the camera and ends the thread then.
+					callback.mIsAbandoned = true;
+					mCameraThread = null;
+					mCameraHandler = null;
+					release();
+					return false;
+				}
+				if(mCameraDevice == null) {
+					release();
+					return false;
+				}
+			}
+			return true;
+		} catch (CameraAccessException e) {
+			Log.e(TAG, "could not open the camera", e);
+		} catch (SecurityException e) {
+			Log.e(TAG, "no permission to use the camera", e);
+		}
+		release();
+		return false;
+	}
+
+	@Override
+	public List<Size> getSupportedFrameSizes() {
+		List<Size> sizes = new ArrayList<Size>();
+		if(mStreamConfigurations != null) {
+			for(android.util.Size size : mStreamConfigurations.getOutputSizes(ImageFormat.YUV_420_888))
+				sizes.add(new Size(size.getWidth(), size.getHeight()));
+		}
+		return sizes;
+	}
+
+	// picks the fastest range the camera offers within the one asked for
+	@Override
+	public boolean setFrameRateRange(int minFramesPerSecond, int maxFramesPerSecond) {
+		mFrameRateRange = null;
+		if(mFrameRateRanges == null)
+			return false;
+
+		for(Range<Integer> range : mFrameRateRanges) {
+			if(range.getLower() < minFramesPerSecond || range.getUpper() > maxFramesPerSecond)
+				continue;
+			if(mFrameRateRange == null || range.getUpper() > mFrameRateRange.getUpper()
+					|| (range.getUpper().equals(mFrameRateRange.getUpper()) && range.getLower() > mFrameRateRange.getLower()))
+				mFrameRateRange = range;
+		}
+		return mFrameRateRange != null;
+	}
+
+	@Override
+	public boolean setFrameSize(Size size) {
+		if(mCameraDevice == null)
+			return false;
+
+		// one image for each frame that may be held, one grabbed, and one acquireLatestImage() can skip through
+		mImageReader = ImageReader.newInstance((int)size.width, (int)size.height, ImageFormat.YUV_420_888, mHeldFrames + 2);
+		mImageReader.setOnImageAvailableListener(mImageListener, mCameraHandler);
+
+		try {
+			synchronized(mLock) {
+				mIsConfigureFinished = false;
+				mCameraDevice.createCaptureSession(Arrays.asList(mImageReader.getSurface()), mSessionCallback, mCameraHandler);
+				waitFor(OPEN_TIMEOUT_MILLIS, false);
+				if(mSession == null)
+					return false;
+			}
+
+			CaptureRequest.Builder request = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+			request.addTarget(mImageReader.getSurface());
+			if(mFrameRateRange != null)
+				request.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mFrameRateRange);
+			mSession.setRepeatingRequest(request.build(), null, mCameraHandler);
+			return true;
+		} catch (CameraAccessException e) {
+			Log.e(TAG, "could not start the preview", e);
+			return false;
+		}
+	}
+
+	@Override
+	public boolean grab() {
+		if(mImageReader == null)
+			return false;
+
+		synchronized(mLock) {
+			long deadline = System.currentTimeMillis() + FRAME_TIMEOUT_MILLIS;
+			while(!mIsImageAvailable) {
+				long remaining = deadline - System.currentTimeMillis();
+				if(remaining <= 0)
+					return false;
+				try {
+					mLock.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			mIsImageAvailable = false;
+		}
+
+		Image image;
+		try {
+			image = mImageReader.acquireLatestImage();
+		} catch (IllegalStateException e) {
+			// every image is held by a frame, which only happens if more frames are held than promised
+			Log.e(TAG, "no image left to acquire", e);
+			return false;
+		}
+		if(image == null)
+			return false;
+
+		if(mGrabbedImage != null)
+			mGrabbedImage.close();
+		mGrabbedImage = image;
+		// the sensor timestamp is in nanoseconds, on a monotonic clock of its own
+		mFrameTime = image.getTimestamp();
+		return true;
+	}
+
+	@Override
+	public boolean retrieve(Mat frame) {
+		if(mGrabbedImage == null)
+			return false;
+
+		// the image this frame pointed at is no longer in use
+		int binding = unbind(frame);
+		if(binding < 0)
+			binding = unbind(null);
+		if(binding < 0)
+			return false;
+
+		Image.Plane luminance = mGrabbedImage.getPlanes()[0];
+		WrapPlane(frame.getNativeObjAddr(), luminance.getBuffer(), mGrabbedImage.getHeight(), mGrabbedImage.getWidth(), luminance.getRowStride());
+
+		mBoundFrames[binding] = frame;
+		mBoundImages[binding] = mGrabbedImage;
+		mGrabbedImage = null;
+		return true;
+	}
+
+	@Override
+	public long getFrameTime() {
+		return mFrameTime;
+	}
+
+	@Override
+	public boolean isZeroCopy() {
+		return true;
+	}
+
+	@Override
+	public void release() {
+		if(mSession != null) {
+			mSession.close();
+			mSession = null;
+		}
+		if(mCameraDevice != null) {
+			mCameraDevice.close();
+			mCameraDevice = null;
+		}
+
+		if(mGrabbedImage != null) {
+			mGrabbedImage.close();
+			mGrabbedImage = null;
+		}
+		if(mBoundImages != null) {
+			for(int i = 0; i < mBoundImages.length; i++) {
+				if(mBoundImages[i] != null)
+					mBoundImages[i].close();
+				mBoundImages[i] = null;
+				mBoundFrames[i] = null;
+			}
+		}
+		if(mImageReader != null) {
+			mImageReader.close();
+			mImageReader = null;
+		}
+
+		if(mCameraThread != null) {
+			mCameraThread.quit();
+			mCameraThread = null;
+			mCameraHandler = null;
+		}
+		mStreamConfigurations = null;
+	}
+
+	// closes the image bound to frame and returns its binding, or -1 if frame is not bound.
+	// With a null frame, returns a free binding.
+	private int unbind(Mat frame) {
+		for(int i = 0; i < mBoundFrames.length; i++) {
+			if(mBoundFrames[i] == frame) {
+				if(mBoundImages[i] != null)
+					mBoundImages[i].close();
+				mBoundFrames[i] = null;
+				mBoundImages[i] = null;
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String findFrontFacingCamera(CameraManager manager) throws CameraAccessException {
+		String [] cameraIds = manager.getCameraIdList();
+		for(String cameraId : cameraIds) {
+			Integer facing = manager.getCameraCharacteristics(cameraId).get(CameraCharacteristics.LENS_FACING);
+			if(facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT)
+				return cameraId;
+		}
+		return cameraIds.length > 0 ? cameraIds[0] : null;
+	}
+
+	// waits on mLock, which the caller holds, until the camera or the session has answered
+	private void waitFor(long timeoutMillis, boolean open) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while(open ? !mIsOpenFinished : !mIsConfigureFinished) {
+			long remaining = deadline - System.currentTimeMillis();
+			if(remaining <= 0)
+				return;
+			try {
+				mLock.wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	// one for every open(), so a camera that opens after open() gave up on it is closed instead of leaked
+	private final class DeviceCallback extends CameraDevice.StateCallback {
+		private final HandlerThread mThread;
+		// set under mLock once open() has stopped waiting, from then on the thread belongs to this callback
+		private boolean mIsAbandoned;
+
+		DeviceCallback(HandlerThread thread) {
+			mThread = thread;
+		}
+
+		@Override
+		public void onOpened(CameraDevice camera) {
+			synchronized(mLock) {
+				if(!mIsAbandoned) {
+					mCameraDevice = camera;
+					mIsOpenFinished = true;
+					mLock.notifyAll();
+					return;
+				}
+			}
+			camera.close();
+			mThread.quitSafely();
+		}
+
+		@Override
+		public void onDisconnected(CameraDevice camera) {
+			camera.close();
+			synchronized(mLock) {
+				if(mIsAbandoned) {
+					mThread.quitSafely();
+					return;
+				}
+				if(mCameraDevice == camera)
+					mCameraDevice = null;
+				mIsOpenFinished = true;
+				mLock.notifyAll();
+			}
+		}
+
+		@Override
+		public void onError(CameraDevice camera, int error) {
+			Log.e(TAG, "camera error " + error);
+			onDisconnected(camera);
+		}
+	}
+
+	private final CameraCaptureSession.StateCallback mSessionCallback = new CameraCaptureSession.StateCallback() {
+		@Override
+		public void onConfigured(CameraCaptureSession session) {
+			synchronized(mLock) {
+				mSession = session;
+				mIsConfigureFinished = true;
+				mLock.notifyAll();
+			}
+		}
+
+		@Override
+		public void onConfigureFailed(CameraCaptureSession session) {
+			Log.e(TAG, "could not configure the capture session");
+			synchronized(mLock) {
+				mIsConfigureFinished = true;
+				mLock.notifyAll();
+			}
+		}
+	};
+
+	private final ImageReader.OnImageAvailableListener mImageListener = new ImageReader.OnImageAvailableListener() {
+		@Override
+		public void onImageAvailable(ImageReader reader) {
+			synchronized(mLock) {
+				mIsImageAvailable = true;
+				mLock.notifyAll();
+			}
+		}
+	};
+
+	// points the Mat at address frame at the plane, without copying it
+	private static native void WrapPlane(long frame, ByteBuffer plane, int rows, int cols, int rowStride);
+}
@@ -1,25 +1,25 @@
 package edu.washington.cs.touchfreelibrary.sensors;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
-import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.Point;
 import org.opencv.core.Size;
-import org.opencv.highgui.Highgui;
-import org.opencv.highgui.VideoCapture;
 
 import android.content.Context;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
-import android.os.Environment;
+import android.os.Debug;
+import android.os.Process;
 import android.util.Log;
 import android.view.Display;
 import android.view.Surface;
@@ -73,71 +73,196 @@ public class CameraGestureSensor extends ClickSensor {
 		public void onGestureRight(CameraGestureSensor caller, long gestureLength);
 	}
 	
-	private enum Direction {
-		Left(0), Down(1), Right(2), Up(3), None(4);
-		
-		private int numVal;
-		
-		Direction(int numVal) {
-			this.numVal = numVal;
-		}
-		
-		public int toInt() {
-			return numVal;
-		}
-	} ;
+	/**
+	 * To receive the timeline of every gesture and click, classes must implement the
+	 * <code>CameraGestureSensor.TraceListener</code> interface. Only called while latency tracking is enabled.
+	 */
+	public interface TraceListener {
+		/**
+		 * Called after the listeners of a gesture or click have returned
+		 * @param caller the CameraGestureSensor object that made the call
+		 * @param trace when the gesture started, was recognized and was reported
+		 */
+		public void onGestureTrace(CameraGestureSensor caller, GestureTrace trace);
+	}
+	
+	/**
+	 * The parts of the time from the first moving frame of a gesture until its listeners have returned, see
+	 * {@link GestureTrace}.
+	 */
+	public enum GestureLatency {
+		/** From the capture of the first moving frame until the gesture was recognized. */
+		OnsetToDecision,
+		/** From the capture of the last frame of the gesture until the gesture was recognized. */
+		EndToDecision,
+		/** The time the listeners took, or the time to queue them when they are called on another thread, see {@link ClickSensor#setDispatchMode(DispatchMode)}. */
+		DecisionToDispatch,
+		/** From the capture of the first moving frame until the listeners had returned or been queued. */
+		OnsetToDispatch
+	}
+	
+	/**
+	 * What the capture thread does when the analysis thread has fallen so far behind that no more frames can be queued.
+	 */
+	public enum FrameQueuePolicy {
+		/** Drop the oldest queued frame, so the analysis thread always catches up with the camera. */
+		DropOldest,
+		/** Wait for the analysis thread, so no frame is ever skipped. */
+		Block
+	}
+	
+	/**
+	 * The stages of the frame loop whose latency is tracked, see {@link CameraGestureSensor#enableLatencyTracking(boolean)}.
+	 */
+	public enum PipelineStage {
+		/** Waiting for the next frame from the frame source. */
+		Grab,
+		/** Handing the frame over from the frame source, which for the camera converts it to greyscale. */
+		Retrieve,
+		/** Measuring the motion and intensity of the frame. */
+		MotionDetection,
+		/** Deciding whether the frame starts, continues or ends a gesture, without the listener callbacks. */
+		Recognition,
+		/** Calling the gesture and click listeners, or queueing them for another thread, once for each gesture or click. */
+		Listeners,
+		/** Everything the analysis thread does with a frame, from taking it off the queue to handing it back. */
+		Frame
+	}
+	
+	/**
+	 * The rate at which frames are looked at, see {@link CameraGestureSensor#enableLowPowerMode(boolean)}.
+	 */
+	public enum PowerMode {
+		/** Every frame is looked at, at the configured sample stride. */
+		Active,
+		/** A few frames a second are looked at, at a coarse sample stride, until something moves. */
+		LowPower
+	}
+	
+	/**
+	 * The states a sensor goes through between {@link CameraGestureSensor#start()} and {@link CameraGestureSensor#stop()}.
+	 */
+	public enum LifecycleState {
+		/** The camera is closed and no frame thread runs. */
+		Stopped,
+		/** The camera is being opened. */
+		Starting,
+		/** Frames are read and looked at, or the sensor is paused with the camera open. */
+		Running,
+		/** The frame threads are finishing, after which the camera and the frames are handed back. */
+		Stopping
+	}
 	
 	private List<Listener> mGestureListeners;
+	private List<TraceListener> mTraceListeners;
 	
-	private VideoCapture mCamera;
+	// the source frames are read from while running, and the one to use instead of the camera if set
+	private FrameSource mFrameSource;
+	private FrameSource mCustomFrameSource;
 	private int mCameraId;
 	private Size mPreviewSize;
 	private Thread mFrameProcessor;
+	private Thread mFrameCapturer;
+	
+	// every change of state is made while holding the lock, so start() and stop() may be called from any thread.
+	// The frame threads hand the camera and the frames back on their way out, and the last one completes the
+	// future of the stop.
+	private final Object mLifecycleLock = new Object();
+	private volatile LifecycleState mState = LifecycleState.Stopped;
+	private StopFuture mStopFuture = StopFuture.completed();
+	private final AtomicInteger mFrameThreadCount = new AtomicInteger();
+	private volatile long mStopRequestNanos;
+	private volatile long mCameraHandoverNanos;
 	
-	private boolean mIsRunning;
+	// while paused the camera stays open but is not read. Every resume() counts up, so the analysis thread
+	// knows to start over instead of comparing a fresh frame with one from before the pause.
+	private volatile boolean mIsPaused;
+	private volatile int mResumeCount;
 	
-	private static final double MIN_FRACTION_SCREEN_MOTION = 0.1;
-	private final static double MIN_MILLISECONDS_BETWEEN_GESTURES = 500;
+	// the frame size and rate to ask for, the stride and threads of a profile are kept in their own fields
+	private final CaptureProfile mCaptureProfile = new CaptureProfile();
 	
-	private double mMinDirectionalMotionX;
-	private double mMinDirectionalMotionY;
-	private double mMinGestureLength;
-	//private double mWidthToHeight;
+	// automatically picked preview sizes must be smaller than this, multiplied by the worker count in parallel mode
+	private static final double MAX_PREVIEW_AREA_PER_WORKER = 640 * 480;
+	private static final double MAX_PREVIEW_AREA = 1280 * 720 + 1;
 	
+	// decides what the motion and intensity of each frame add up to, on the analysis thread
+	private final GestureRecognizer mGestureRecognizer = new GestureRecognizer(0, 0);
+	
+	// frames go from the capture thread to the analysis thread through the ring, and back to the
+	// frame pool on stop(). The two frames below belong to the ring and are only set while analysing.
 	private Mat mPreviousFrame;
 	private Mat mCurrentFrame;
+	private final FramePool mFramePool = FramePool.getDefault();
+	private volatile FrameRing mFrameRing;
+	private FrameQueuePolicy mFrameQueuePolicy = FrameQueuePolicy.DropOldest;
+	private int mFrameQueueCapacity = DEFAULT_FRAME_QUEUE_CAPACITY;
 	
-	private Point mStartPos;
-	private Point mEndPos;
+	/** the default number of captured frames that may wait for the analysis thread */
+	public static final int DEFAULT_FRAME_QUEUE_CAPACITY = 2;
 	
 	private boolean mIsHorizontalScrollEnabled;
 	private boolean mIsVerticalScrollEnabled;
 	private boolean mIsClickByColorEnabled;
 	
-	private boolean ignoreNext = false;
-	
 	private Context mContext;
 
-	int frameCount = 0;
-	int framesToWaitForGesture = 20;
-
-	String resultCsv = "";
-	boolean bufferFilled = false;
-	boolean recordGraph = false;
+	// frames analysed while this is set are also written to a session file
+	private volatile FrameRecorder mFrameRecorder;
+	
+	// reused every frame so that steady-state processing does not allocate
+	final MotionDetectionReturnValue mdret = new MotionDetectionReturnValue();
+	
+	private final MotionDetector mMotionDetector = new MotionDetector();
+	private boolean mIsParallelMotionDetectionEnabled = false;
+	private int mMotionDetectionWorkerCount = MotionDetector.getDefaultWorkerCount();
+	private int mIdleSampleStride = 1;
+	
+	/** the default rate at which frames are read in low power mode */
+	public static final double DEFAULT_LOW_POWER_FRAME_RATE = 5;
+	/** the default sample stride in low power mode */
+	public static final int DEFAULT_LOW_POWER_SAMPLE_STRIDE = 4;
+	/** the default fraction of the frame that has to move to leave low power mode */
+	public static final double DEFAULT_WAKE_FRACTION = 0.02;
+	/** the default time without motion after which low power mode is entered */
+	public static final long DEFAULT_LOW_POWER_QUIET_PERIOD_MILLIS = 10000;
+	
+	// decides when to drop into low power mode, which the capture thread paces itself by
+	private final PowerModeController mPowerMode = new PowerModeController(DEFAULT_WAKE_FRACTION, DEFAULT_LOW_POWER_QUIET_PERIOD_MILLIS);
+	private volatile long mLowPowerFrameIntervalNanos = (long)(1e9 / DEFAULT_LOW_POWER_FRAME_RATE);
+	private int mLowPowerSampleStride = DEFAULT_LOW_POWER_SAMPLE_STRIDE;
+	
+	/** the default scheduling priority of the capture and analysis threads, as for {@link Process#setThreadPriority(int)} */
+	public static final int DEFAULT_FRAME_THREAD_PRIORITY = Process.THREAD_PRIORITY_DISPLAY;
 	
-	double [] last100Intensities = new double [100];
-	double runningIntensityAverage = 0;
-	double currentIntensityValue = 120;
-	double currentGestureLength = 0;
+	// after a failed grab the capture thread waits before trying again, twice as long after every failure in a
+	// row, so a stalled camera neither spins a core nor keeps stop() waiting for the lock
+	private static final long MIN_GRAB_BACKOFF_NANOS = 1000000;
+	private static final long MAX_GRAB_BACKOFF_NANOS = 100000000;
 	
-	boolean gestureStartDetected = false;
-	boolean gestureEndDetected = false;
+	// how the frame threads are scheduled: their priority, the shortest time between two frames, 0 for as fast
+	// as the camera delivers them, and how long a frame may wait for analysis before it is skipped, 0 for ever
+	private int mFrameThreadPriority = DEFAULT_FRAME_THREAD_PRIORITY;
+	private volatile long mFrameIntervalNanos;
+	private volatile long mFrameDeadlineNanos;
+	private volatile long mFailedGrabCount;
+	private volatile long mLateFrameCount;
 	
-	MotionDetectionReturnValue mdret = null;
+	// one histogram per PipelineStage. While tracking is off the frame loop only reads the clock to pace frames
+	// and to check the frame deadline, when those are set.
+	private final LatencyHistogram [] mStageLatencies = new LatencyHistogram [PipelineStage.values().length];
+	private volatile boolean mIsLatencyTrackingEnabled = false;
+	// the processor time both threads spent on each analysed frame, tracked along with the stages
+	private final LatencyHistogram mFrameCpuTime = new LatencyHistogram();
+	// only used by the analysis thread, to take the listener callbacks out of the recognition time
+	private boolean mIsTimingFrame;
+	private long mListenerNanos;
 	
-	long lastGestureEndTime = 0;
-	long lastGestureStartTime = 0;
-	long lastClickTime = 0;
+	// one histogram per GestureLatency, and the arrival times of the first frame of the gesture in progress
+	// and of the frame being analysed, 0 when not measured
+	private final LatencyHistogram [] mGestureLatencies = new LatencyHistogram [GestureLatency.values().length];
+	private long mOnsetNanos;
+	private long mFrameCaptureNanos;
 	
 	/**
 	 * To use a <code>CameraGestureSensor</code> object, this must be called some time after 
@@ -181,8 +306,8 @@ public class CameraGestureSensor extends ClickSensor {
 		mIsHorizontalScrollEnabled = true;
 		mIsVerticalScrollEnabled = true;
 		//mIsClickByColorEnabled = false;
-		mIsRunning = false;		
-		mGestureListeners = new LinkedList<Listener>();
+		mGestureListeners = new CopyOnWriteArrayList<Listener>();
+		mTraceListeners = new CopyOnWriteArrayList<TraceListener>();
 		
 		// find the front facing camera id
 		mCameraId = getFrontCameraId();
@@ -191,6 +316,12 @@ public class CameraGestureSensor extends ClickSensor {
 		//setCameraSettings(mCameraId);
 		
 		mContext = context;
+		mGestureRecognizer.setListener(mRecognizerListener);
+		
+		for(int i = 0; i < mStageLatencies.length; i++)
+			mStageLatencies[i] = new LatencyHistogram();
+		for(int i = 0; i < mGestureLatencies.length; i++)
+			mGestureLatencies[i] = new LatencyHistogram();
 	}
 	
 	/**
@@ -216,29 +347,65 @@ public class CameraGestureSensor extends ClickSensor {
 		mGestureListeners.clear();
 	}
 	
-	// these methods invoke gesture call backs on all listeners
-	private void onGestureUp(long gestureLength) {
-		for(Listener l : mGestureListeners) {
-			l.onGestureUp(this, gestureLength);
-		}
+	/**
+	 * Adds listener to the list of trace listeners.
+	 * @param listener This object will be given the timeline of every gesture and click while latency tracking is enabled
+	 */
+	public void addTraceListener(TraceListener listener) {
+		mTraceListeners.add(listener);
 	}
 	
-	private void onGestureLeft(long gestureLength) {
-		for(Listener l : mGestureListeners) {
-			l.onGestureLeft(this, gestureLength);
-		}
+	/**
+	 * Removes listener from the list of trace listeners.
+	 * @param listener The object will no longer be given gesture timelines by this gesture sensor.
+	 */
+	public void removeTraceListener(TraceListener listener) {
+		mTraceListeners.remove(listener);
 	}
 	
-	private void onGestureRight(long gestureLength) {
-		for(Listener l : mGestureListeners) {
-			l.onGestureRight(this, gestureLength);
-		}
+	// these methods invoke gesture call backs on all listeners, on the thread set by setDispatchMode
+	private void onGestureUp(final long gestureLength) {
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for(Listener l : mGestureListeners) {
+					l.onGestureUp(CameraGestureSensor.this, gestureLength);
+				}
+			}
+		});
 	}
 	
-	private void onGestureDown(long gestureLength) {
-		for(Listener l : mGestureListeners) {
-			l.onGestureDown(this, gestureLength);
-		}
+	private void onGestureLeft(final long gestureLength) {
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for(Listener l : mGestureListeners) {
+					l.onGestureLeft(CameraGestureSensor.this, gestureLength);
+				}
+			}
+		});
+	}
+	
+	private void onGestureRight(final long gestureLength) {
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for(Listener l : mGestureListeners) {
+					l.onGestureRight(CameraGestureSensor.this, gestureLength);
+				}
+			}
+		});
+	}
+	
+	private void onGestureDown(final long gestureLength) {
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for(Listener l : mGestureListeners) {
+					l.onGestureDown(CameraGestureSensor.this, gestureLength);
+				}
+			}
+		});
 	}
 	
 	/**
@@ -291,93 +458,884 @@ public class CameraGestureSensor extends ClickSensor {
 		return mIsClickByColorEnabled;
 	}
 	
+	/**
+	 * <p>Enable/disable parallel motion detection. When enabled, each frame is split into horizontal stripes
+	 * that are processed on {@link #getMotionDetectionWorkerCount()} threads, which allows larger preview
+	 * sizes at the same frame rate. The result is identical either way.</p>
+	 * <p>Takes effect the next time {@link #start()} is called.</p>
+	 * @param enabled true to split frames over several threads, false to use only the frame processing thread
+	 */
+	public void enableParallelMotionDetection(boolean enabled) {
+		mIsParallelMotionDetectionEnabled = enabled;
+	}
+	
+	/**
+	 * Test if parallel motion detection is enabled.
+	 * @return true if parallel motion detection is enabled, false otherwise.
+	 */
+	public boolean isParallelMotionDetectionEnabled() {
+		return mIsParallelMotionDetectionEnabled;
+	}
+	
+	/**
+	 * Sets how many threads share each frame when parallel motion detection is enabled. The default is the
+	 * number of processors on the device. Takes effect the next time {@link #start()} is called.
+	 * @param count the number of threads, including the frame processing thread
+	 */
+	public void setMotionDetectionWorkerCount(int count) {
+		mMotionDetectionWorkerCount = Math.max(1, Math.min(count, MotionDetector.MAX_WORKER_COUNT));
+	}
+	
+	/**
+	 * Gets how many threads share each frame when parallel motion detection is enabled.
+	 * @return the number of threads, including the frame processing thread
+	 */
+	public int getMotionDetectionWorkerCount() {
+		return mMotionDetectionWorkerCount;
+	}
+	
+	/**
+	 * Sets how much a pixel must change in intensity between two frames to count as moving. The default is 20.
+	 * @param threshold the change in intensity, from 0 to 254
+	 */
+	public void setMotionThreshold(int threshold) {
+		mMotionDetector.setThreshold(threshold);
+	}
+	
+	/**
+	 * Gets how much a pixel must change in intensity between two frames to count as moving.
+	 * @return the change in intensity, from 0 to 254
+	 */
+	public int getMotionThreshold() {
+		return mMotionDetector.getThreshold();
+	}
+	
+	/**
+	 * Sets how many pixels along each edge of the preview are ignored when looking for motion. The default is 2.
+	 * @param border the width of the ignored edge, in pixels
+	 */
+	public void setMotionBorder(int border) {
+		mMotionDetector.setBorder(border);
+	}
+	
+	/**
+	 * Gets how many pixels along each edge of the preview are ignored when looking for motion.
+	 * @return the width of the ignored edge, in pixels
+	 */
+	public int getMotionBorder() {
+		return mMotionDetector.getBorder();
+	}
+	
+	/**
+	 * <p>Sets how densely frames are sampled while no gesture is in progress. With a stride of n only every
+	 * n-th row and column is looked at, so 2 checks at half and 4 at quarter resolution. As soon as motion is
+	 * seen the frame is checked again at full resolution, and every frame is checked at full resolution until
+	 * the gesture ends.</p>
+	 * <p>Positions are always reported in full resolution pixels, so the minimum gesture distances do not change
+	 * with the stride. Strides of 1, 2 and 4 are the fastest. The default is 1.</p>
+	 * @param stride the sample stride used between gestures, 1 to always check every pixel
+	 */
+	public void setIdleSampleStride(int stride) {
+		mIdleSampleStride = Math.max(1, stride);
+	}
+	
+	/**
+	 * Gets how densely frames are sampled while no gesture is in progress.
+	 * @return the sample stride used between gestures, 1 if every pixel is checked
+	 */
+	public int getIdleSampleStride() {
+		return mIdleSampleStride;
+	}
+	
+	/**
+	 * Applies a capture profile: its sample stride and worker count replace those set with
+	 * {@link #setIdleSampleStride(int)}, {@link #enableParallelMotionDetection(boolean)} and
+	 * {@link #setMotionDetectionWorkerCount(int)}, and its frame size and rate are asked for
+	 * the next time {@link #start()} is called.
+	 * @param profile the profile, which is copied
+	 */
+	public void setCaptureProfile(CaptureProfile profile) {
+		mCaptureProfile.setFrameSize(profile.getFrameWidth(), profile.getFrameHeight());
+		mCaptureProfile.setFrameRateRange(profile.getMinFrameRate(), profile.getMaxFrameRate());
+		setIdleSampleStride(profile.getSampleStride());
+		enableParallelMotionDetection(profile.getWorkerCount() > 1);
+		if(profile.getWorkerCount() > 1)
+			setMotionDetectionWorkerCount(profile.getWorkerCount());
+	}
+	
+	/**
+	 * Gets the current capture settings as a profile.
+	 * @return a new profile with the current settings
+	 */
+	public CaptureProfile getCaptureProfile() {
+		CaptureProfile profile = new CaptureProfile(mCaptureProfile);
+		profile.setSampleStride(mIdleSampleStride);
+		profile.setWorkerCount(mIsParallelMotionDetectionEnabled ? mMotionDetectionWorkerCount : 1);
+		return profile;
+	}
+	
+	/**
+	 * Opens the frame source to find the frame sizes it supports, picks the largest one at which the motion
+	 * kernel fits the time budget with {@link CaptureProfile#calibrate(List, long, int)}, and applies it with
+	 * {@link #setCaptureProfile(CaptureProfile)}. The frame rate asked for and the sample stride are kept.
+	 * @param frameBudgetNanos the time motion detection may take per frame, in nanoseconds
+	 * @return the profile that was applied, or null if the frame source could not be opened
+	 * @throws IllegalStateException if this is not stopped, as the frame source is in use
+	 */
+	public CaptureProfile calibrateCaptureProfile(long frameBudgetNanos) {
+		if(mState != LifecycleState.Stopped)
+			throw new IllegalStateException("stop() must be called before calibrating");
+		
+		FrameSource source = mCustomFrameSource != null ? mCustomFrameSource : new VideoCaptureFrameSource(mCameraId);
+		if(!source.open(FrameRing.getSlotCount(mFrameQueueCapacity)))
+			return null;
+		List<Size> sizes;
+		try {
+			sizes = source.getSupportedFrameSizes();
+		} finally {
+			source.release();
+		}
+		
+		CaptureProfile profile = CaptureProfile.calibrate(sizes, frameBudgetNanos, mMotionDetectionWorkerCount);
+		if(profile == null)
+			return null;
+		profile.setFrameRateRange(mCaptureProfile.getMinFrameRate(), mCaptureProfile.getMaxFrameRate());
+		profile.setSampleStride(mIdleSampleStride);
+		setCaptureProfile(profile);
+		Log.i(TAG, "calibrated capture profile: " + profile);
+		return profile;
+	}
+	
+	/**
+	 * Gets how many times a sensor could reuse frame buffers left behind by an earlier {@link #stop()},
+	 * counted over every sensor in the process.
+	 * @return the number of frame buffers taken from the pool
+	 */
+	public static long getFramePoolHitCount() {
+		return FramePool.getDefault().getHitCount();
+	}
+	
+	/**
+	 * Gets how many times a sensor had to allocate a new frame buffer, counted over every sensor in the process.
+	 * @return the number of frame buffers allocated
+	 */
+	public static long getFramePoolMissCount() {
+		return FramePool.getDefault().getMissCount();
+	}
+	
+	/**
+	 * Sets where frames come from. By default the front facing camera is read through OpenCV's
+	 * <code>VideoCapture</code>; a {@link Camera2FrameSource} reads it without copying frames, and a
+	 * {@link FileFrameSource} plays frames back from a file. The source is opened by {@link #start()} and
+	 * released by {@link #stop()}. Takes effect the next time {@link #start()} is called.
+	 * @param source the source to read frames from, or null to use the camera through OpenCV
+	 */
+	public void setFrameSource(FrameSource source) {
+		mCustomFrameSource = source;
+	}
+	
+	/**
+	 * Gets the source set with {@link #setFrameSource(FrameSource)}.
+	 * @return the source frames are read from, or null if the camera is read through OpenCV
+	 */
+	public FrameSource getFrameSource() {
+		return mCustomFrameSource;
+	}
+	
+	/**
+	 * Sets what happens to captured frames when gesture detection cannot keep up with the camera. The default
+	 * is {@link FrameQueuePolicy#DropOldest}. Takes effect the next time {@link #start()} is called.
+	 * @param policy the policy of the frame queue
+	 */
+	public void setFrameQueuePolicy(FrameQueuePolicy policy) {
+		mFrameQueuePolicy = policy;
+	}
+	
+	/**
+	 * Gets what happens to captured frames when gesture detection cannot keep up with the camera.
+	 * @return the policy of the frame queue
+	 */
+	public FrameQueuePolicy getFrameQueuePolicy() {
+		return mFrameQueuePolicy;
+	}
+	
+	/**
+	 * Sets how many captured frames may wait for gesture detection. The default is
+	 * {@link #DEFAULT_FRAME_QUEUE_CAPACITY}. Takes effect the next time {@link #start()} is called.
+	 * @param capacity the number of frames, at least 1
+	 */
+	public void setFrameQueueCapacity(int capacity) {
+		mFrameQueueCapacity = Math.max(1, capacity);
+	}
+	
+	/**
+	 * Gets how many captured frames may wait for gesture detection.
+	 * @return the number of frames
+	 */
+	public int getFrameQueueCapacity() {
+		return mFrameQueueCapacity;
+	}
+	
+	/**
+	 * Gets how many captured frames were dropped since the last call to {@link #start()}, because gesture
+	 * detection fell behind with the {@link FrameQueuePolicy#DropOldest} policy.
+	 * @return the number of dropped frames
+	 */
+	public long getDroppedFrameCount() {
+		FrameRing ring = mFrameRing;
+		return ring == null ? 0 : ring.getDroppedFrameCount();
+	}
+	
+	/**
+	 * Gets how many captured frames are waiting for gesture detection right now.
+	 * @return the number of queued frames
+	 */
+	public int getFrameQueueDepth() {
+		FrameRing ring = mFrameRing;
+		return ring == null ? 0 : ring.getQueueDepth();
+	}
+	
+	/**
+	 * Sets how long a gesture may last before it is ignored. The default is
+	 * {@link GestureRecognizer#DEFAULT_GESTURE_TIMEOUT_MILLIS}.
+	 * @param millis the gesture timeout in milliseconds
+	 */
+	public void setGestureTimeout(long millis) {
+		mGestureRecognizer.setGestureTimeout(millis);
+	}
+	
+	/**
+	 * Gets how long a gesture may last before it is ignored.
+	 * @return the gesture timeout in milliseconds
+	 */
+	public long getGestureTimeout() {
+		return mGestureRecognizer.getGestureTimeout();
+	}
+	
+	/**
+	 * Sets the fraction of the preview that has to be in motion for a gesture to start and to continue. The
+	 * default is {@link GestureRecognizer#DEFAULT_MIN_FRACTION_IN_MOTION}.
+	 * @param fraction the fraction of the preview, between 0 and 1
+	 */
+	public void setMinFractionInMotion(double fraction) {
+		mGestureRecognizer.setMinFractionInMotion(fraction);
+	}
+	
+	/**
+	 * Gets the fraction of the preview that has to be in motion during a gesture.
+	 * @return the fraction of the preview
+	 */
+	public double getMinFractionInMotion() {
+		return mGestureRecognizer.getMinFractionInMotion();
+	}
+	
+	/**
+	 * Sets how long after the end of one gesture the next one can start. The default is
+	 * {@link GestureRecognizer#DEFAULT_MIN_MILLIS_BETWEEN_GESTURES}.
+	 * @param millis the time between gestures in milliseconds
+	 */
+	public void setMinTimeBetweenGestures(long millis) {
+		mGestureRecognizer.setMinTimeBetweenGestures(millis);
+	}
+	
+	/**
+	 * Gets how long after the end of one gesture the next one can start.
+	 * @return the time between gestures in milliseconds
+	 */
+	public long getMinTimeBetweenGestures() {
+		return mGestureRecognizer.getMinTimeBetweenGestures();
+	}
+	
+	/**
+	 * Sets how far a swipe has to move, as a fraction of the preview. The default is
+	 * {@link GestureRecognizer#DEFAULT_MIN_SWIPE_FRACTION}.
+	 * @param fraction the fraction of the preview's width or height, between 0 and 1
+	 */
+	public void setMinSwipeFraction(double fraction) {
+		mGestureRecognizer.setMinSwipeFraction(fraction);
+	}
+	
+	/**
+	 * Gets how far a swipe has to move, as a fraction of the preview.
+	 * @return the fraction of the preview's width or height
+	 */
+	public double getMinSwipeFraction() {
+		return mGestureRecognizer.getMinSwipeFraction();
+	}
+	
+	/**
+	 * Sets when a gesture that darkens the preview counts as a click, see
+	 * {@link GestureRecognizer#setClickRules(int, int, double)}.
+	 * @param peakDistance the frames between the brightest and darkest frame when the preview never brightened
+	 * @param brightenedPeakDistance the frames between the brightest and darkest frame when it brightened a little
+	 * @param maxBrightening how much brighter than the baseline the preview may get, in intensity levels
+	 */
+	public void setClickRules(int peakDistance, int brightenedPeakDistance, double maxBrightening) {
+		mGestureRecognizer.setClickRules(peakDistance, brightenedPeakDistance, maxBrightening);
+	}
+	
+	/**
+	 * Enable/disable latency tracking. While enabled, the time every stage of the frame loop takes is counted
+	 * in a histogram, at the cost of a couple of clock reads per stage. While disabled, the clock is only read
+	 * to keep to the frame rate of the capture profile and to check the deadline set with
+	 * {@link #setFrameDeadline(long)}, and not at all when neither is set. It is off by default.
+	 * @param enabled true to track latencies, false otherwise
+	 */
+	public void enableLatencyTracking(boolean enabled) {
+		mIsLatencyTrackingEnabled = enabled;
+	}
+	
+	/**
+	 * Test if latency tracking is enabled.
+	 * @return true if latencies are tracked, false otherwise
+	 */
+	public boolean isLatencyTrackingEnabled() {
+		return mIsLatencyTrackingEnabled;
+	}
+	
+	/**
+	 * Gets the latency statistics of one stage of the frame loop since the last call to {@link #start()} or
+	 * {@link #resetLatencyStatistics()}: the percentiles and maximum in nanoseconds, and the rate, which is the
+	 * frame rate for every stage but {@link PipelineStage#Listeners}. Can be called from any thread.
+	 * @param stage the stage of the frame loop
+	 * @return a copy of the statistics of the stage
+	 */
+	public LatencyHistogram.Snapshot getLatencySnapshot(PipelineStage stage) {
+		return mStageLatencies[stage.ordinal()].getSnapshot();
+	}
+	
+	/**
+	 * Gets the distribution of one part of the gesture latency, over every gesture and click reported since
+	 * the last call to {@link #start()} or {@link #resetLatencyStatistics()}. Can be called from any thread.
+	 * @param latency the part of the gesture latency
+	 * @return a copy of the statistics, in nanoseconds
+	 */
+	public LatencyHistogram.Snapshot getGestureLatencySnapshot(GestureLatency latency) {
+		return mGestureLatencies[latency.ordinal()].getSnapshot();
+	}
+	
+	/**
+	 * Forgets the latencies tracked so far.
+	 */
+	public void resetLatencyStatistics() {
+		for(LatencyHistogram histogram : mStageLatencies)
+			histogram.reset();
+		for(LatencyHistogram histogram : mGestureLatencies)
+			histogram.reset();
+		mFrameCpuTime.reset();
+	}
+	
+	/**
+	 * Gets the processor time the capture and analysis threads spent on each analysed frame since the last call
+	 * to {@link #start()} or {@link #resetLatencyStatistics()}. Unlike the {@link PipelineStage} latencies it
+	 * leaves out time spent waiting or preempted, so it shows what a frame costs rather than how long it took.
+	 * Only tracked while latency tracking is enabled. Can be called from any thread.
+	 * @return a copy of the statistics, in nanoseconds
+	 */
+	public LatencyHistogram.Snapshot getFrameCpuTimeSnapshot() {
+		return mFrameCpuTime.getSnapshot();
+	}
+	
+	/**
+	 * Sets the scheduling priority of the capture and analysis threads, a Linux nice value as taken by
+	 * {@link Process#setThreadPriority(int)}. The default is {@link #DEFAULT_FRAME_THREAD_PRIORITY}, a little
+	 * above ordinary threads so that gestures keep up while the application is busy. Takes effect on the
+	 * next {@link #start()}.
+	 * @param priority the priority, from {@link Process#THREAD_PRIORITY_URGENT_DISPLAY} to
+	 * {@link Process#THREAD_PRIORITY_BACKGROUND} or lower
+	 */
+	public void setFrameThreadPriority(int priority) {
+		mFrameThreadPriority = priority;
+	}
+	
+	/**
+	 * Gets the scheduling priority of the capture and analysis threads.
+	 * @return the priority set with {@link #setFrameThreadPriority(int)}
+	 */
+	public int getFrameThreadPriority() {
+		return mFrameThreadPriority;
+	}
+	
+	/**
+	 * Sets how long a captured frame may wait for the analysis thread. A frame that waited longer is not
+	 * analysed, it only becomes the frame the next one is compared with, so the analysis thread catches up
+	 * with the camera after a hiccup instead of reporting gestures late. Off by default.
+	 * @param millis the longest wait in milliseconds, 0 to analyse every frame however late
+	 */
+	public void setFrameDeadline(long millis) {
+		mFrameDeadlineNanos = Math.max(0, millis) * 1000000;
+	}
+	
+	/**
+	 * Gets how long a captured frame may wait for the analysis thread.
+	 * @return the longest wait in milliseconds, 0 if frames are never skipped
+	 */
+	public long getFrameDeadline() {
+		return mFrameDeadlineNanos / 1000000;
+	}
+	
+	/**
+	 * Gets how many frames were skipped for missing the frame deadline since the last call to {@link #start()}.
+	 * @return the number of late frames
+	 */
+	public long getLateFrameCount() {
+		return mLateFrameCount;
+	}
+	
+	/**
+	 * Gets how many times the frame source failed to deliver a frame since the last call to {@link #start()}.
+	 * Each failure is retried after a wait that doubles with every failure in a row, up to a tenth of a second.
+	 * @return the number of failed grabs
+	 */
+	public long getFailedGrabCount() {
+		return mFailedGrabCount;
+	}
+	
+	/**
+	 * <p>Enable/disable low power mode. Once nothing has moved for the quiet period, only a few frames a second
+	 * are read from the camera and they are looked at with a coarse sample stride. As soon as the fraction of the
+	 * frame in motion passes the wake fraction, every frame is read and looked at again as usual.</p>
+	 * <p>It is off by default. Gestures that start in low power mode are still recognized, but the first frame
+	 * of the gesture may be seen up to one low power frame interval late.</p>
+	 * @param enabled true to allow low power mode, false to always look at every frame
+	 */
+	public void enableLowPowerMode(boolean enabled) {
+		mPowerMode.setEnabled(enabled);
+		if(!enabled)
+			wakeFrameCapturer();
+	}
+	
+	/**
+	 * Test if low power mode is allowed.
+	 * @return true if low power mode is allowed, false otherwise
+	 */
+	public boolean isLowPowerModeEnabled() {
+		return mPowerMode.isEnabled();
+	}
+	
+	/**
+	 * Sets how many frames a second are read in low power mode. The default is {@link #DEFAULT_LOW_POWER_FRAME_RATE}.
+	 * @param framesPerSecond the frame rate in low power mode
+	 */
+	public void setLowPowerFrameRate(double framesPerSecond) {
+		if(framesPerSecond <= 0)
+			throw new IllegalArgumentException("frame rate must be positive");
+		mLowPowerFrameIntervalNanos = (long)(1e9 / framesPerSecond);
+	}
+	
+	/**
+	 * Gets how many frames a second are read in low power mode.
+	 * @return the frame rate in low power mode
+	 */
+	public double getLowPowerFrameRate() {
+		return 1e9 / mLowPowerFrameIntervalNanos;
+	}
+	
+	/**
+	 * Sets how densely frames are sampled in low power mode, see {@link #setIdleSampleStride(int)}. The larger
+	 * of the two strides is used. The default is {@link #DEFAULT_LOW_POWER_SAMPLE_STRIDE}.
+	 * @param stride the sample stride in low power mode
+	 */
+	public void setLowPowerSampleStride(int stride) {
+		mLowPowerSampleStride = Math.max(1, stride);
+	}
+	
+	/**
+	 * Gets how densely frames are sampled in low power mode.
+	 * @return the sample stride in low power mode
+	 */
+	public int getLowPowerSampleStride() {
+		return mLowPowerSampleStride;
+	}
+	
+	/**
+	 * Sets the fraction of the frame that has to move to leave low power mode, and that counts as motion for the
+	 * quiet period. The default is {@link #DEFAULT_WAKE_FRACTION}.
+	 * @param fraction the fraction of the frame in motion, between 0 and 1
+	 */
+	public void setWakeFraction(double fraction) {
+		mPowerMode.setWakeFraction(fraction);
+	}
+	
+	/**
+	 * Gets the fraction of the frame that has to move to leave low power mode.
+	 * @return the fraction of the frame in motion, between 0 and 1
+	 */
+	public double getWakeFraction() {
+		return mPowerMode.getWakeFraction();
+	}
+	
+	/**
+	 * Sets how long nothing may move before low power mode is entered. The default is
+	 * {@link #DEFAULT_LOW_POWER_QUIET_PERIOD_MILLIS}.
+	 * @param millis the quiet period in milliseconds
+	 */
+	public void setLowPowerQuietPeriod(long millis) {
+		mPowerMode.setQuietMillis(Math.max(0, millis));
+	}
+	
+	/**
+	 * Gets how long nothing may move before low power mode is entered.
+	 * @return the quiet period in milliseconds
+	 */
+	public long getLowPowerQuietPeriod() {
+		return mPowerMode.getQuietMillis();
+	}
+	
+	/**
+	 * Gets the current power mode.
+	 * @return {@link PowerMode#LowPower} while in low power mode, {@link PowerMode#Active} otherwise
+	 */
+	public PowerMode getPowerMode() {
+		return mPowerMode.isLowPower() ? PowerMode.LowPower : PowerMode.Active;
+	}
+	
+	/**
+	 * Gets how long this has been looking at every frame since the last call to {@link #start()}.
+	 * @return the time in active mode, in milliseconds
+	 */
+	public long getActiveModeTime() {
+		return mPowerMode.getActiveMillis(System.currentTimeMillis());
+	}
+	
+	/**
+	 * Gets how long this has been in low power mode since the last call to {@link #start()}.
+	 * @return the time in low power mode, in milliseconds
+	 */
+	public long getLowPowerModeTime() {
+		return mPowerMode.getLowPowerMillis(System.currentTimeMillis());
+	}
+	
+	/**
+	 * Gets how many times motion ended low power mode since the last call to {@link #start()}.
+	 * @return the number of wake ups
+	 */
+	public int getWakeCount() {
+		return mPowerMode.getWakeCount();
+	}
+	
+	/**
+	 * Gets the most captured frames that were waiting for gesture detection at once since the last call to
+	 * {@link #start()}.
+	 * @return the largest number of queued frames
+	 */
+	public int getMaxFrameQueueDepth() {
+		FrameRing ring = mFrameRing;
+		return ring == null ? 0 : ring.getMaxQueueDepth();
+	}
+	
+	/**
+	 * Enable/disable the 16 bin intensity histogram that is collected alongside the frame intensity. It is off
+	 * by default because it makes each frame a little slower to process.
+	 * @param enabled true to collect the histogram, false otherwise
+	 */
+	public void enableIntensityHistogram(boolean enabled) {
+		mMotionDetector.enableHistogram(enabled);
+	}
+	
+	/**
+	 * Test if the intensity histogram is collected.
+	 * @return true if the intensity histogram is collected, false otherwise.
+	 */
+	public boolean isIntensityHistogramEnabled() {
+		return mMotionDetector.isHistogramEnabled();
+	}
+	
 	/**
 	 * <p>Causes this to start reading camera input and looking for gestures. The camera must be available
 	 * for this method to be successful.</p>
 	 * <p>Warning! CameraGestureSensor will seize control of the front facing camera, even if the activity loses focus.
 	 * If you would like to let other applications use the camera, you must call stop() when the activity loses
 	 * focus.</p>
+	 * <p>If a stop is still in progress, this waits for it to finish first, which takes at most about a frame.
+	 * Does nothing if this is starting or running already.</p>
+	 * @throws IllegalStateException if called from a listener on the frame thread of a stop in progress, which
+	 * would wait for itself
 	 */
 	public void start() {
-		if(mIsRunning)
-			return;
-		
-		//mPeakPos = null;
-		mStartPos = null;
-		mEndPos = null;
-		
-		if (mCamera != null) {
-			VideoCapture camera = mCamera;
-			mCamera = null; // Make it null before releasing...
-			camera.release();
+		while(true) {
+			StopFuture previous;
+			synchronized(mLifecycleLock) {
+				if(mState == LifecycleState.Stopped) {
+					mState = LifecycleState.Starting;
+					mStopFuture = new StopFuture();
+					break;
+				}
+				if(mState != LifecycleState.Stopping)
+					return;
+				previous = mStopFuture;
+			}
+			
+			// the old threads still use the frames, so a new run cannot begin before they are gone
+			Thread current = Thread.currentThread();
+			if(current == mFrameProcessor || current == mFrameCapturer)
+				throw new IllegalStateException("start() cannot wait for the frame thread it is called from");
+			previous.awaitUninterruptibly();
 		}
 		
-		mCamera = new VideoCapture(mCameraId);
-		if(!mCamera.isOpened()) {
+		FrameSource source = mCustomFrameSource != null ? mCustomFrameSource : new VideoCaptureFrameSource(mCameraId);
+		if(!source.open(FrameRing.getSlotCount(mFrameQueueCapacity))) {
 			// the camera was not available
-			VideoCapture camera = mCamera;
-			mCamera = null; // Make it null before releasing...
-			camera.release();
-			
+			finishStop();
 			return;
 		}
+		mFrameSource = source;
 		
-		List<Size> previewSizes = mCamera.getSupportedPreviewSizes();
-		double smallestPreviewSize = 640 * 480; // We should be smaller than this...
+		int workerCount = mIsParallelMotionDetectionEnabled ? mMotionDetectionWorkerCount : 1;
+		
+		List<Size> previewSizes = mFrameSource.getSupportedFrameSizes();
+		double smallestPreviewSize = Math.min(MAX_PREVIEW_AREA_PER_WORKER * workerCount, MAX_PREVIEW_AREA); // We should be smaller than this...
 		double smallestWidth = 320; // Let's not get smaller than this...
 		
-		for (Size previewSize : previewSizes) {
-			if (previewSize.area() < smallestPreviewSize && previewSize.width >= smallestWidth) {
-				mPreviewSize = previewSize;
-			}
+		// the largest size that fits the profile, whatever order the camera lists them in
+		mPreviewSize = mCaptureProfile.chooseFrameSize(previewSizes, smallestPreviewSize, smallestWidth);
+		if(mCaptureProfile.getMaxFrameRate() > 0
+				&& !mFrameSource.setFrameRateRange(mCaptureProfile.getMinFrameRate(), mCaptureProfile.getMaxFrameRate()))
+			Log.w(TAG, "the frame source could not set the frame rate to " + mCaptureProfile.getMinFrameRate()
+					+ "-" + mCaptureProfile.getMaxFrameRate() + " fps");
+		
+		if(mPreviewSize == null || !mFrameSource.setFrameSize(mPreviewSize)) {
+			mFrameSource = null; // Make it null before releasing...
+			source.release();
+			
+			finishStop();
+			return;
 		}
-		mCamera.set(Highgui.CV_CAP_PROP_FRAME_WIDTH, mPreviewSize.width);
-		mCamera.set(Highgui.CV_CAP_PROP_FRAME_HEIGHT, mPreviewSize.height);
 		
-		mPreviousFrame = new Mat((int)mPreviewSize.height, (int)mPreviewSize.width, CvType.CV_8U);
-		mCurrentFrame = new Mat((int)mPreviewSize.height, (int)mPreviewSize.width, CvType.CV_8U);
+		// a zero-copy source brings its own memory, so its frames are only headers
+		mFrameRing = new FrameRing(mFrameQueueCapacity, mFrameQueuePolicy == FrameQueuePolicy.DropOldest,
+				mFrameSource.isZeroCopy() ? null : mFramePool, (int)mPreviewSize.height, (int)mPreviewSize.width, CvType.CV_8U);
   	     
 		//w x h = 320 x 240
-		mMinDirectionalMotionX = mPreviewSize.width / 5;
-  	    mMinDirectionalMotionY = mPreviewSize.height / 5;
-  	    mMinGestureLength = 100;
-  	    //mWidthToHeight = mPreviewSize.width / mPreviewSize.height;
-  	    mIsRunning = true;
+		mGestureRecognizer.setFrameSize((int)mPreviewSize.width, (int)mPreviewSize.height);
+		mGestureRecognizer.reset();
+  	    mMotionDetector.setWorkerCount(workerCount);
+  	    mPowerMode.start(System.currentTimeMillis());
+  	    resetLatencyStatistics();
+  	    // frames are never read faster than the profile allows, even if the source could not set its rate
+  	    mFrameIntervalNanos = mCaptureProfile.getMaxFrameRate() > 0 ? (long)(1e9 / mCaptureProfile.getMaxFrameRate()) : 0;
+  	    mFailedGrabCount = 0;
+  	    mLateFrameCount = 0;
+  	    mIsPaused = false;
+  	    mStopRequestNanos = 0;
+  	    mFrameThreadCount.set(2);
+  	    mFrameProcessor = new Thread(mProcessFramesRunnable, "CameraGestureSensor analysis");
+  	    mFrameCapturer = new Thread(mCaptureFramesRunnable, "CameraGestureSensor capture");
+  	    
+  	    // stop() may have been called while the camera was opening, then there are no threads to wait for
+  	    boolean started = false;
+  	    synchronized(mLifecycleLock) {
+  	    	if(mState == LifecycleState.Starting) {
+  	    		mState = LifecycleState.Running;
+  	    		started = true;
+  	    	}
+  	    }
+  	    if(!started) {
+  	    	mPowerMode.stop(System.currentTimeMillis());
+  	    	releaseFrameSource();
+  	    	mFrameRing.releaseFrames(mFramePool);
+  	    	finishStop();
+  	    	return;
+  	    }
   	    
-  	    // run the frame processor now
-  	    mFrameProcessor = new Thread(mProcessFramesRunnable);
+  	    // run the frame processor and the capture thread feeding it now
   	    mFrameProcessor.start();
+  	    mFrameCapturer.start();
 	}
 	
 	/**
-	 * Stops this from looking at camera input for gestures, thus freeing the camera for other uses.
+	 * Stops this from looking at camera input for gestures, thus freeing the camera for other uses. Returns
+	 * right away, see {@link #stopAsync()}.
 	 */
 	public void stop() 
 	{	
-		if (recordGraph)
-		{
-			try {
-				String filename = Environment.getExternalStorageDirectory().toString() + "/resultCSV.csv";
-				writeFile(filename, resultCsv);
-			} catch (IOException e) {
-				e.printStackTrace();
+		stopAsync();
+	}
+	
+	/**
+	 * <p>Stops this from looking at camera input for gestures without waiting for the frame threads. The capture
+	 * thread hands the camera back as soon as the grab in progress returns, so within one frame time, or within
+	 * one frame time and the analysis of one frame for a zero-copy {@link FrameSource}, whose memory the analysis
+	 * thread may still be reading. {@link #getCameraHandoverNanos()} tells how long it took.</p>
+	 * <p>The returned future is done once both threads have finished and the frames have been handed back. Waiting
+	 * for it is not needed before {@link #start()}, which waits by itself.</p>
+	 * @return the future of the stop, which is done already if this was not running
+	 */
+	public Future<Void> stopAsync() {
+		StopFuture stopped;
+		synchronized(mLifecycleLock) {
+			stopped = mStopFuture;
+			if(mState == LifecycleState.Starting) {
+				// start() sees this when the camera is open, and hands it back itself
+				mState = LifecycleState.Stopping;
+				return stopped;
 			}
+			if(mState != LifecycleState.Running)
+				return stopped;
+			mState = LifecycleState.Stopping;
 		}
 		
-		if(!mIsRunning)
+		mStopRequestNanos = System.nanoTime();
+		mPowerMode.stop(System.currentTimeMillis());
+		
+		// wakes both threads up, after which they hand the camera and the frames back on their way out
+		mFrameRing.close();
+		mIsPaused = false;
+		wakeFrameCapturer();
+		
+		stopRecording();
+		return stopped;
+	}
+	
+	/**
+	 * Gets the state this is in. {@link #start()} moves from {@link LifecycleState#Stopped} through
+	 * {@link LifecycleState#Starting} to {@link LifecycleState#Running}, and {@link #stop()} on to
+	 * {@link LifecycleState#Stopping} until the frame threads have finished. Can be called from any thread.
+	 * @return the state
+	 */
+	public LifecycleState getLifecycleState() {
+		return mState;
+	}
+	
+	/**
+	 * Gets how long the last stop took from {@link #stopAsync()} until the camera had been handed back.
+	 * @return the time in nanoseconds, 0 if this was never stopped while running
+	 */
+	public long getCameraHandoverNanos() {
+		return mCameraHandoverNanos;
+	}
+	
+	// called by each frame thread on its way out, the last one hands everything back
+	private void onFrameThreadFinished(FrameRing ring) {
+		// one thread has gone, so the other must not wait for it
+		ring.close();
+		wakeFrameCapturer();
+		if(mFrameThreadCount.decrementAndGet() > 0)
+			return;
+		
+		mPowerMode.stop(System.currentTimeMillis());
+		// a frame thread that died closes the recording too, the analysis thread no longer writes to it
+		stopRecording();
+		releaseFrameSource();
+		ring.releaseFrames(mFramePool);
+		finishStop();
+	}
+	
+	// hands the camera to whoever wants it next, and notes how long that took since the stop was asked for
+	private void releaseFrameSource() {
+		FrameSource source = mFrameSource;
+		if(source == null)
 			return;
+		mFrameSource = null; // Make it null before releasing...
+		source.release();
 		
-		mIsRunning = false;
-		if (mCamera != null) {
-			synchronized (mProcessFramesRunnable) {
-				VideoCapture camera = mCamera;
-				mCamera = null; // Make it null before releasing...
-				camera.release();
-			}
+		long requested = mStopRequestNanos;
+		if(requested != 0)
+			mCameraHandoverNanos = System.nanoTime() - requested;
+	}
+	
+	private void finishStop() {
+		StopFuture stopped;
+		synchronized(mLifecycleLock) {
+			mState = LifecycleState.Stopped;
+			stopped = mStopFuture;
 		}
+		stopped.complete();
+	}
+	
+	/**
+	 * Stops looking for gestures but keeps the camera open, with its frames, so that {@link #resume()} is
+	 * quick. Use it for short interruptions, such as a dialog taking the focus. The camera is not available
+	 * to other applications until {@link #stop()}. Does nothing if this is not running.
+	 */
+	public void pause() {
+		if(mState != LifecycleState.Running)
+			return;
+		
+		mIsPaused = true;
+	}
+	
+	/**
+	 * Looks for gestures again after {@link #pause()}. Gestures that were in progress when this was paused
+	 * are forgotten. If this is not running it is started, as with {@link #start()}.
+	 */
+	public void resume() {
+		if(mState != LifecycleState.Running) {
+			start();
+			return;
+		}
+		if(!mIsPaused)
+			return;
+		
+		mResumeCount++;
+		mIsPaused = false;
+		wakeFrameCapturer();
+	}
+	
+	/**
+	 * Test if this is paused.
+	 * @return true between {@link #pause()} and {@link #resume()} or {@link #stop()}, false otherwise
+	 */
+	public boolean isPaused() {
+		return mIsPaused;
+	}
+	
+	/**
+	 * Test if this is reading the camera.
+	 * @return true between a successful {@link #start()} and {@link #stop()}, also while paused, false otherwise
+	 */
+	public boolean isRunning() {
+		return mState == LifecycleState.Running;
+	}
+	
+	/**
+	 * <p>Starts writing every frame that is looked at, and when it was captured, to a session file. A
+	 * {@link SessionFrameSource} plays the session back through the same gesture detection later. Frames are
+	 * written on a thread of their own, and dropped if it falls behind.</p>
+	 * <p>Recording ends with {@link #stopRecording()} or {@link #stop()}, or when the frame threads end because
+	 * the camera failed. A recording that was already running is ended first.</p>
+	 * @param file the session file, replaced if it exists
+	 * @return the recorder, to read how many frames were written and dropped
+	 * @throws IOException if the file could not be created
+	 * @throws IllegalStateException if this is not running, as the frame size is not known yet
+	 */
+	public FrameRecorder startRecording(File file) throws IOException {
+		if(mState != LifecycleState.Running)
+			throw new IllegalStateException("start() must be called before recording");
+		
+		stopRecording();
+		FrameRecorder recorder = new FrameRecorder(file, (int)mPreviewSize.width, (int)mPreviewSize.height,
+				FrameRecorder.DEFAULT_BUFFER_COUNT);
+		mFrameRecorder = recorder;
+		return recorder;
+	}
+	
+	/**
+	 * Ends the recording started with {@link #startRecording(File)}, after the frames waiting to be written
+	 * have been written. Does nothing if nothing is being recorded.
+	 */
+	public void stopRecording() {
+		FrameRecorder recorder = mFrameRecorder;
+		mFrameRecorder = null;
+		if(recorder == null)
+			return;
+		
+		try {
+			recorder.close();
+		} catch (IOException e) {
+			Log.e(TAG, "could not write the recording", e);
+		}
+	}
+	
+	/**
+	 * Test if frames are being recorded.
+	 * @return true between {@link #startRecording(File)} and {@link #stopRecording()}, false otherwise
+	 */
+	public boolean isRecording() {
+		return mFrameRecorder != null;
 	}
 	
-	private int adjustDirectionForScreenRotation(Direction d) {
+	private int adjustDirectionForScreenRotation(GestureRecognizer.Direction d) {
 		Display display = ((WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
 		
 		int dNum = d.toInt();
@@ -429,294 +1387,350 @@ public class CameraGestureSensor extends ClickSensor {
 		}
 	}
 	
-	ArrayList <Double> gestureValues = new ArrayList <Double>();
-	//ArrayList<Point> gesturePoints = new ArrayList<Point>();
-	//ArrayList <Double> gestureFractions = new ArrayList<Double>();
+	// lets the capture thread read at full rate again without finishing its low power wait
+	private void wakeFrameCapturer() {
+		Thread capturer = mFrameCapturer;
+		if (capturer != null)
+			LockSupport.unpark(capturer);
+	}
 	
-	private Runnable mProcessFramesRunnable = new Runnable() 
+	// called first thing on the capture and analysis threads
+	private void applyFrameThreadPriority() {
+		try {
+			Process.setThreadPriority(mFrameThreadPriority);
+		} catch (RuntimeException e) {
+			Log.w(TAG, "could not set the frame thread priority to " + mFrameThreadPriority, e);
+		}
+	}
+	
+	// the processor time of the calling thread, or -1 if the device does not measure it
+	private static long threadCpuNanos() {
+		return Debug.threadCpuTimeNanos();
+	}
+	
+	// hands what the recognizer finds to the listeners, turned to match the screen
+	private final GestureRecognizer.Listener mRecognizerListener = new GestureRecognizer.Listener() {
+		@Override
+		public void onClick(GestureRecognizer caller, long gestureLength) {
+			long start = mIsTimingFrame ? System.nanoTime() : 0;
+			
+			onSensorClick();
+			
+			if(mIsTimingFrame) {
+				traceGesture(GestureTrace.Kind.Click, gestureLength, start);
+				recordListenerTime(start);
+			}
+		}
+		
+		@Override
+		public void onGesture(GestureRecognizer caller, GestureRecognizer.Direction direction, long gestureLength) {
+			if(mGestureListeners.size() == 0)
+				return;
+			
+			long start = mIsTimingFrame ? System.nanoTime() : 0;
+			
+			GestureTrace.Kind kind;
+			int adjustedDirection = adjustDirectionForScreenRotation(direction);
+			if(adjustedDirection == GestureRecognizer.Direction.Left.toInt()) {
+				kind = GestureTrace.Kind.Left;
+				onGestureLeft(gestureLength);
+			}
+			else if(adjustedDirection == GestureRecognizer.Direction.Right.toInt()) {
+				kind = GestureTrace.Kind.Right;
+				onGestureRight(gestureLength);
+			}
+			else if(adjustedDirection == GestureRecognizer.Direction.Up.toInt()) {
+				kind = GestureTrace.Kind.Up;
+				onGestureUp(gestureLength);
+			}
+			else if(adjustedDirection == GestureRecognizer.Direction.Down.toInt()) {
+				kind = GestureTrace.Kind.Down;
+				onGestureDown(gestureLength);
+			}
+			else {
+				return;
+			}
+			
+			if(mIsTimingFrame) {
+				traceGesture(kind, gestureLength, start);
+				recordListenerTime(start);
+			}
+		}
+		
+		// records the latency of the gesture the listeners were just called for, and passes it on
+		private void traceGesture(GestureTrace.Kind kind, long gestureLength, long decisionNanos) {
+			long dispatchNanos = System.nanoTime();
+			// no frame of this run has been stamped yet
+			if(mOnsetNanos == 0 || mFrameCaptureNanos == 0)
+				return;
+			
+			final GestureTrace trace = new GestureTrace(kind, gestureLength, mOnsetNanos, mFrameCaptureNanos, decisionNanos, dispatchNanos);
+			mGestureLatencies[GestureLatency.OnsetToDecision.ordinal()].record(trace.getOnsetToDecisionNanos());
+			mGestureLatencies[GestureLatency.EndToDecision.ordinal()].record(trace.getEndToDecisionNanos());
+			mGestureLatencies[GestureLatency.DecisionToDispatch.ordinal()].record(trace.getDecisionToDispatchNanos());
+			mGestureLatencies[GestureLatency.OnsetToDispatch.ordinal()].record(trace.getOnsetToDispatchNanos());
+			
+			if(mTraceListeners.isEmpty())
+				return;
+			
+			dispatch(new Runnable() {
+				@Override
+				public void run() {
+					for(TraceListener l : mTraceListeners) {
+						l.onGestureTrace(CameraGestureSensor.this, trace);
+					}
+				}
+			});
+		}
+		
+		private void recordListenerTime(long start) {
+			long nanos = System.nanoTime() - start;
+			mListenerNanos += nanos;
+			mStageLatencies[PipelineStage.Listeners.ordinal()].record(nanos);
+		}
+	};
+	
+	// reads frames from the camera into the ring, so the camera is read while the last frame is analysed
+	private Runnable mCaptureFramesRunnable = new Runnable() 
 	{
 		@Override
 		public void run() 
 		{
-			while (mCamera != null && mIsRunning) 
+			applyFrameThreadPriority();
+			final FrameRing ring = mFrameRing;
+			try
+			{
+				captureFrames(ring);
+			}
+			finally
+			{
+				// the camera goes back as soon as the last grab has returned, unless the analysis thread may
+				// still be reading its memory
+				FrameSource source = mFrameSource;
+				if (source != null && !source.isZeroCopy())
+					releaseFrameSource();
+				onFrameThreadFinished(ring);
+			}
+		}
+		
+		private void captureFrames(FrameRing ring)
+		{
+			long backoffNanos = 0;
+			while (true) 
 			{
-				synchronized (this) 
+				// resume() and stop() wake the thread up
+				while (mIsPaused && !ring.isClosed())
+					LockSupport.park(this);
+				
+				// closing the ring ends the wait early, so stop() is never kept waiting
+				if (backoffNanos > 0)
+					parkUntil(ring, System.nanoTime() + backoffNanos);
+				
+				// the clock is only read when frames are paced
+				boolean paced = mFrameIntervalNanos > 0 || mPowerMode.isEnabled();
+				long frameStart = paced ? System.nanoTime() : 0;
+				int slot = ring.beginWrite();
+				if (slot < 0)
+					break;
+				
+				if (ring.isClosed())
 				{
-					boolean grabbed = mCamera.grab();
-					if(!grabbed)
-						continue;
-					
-					mCamera.retrieve(mCurrentFrame, Highgui.CV_CAP_ANDROID_GREY_FRAME);
-					
-					currentIntensityValue = Core.mean(mCurrentFrame).val[0];
-					last100Intensities[frameCount] = currentIntensityValue;
-										
-					//KEEP A RUNNING AVERAGE OF THE INTENSITIES OF THE LAST 100 FRAMES
-					double runningTotal = 0;
-					if ((frameCount < 100) && (!bufferFilled))
-					{
-						for (int i=0;i<frameCount+1;i++)
-						{
-							runningTotal += last100Intensities[i];
-						}
-						runningIntensityAverage = runningTotal/frameCount;
-						frameCount++;
-					}
-					else if (frameCount < 100)
-					{
-						for (int i=0;i<100;i++)
-						{
-							runningTotal += last100Intensities[i];
-						}
-						runningIntensityAverage = runningTotal/100;
-						frameCount++;
-					}
-					
-					if (frameCount == 100)
-					{
-						frameCount = 0;
-						bufferFilled = true;
-					}
-					
-					//DETECT GESTURES
-					mdret = DetectMovementPosition(mCurrentFrame.getNativeObjAddr(), mPreviousFrame.getNativeObjAddr());
-					
-					//Are we already in a gesture?
-					if (gestureStartDetected)
-					{	
-						currentGestureLength ++;
-						gestureValues.add(currentIntensityValue);
-						//gesturePoints.add(mdret.averagePosition);
-						//gestureFractions.add(mdret.fractionOfScreenInMotion);
-						
-						//Are we seeing the end of the gesture?
-						if (mdret.fractionOfScreenInMotion < MIN_FRACTION_SCREEN_MOTION)
-						{
-							//This is now the last gesture so record the time
-							lastGestureEndTime = System.currentTimeMillis();							
-							gestureEndDetected = true;
-							mEndPos = mdret.averagePosition;	
-
-						}
-						
-						//If the gesture lasts too long without finishing then ignore it
-						if (currentGestureLength > framesToWaitForGesture)
-						{
-							Log.e("CameraGestureSensor", "GESTURE TIMED OUT " + currentGestureLength);
-							
-							//Reset everything
-							mStartPos = null;
-							mEndPos = null;
-							
-							gestureStartDetected = false;
-							gestureEndDetected = false;
-							currentGestureLength = 0;
-						}
-					}
-					//Figure out if we need to start a gesture
-					else
-					{
-						//Are we seeing a spike in intensity? 
-						if (mdret.fractionOfScreenInMotion > MIN_FRACTION_SCREEN_MOTION)
-						{				
-							//Enforce a certain amount of time between gestures
-							long time = System.currentTimeMillis();
-							if (time - lastGestureEndTime > MIN_MILLISECONDS_BETWEEN_GESTURES)
-							{
-								lastGestureStartTime = time;
-								mStartPos = mdret.averagePosition;
-								gestureStartDetected = true;
-								currentGestureLength ++;
-								
-								gestureValues = new ArrayList<Double>();
-								gestureValues.add(currentIntensityValue);
-								/*gesturePoints = new ArrayList<Point>();
-								gesturePoints.add(mdret.averagePosition);
-								gestureFractions = new ArrayList<Double>();
-								gestureFractions.add(mdret.fractionOfScreenInMotion);*/
-								
-								if (time-lastClickTime > 1.5*MIN_MILLISECONDS_BETWEEN_GESTURES)
-								{
-									ignoreNext = false;
-								}
-							}
-						}
-					}
-					
-					// Did we find a gesture?
-					if (gestureEndDetected)
+					ring.cancelWrite(slot);
+					break;
+				}
+				
+				boolean captured = false;
+				boolean timed = mIsLatencyTrackingEnabled;
+				// frames are only stamped when something looks at their arrival time, 0 otherwise
+				boolean stamped = timed || mFrameDeadlineNanos > 0;
+				long grabStart = timed ? System.nanoTime() : 0;
+				long cpuStart = timed ? threadCpuNanos() : -1;
+				
+				if (mFrameSource.grab())
+				{
+					// the frame counts as captured when the source hands it over
+					long retrieveStart = stamped ? System.nanoTime() : 0;
+					if (mFrameSource.retrieve(ring.getFrame(slot)))
 					{
-						//Ignore a gesture if it comes right after a click
-						if (ignoreNext) 
-						{
-							Log.e("", "IGNORED");
-							ignoreNext = false;
-						}
-						
-						else
+						ring.setCaptureNanos(slot, retrieveStart);
+						ring.setCaptureCpuNanos(slot, cpuStart < 0 ? -1 : threadCpuNanos() - cpuStart);
+						if (timed)
 						{
-							long gestureLength = lastGestureEndTime - lastGestureStartTime;	
-							
-							//Figure out if it's a gesture or a click
-							double minValue = runningIntensityAverage;
-							double maxValue = runningIntensityAverage;
-							int minIndex = 0, maxIndex = 0;
-								
-							for (int i=0;i<gestureValues.size();i++)
-							{
-								double thisValue = gestureValues.get(i);
-								
-								//Figure out max and min values
-								if (thisValue < minValue)
-								{
-									minValue = thisValue;
-									minIndex = i;
-								}
-								if (thisValue > maxValue)
-								{
-									maxValue = thisValue;
-									maxIndex = i;
-								}
-								
-							}
-							
-							double peakToPeak = maxIndex-minIndex;
-							double amountAbove = maxValue - runningIntensityAverage;
-							
-							Log.e("Detected", "peakToPeak:" + peakToPeak + " length:" + gestureLength + " amountAbove:" + amountAbove);
-							
-							if ((peakToPeak < -1 && amountAbove == 0) || (peakToPeak < -3 && amountAbove < 10))
-							{
-								lastClickTime = lastGestureEndTime;
-								Log.e("CLICK", "CLICK");
-								onSensorClick();
-								ignoreNext = true;
-							}
-							else
-							{							
-								Direction movementDirection = getGestureDirection(gestureLength);
-								if (movementDirection == Direction.None)
-									Log.e("", "NO DIRECTION!");
-								
-								// see if we should call a callback based on movementDirection
-								if(mGestureListeners.size() != 0 && movementDirection != Direction.None) 
-								{					
-									int adjustedDirection = adjustDirectionForScreenRotation(movementDirection);
-	
-									if(adjustedDirection == Direction.Left.toInt())
-									{	
-										//Log.e("LEFT", "LEFT");
-										onGestureLeft(gestureLength);
-									}
-									else if(adjustedDirection == Direction.Right.toInt())
-									{
-										//Log.e("RIGHT", "RIGHT");
-										onGestureRight(gestureLength);
-									}
-									else if(adjustedDirection == Direction.Up.toInt())
-									{
-										//Log.e("UP", "UP");
-										onGestureUp(gestureLength);
-									}
-									else if(adjustedDirection == Direction.Down.toInt())
-									{
-										//Log.e("DOWN", "DOWN");
-										onGestureDown(gestureLength);
-									}
-								}
-							}
+							long retrieveEnd = System.nanoTime();
+							mStageLatencies[PipelineStage.Grab.ordinal()].record(retrieveStart - grabStart);
+							mStageLatencies[PipelineStage.Retrieve.ordinal()].record(retrieveEnd - retrieveStart);
 						}
-						
-						//Reset everything
-						mStartPos = null;
-						mEndPos = null;
-						
-						gestureStartDetected = false;
-						gestureEndDetected = false;
-						currentGestureLength = 0;
+						ring.setTime(slot, mFrameSource.getFrameTime());
+						captured = true;
 					}
-	
-					//Record data so we can make pretty graphs of gestures
-					//double perCentFraction = mdret.fractionOfScreenInMotion*100;
-					//resultCsv += currentIntensityValue + "," + perCentFraction + ",\n";
-					
-					// set the previous frame to the current frame
-					mCurrentFrame.copyTo(mPreviousFrame);
+				}
+				if (!captured)
+				{
+					ring.cancelWrite(slot);
+					mFailedGrabCount++;
+					backoffNanos = backoffNanos == 0 ? MIN_GRAB_BACKOFF_NANOS : Math.min(backoffNanos * 2, MAX_GRAB_BACKOFF_NANOS);
+					continue;
+				}
+				backoffNanos = 0;
+				ring.publish(slot);
+				
+				// frames are read no faster than the profile's frame rate, and in low power mode only a few
+				// times a second. Closing the ring or waking up ends the wait early.
+				while (paced && !ring.isClosed())
+				{
+					long interval = mPowerMode.isLowPower() && mPowerMode.isEnabled()
+							? Math.max(mLowPowerFrameIntervalNanos, mFrameIntervalNanos) : mFrameIntervalNanos;
+					if (interval <= 0)
+						break;
+					long remaining = frameStart + interval - System.nanoTime();
+					if (remaining <= 0)
+						break;
+					LockSupport.parkNanos(remaining);
 				}
 			}
 		}
-
-		private Direction getGestureDirection(double gestureLength)
+		
+		// waits until the given time, or until the ring is closed
+		private void parkUntil(FrameRing ring, long wakeTime)
 		{
-			Direction movementDirection = Direction.None;
-			
-            double diffY = mEndPos.y - mStartPos.y;
-            double diffX = mEndPos.x - mStartPos.x;
-            
-            if (Math.abs(diffX) > Math.abs(diffY)) {
-                if (Math.abs(diffX) > mMinDirectionalMotionX && Math.abs(gestureLength) > mMinGestureLength) 
-                {
-                    if (diffX > 0) 
-                    {
-                    	movementDirection = Direction.Left;
-                    } 
-                    else 
-                    {
-                    	movementDirection = Direction.Right;
-                    }
-                }
-            } 
-            else 
-            {
-                if (Math.abs(diffY) > mMinDirectionalMotionY && Math.abs(gestureLength) > mMinGestureLength) 
-                {
-                    if (diffY > 0) 
-                    {
-                    	movementDirection = Direction.Down;
-                    } 
-                    else 
-                    {
-                    	movementDirection = Direction.Up;
-                    }
-                }
-            }
-			
-            /*
-			if(isHorScrollAdjustForScreen()) 
-			{	
-				if(mEndPos.x - mStartPos.x > mMinDirectionalMotionX) 
+			while (!ring.isClosed())
+			{
+				long remaining = wakeTime - System.nanoTime();
+				if (remaining <= 0)
+					break;
+				LockSupport.parkNanos(remaining);
+			}
+		}
+	};
+	
+	private Runnable mProcessFramesRunnable = new Runnable() 
+	{
+		@Override
+		public void run() 
+		{
+			applyFrameThreadPriority();
+			final FrameRing ring = mFrameRing;
+			try
+			{
+				processFrames(ring);
+			}
+			finally
+			{
+				// the frames are not looked at again, so the last frame thread out may hand them back
+				mMotionDetector.release();
+				mPreviousFrame = null;
+				mCurrentFrame = null;
+				onFrameThreadFinished(ring);
+			}
+		}
+		
+		private void processFrames(FrameRing ring)
+		{
+			int previousSlot = -1;
+			int resumeCount = mResumeCount;
+			while (true) 
+			{
+				int slot = ring.take();
+				if (slot < 0 || ring.isClosed())
+					break;
+				
+				FrameRecorder recorder = mFrameRecorder;
+				if (recorder != null)
+					recorder.record(ring.getTime(slot), ring.getFrame(slot));
+				
+				// after a pause the previous frame is stale, so start over as with the first frame
+				if (resumeCount != mResumeCount)
 				{
-					movementDirection = Direction.Left;
-					//Log.e("ZERO", "LEFT");
+					resumeCount = mResumeCount;
+					if (previousSlot >= 0)
+						ring.release(previousSlot);
+					previousSlot = -1;
+					mGestureRecognizer.reset();
 				}
-				else if(mStartPos.x - mEndPos.x > mMinDirectionalMotionX) {
-					movementDirection = Direction.Right;
-					//Log.e("ZERO", "RIGHT");
+				
+				// the first frame only becomes the previous frame of the second
+				if (previousSlot < 0)
+				{
+					previousSlot = slot;
+					continue;
 				}
-			}
-			if(isVertScrollAdjustForScreen()) 
-			{
-				double verticalMotion = Math.abs(mEndPos.y - mStartPos.y);
-				if(verticalMotion > mMinDirectionalMotionY) {
-					if(movementDirection == Direction.None || verticalMotion * mWidthToHeight > Math.abs(mEndPos.x - mStartPos.x) ) {
-						if(mEndPos.y < mStartPos.y)
-						{	
-							movementDirection = Direction.Up;
-							//Log.e("ZERO", "UP");
-						}
-						else
-						{
-							movementDirection = Direction.Down;
-							//Log.e("ZERO", "DOWN");
-						}
-					}
+				
+				// a frame that waited past its deadline only becomes the previous frame of the next one,
+				// which keeps the frames that are compared next to each other. A frame captured before the
+				// deadline was set has no arrival time and is never late.
+				long deadline = mFrameDeadlineNanos;
+				long captureNanos = ring.getCaptureNanos(slot);
+				if (deadline > 0 && captureNanos != 0 && System.nanoTime() - captureNanos > deadline)
+				{
+					mLateFrameCount++;
+					ring.release(previousSlot);
+					previousSlot = slot;
+					continue;
+				}
+				
+				boolean timed = mIsLatencyTrackingEnabled;
+				mIsTimingFrame = timed;
+				long frameStart = timed ? System.nanoTime() : 0;
+				long cpuStart = timed ? threadCpuNanos() : -1;
+				
+				mCurrentFrame = ring.getFrame(slot);
+				mPreviousFrame = ring.getFrame(previousSlot);
+				
+				//DETECT GESTURES
+				//The same pass over the frame also measures its intensity
+				//Between gestures a decimated check is enough, during a gesture use full resolution
+				boolean wasLowPower = mPowerMode.isLowPower();
+				int stride = mIdleSampleStride;
+				if (mGestureRecognizer.isGestureInProgress())
+					stride = 1;
+				else if (wasLowPower)
+					stride = Math.max(stride, mLowPowerSampleStride);
+				mMotionDetector.setSampleStride(stride);
+				mMotionDetector.detect(mCurrentFrame, mPreviousFrame, mdret);
+				if (!mGestureRecognizer.isGestureInProgress() && mdret.sampleStride > 1
+						&& mdret.fractionOfScreenInMotion > mGestureRecognizer.getMinFractionInMotion())
+				{
+					//Something moved, so look at the same frame again at full resolution before deciding
+					mMotionDetector.setSampleStride(1);
+					mMotionDetector.detect(mCurrentFrame, mPreviousFrame, mdret);
+				}
+				
+				long detectEnd = timed ? System.nanoTime() : 0;
+				mListenerNanos = 0;
+				mFrameCaptureNanos = ring.getCaptureNanos(slot);
+				boolean wasGestureInProgress = mGestureRecognizer.isGestureInProgress();
+				
+				//Follow the gesture, the recognizer calls back as soon as it knows what it was
+				//Frames are timed by when they were captured, so a replayed session is timed as it was recorded
+				mGestureRecognizer.update(ring.getTime(slot), mdret.intensityMean, mdret.fractionOfScreenInMotion,
+						mdret.averagePosition.x, mdret.averagePosition.y);
+				if (!wasGestureInProgress && mGestureRecognizer.isGestureInProgress())
+					mOnsetNanos = mFrameCaptureNanos;
+				
+				if (timed)
+				{
+					long recognizeEnd = System.nanoTime();
+					mStageLatencies[PipelineStage.MotionDetection.ordinal()].record(detectEnd - frameStart);
+					mStageLatencies[PipelineStage.Recognition.ordinal()].record(recognizeEnd - detectEnd - mListenerNanos);
+				}
+				
+				//Drop into low power mode when nothing has moved for a while, and leave it on any motion
+				if (!mPowerMode.update(System.currentTimeMillis(), mdret.fractionOfScreenInMotion, mGestureRecognizer.isGestureInProgress()) && wasLowPower)
+					wakeFrameCapturer();
+				
+				// the current frame becomes the previous frame, and the old one goes back to the capture thread
+				ring.release(previousSlot);
+				previousSlot = slot;
+				
+				if (timed)
+				{
+					mStageLatencies[PipelineStage.Frame.ordinal()].record(System.nanoTime() - frameStart);
+					long captureCpu = ring.getCaptureCpuNanos(slot);
+					if (cpuStart >= 0 && captureCpu >= 0)
+						mFrameCpuTime.record(threadCpuNanos() - cpuStart + captureCpu);
 				}
 			}
-            */
-            
-			return movementDirection;
 		}
-				
 	};
 	
 	/**
@@ -727,6 +1741,7 @@ public class CameraGestureSensor extends ClickSensor {
 		//No longer necessary
 	}
 	
+	// allocates a new MotionDetectionReturnValue on every call, the frame loop uses MotionDetector instead
 	private native MotionDetectionReturnValue DetectMovementPosition(long currentFrame, long previousFrame);
 	
 	//Adding capability to try and see if we can differentiate clicks from gestures
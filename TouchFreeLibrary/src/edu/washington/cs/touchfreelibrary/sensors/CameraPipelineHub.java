@@ -0,0 +1,174 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * <p><code>CameraPipelineHub</code> shares one {@link CameraGestureSensor} across every part of the
+ * application that wants gestures, so two activities, or one activity handing over to the next, do not fight
+ * over the front facing camera. The first {@link #subscribe} opens the camera; later subscribers get the
+ * gestures and clicks of the same pipeline; and the last {@link Subscription#unsubscribe()} stops it
+ * after the linger delay, so an activity that follows right away finds the camera still open.</p>
+ *
+ * <p>The shared sensor can be configured through {@link #getSensor()} like any other. Settings that take
+ * effect on {@link CameraGestureSensor#start()} apply the next time the camera is opened. Do not start or
+ * stop the shared sensor yourself.</p>
+ *
+ * <p>All methods may be called from any thread. The delayed stop runs on the main thread.</p>
+ */
+public final class CameraPipelineHub {
+	/** the default time the camera stays open after the last subscriber has left, in milliseconds */
+	public static final long DEFAULT_LINGER_MILLIS = 3000;
+
+	private static CameraPipelineHub sInstance;
+
+	private final CameraGestureSensor mSensor;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private int mSubscriberCount;
+	private long mLingerMillis = DEFAULT_LINGER_MILLIS;
+
+	private CameraPipelineHub(Context context) {
+		mSensor = new CameraGestureSensor(context);
+	}
+
+	/**
+	 * Gets the hub of this process, creating it the first time. Remember to call
+	 * {@link CameraGestureSensor#loadLibrary()} first.
+	 * @param context any Context of the application, only its application context is kept
+	 * @return the hub
+	 */
+	public static synchronized CameraPipelineHub getInstance(Context context) {
+		if(sInstance == null)
+			sInstance = new CameraPipelineHub(context.getApplicationContext());
+		return sInstance;
+	}
+
+	/**
+	 * Gets the sensor every subscriber shares, to configure it.
+	 * @return the shared sensor
+	 */
+	public CameraGestureSensor getSensor() {
+		return mSensor;
+	}
+
+	/**
+	 * Sets how long the camera stays open after the last subscriber has left. Takes effect the next time
+	 * the last subscriber leaves.
+	 * @param millis the delay in milliseconds, 0 to close the camera right away
+	 */
+	public synchronized void setLingerDelay(long millis) {
+		mLingerMillis = Math.max(0, millis);
+	}
+
+	/**
+	 * Gets how long the camera stays open after the last subscriber has left.
+	 * @return the delay in milliseconds
+	 */
+	public synchronized long getLingerDelay() {
+		return mLingerMillis;
+	}
+
+	/**
+	 * Gets the number of subscriptions that have not been cancelled.
+	 * @return the number of subscribers
+	 */
+	public synchronized int getSubscriberCount() {
+		return mSubscriberCount;
+	}
+
+	/**
+	 * Test if the shared sensor is reading the camera, which it may still do for the linger delay after
+	 * the last subscriber has left.
+	 * @return true if the camera is open, false otherwise
+	 */
+	public synchronized boolean isRunning() {
+		return mSensor.isRunning();
+	}
+
+	/**
+	 * Starts delivering the gestures and clicks of the shared sensor, and opens the camera if it is not open
+	 * yet. If the camera cannot be opened the subscription still counts, and the next subscriber tries again;
+	 * see {@link #isRunning()}.
+	 * @param gestureListener called for every gesture, or null
+	 * @param clickListener called for every click, or null
+	 * @return the subscription, to cancel it with
+	 */
+	public synchronized Subscription subscribe(CameraGestureSensor.Listener gestureListener, ClickSensor.Listener clickListener) {
+		if(gestureListener != null)
+			mSensor.addGestureListener(gestureListener);
+		if(clickListener != null)
+			mSensor.addClickListener(clickListener);
+
+		mSubscriberCount++;
+		mHandler.removeCallbacks(mLingerRelease);
+		if(!mSensor.isRunning())
+			mSensor.start();
+
+		return new Subscription(gestureListener, clickListener);
+	}
+
+	private synchronized void unsubscribe(Subscription subscription) {
+		if(subscription.mGestureListener != null)
+			mSensor.removeGestureListener(subscription.mGestureListener);
+		if(subscription.mClickListener != null)
+			mSensor.removeClickListener(subscription.mClickListener);
+
+		mSubscriberCount--;
+		if(mSubscriberCount > 0)
+			return;
+
+		if(mLingerMillis == 0)
+			mSensor.stop();
+		else
+			mHandler.postDelayed(mLingerRelease, mLingerMillis);
+	}
+
+	// stops the camera unless someone subscribed during the linger delay
+	private final Runnable mLingerRelease = new Runnable() {
+		@Override
+		public void run() {
+			synchronized(CameraPipelineHub.this) {
+				if(mSubscriberCount == 0)
+					mSensor.stop();
+			}
+		}
+	};
+
+	/**
+	 * A subscription to the shared sensor, see {@link CameraPipelineHub#subscribe}.
+	 */
+	public final class Subscription {
+		private final CameraGestureSensor.Listener mGestureListener;
+		private final ClickSensor.Listener mClickListener;
+		private boolean mIsSubscribed = true;
+
+		private Subscription(CameraGestureSensor.Listener gestureListener, ClickSensor.Listener clickListener) {
+			mGestureListener = gestureListener;
+			mClickListener = clickListener;
+		}
+
+		/**
+		 * Stops delivering gestures and clicks to the listeners of this subscription. Does nothing if it was
+		 * already cancelled.
+		 */
+		public void unsubscribe() {
+			synchronized(CameraPipelineHub.this) {
+				if(!mIsSubscribed)
+					return;
+				mIsSubscribed = false;
+				CameraPipelineHub.this.unsubscribe(this);
+			}
+		}
+
+		/**
+		 * Test if this subscription has not been cancelled.
+		 * @return true until {@link #unsubscribe()} is called
+		 */
+		public boolean isSubscribed() {
+			synchronized(CameraPipelineHub.this) {
+				return mIsSubscribed;
+			}
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+/**
+ * <p>How a {@link CameraGestureSensor} reads and analyses the camera: the frame size to ask for, the frame
+ * rate, the sample stride between gestures and the number of threads that share each frame. A profile is
+ * applied with {@link CameraGestureSensor#setCaptureProfile(CaptureProfile)}, which copies it.</p>
+ *
+ * <p>Devices differ too much for one profile to suit them all. {@link #calibrate(List, long, int)} times the
+ * motion kernel at every frame size the camera supports and picks the largest one that fits a time budget;
+ * {@link CameraGestureSensor#calibrateCaptureProfile(long)} does so for the sensor's camera.</p>
+ */
+public final class CaptureProfile {
+	// calibration frames are timed after this many untimed ones
+	private static final int CALIBRATION_WARMUP_FRAMES = 3;
+	private static final int CALIBRATION_FRAMES = 20;
+	// the percentile of the calibration times that must fit the budget
+	private static final double CALIBRATION_PERCENTILE = 90;
+	// how far the second calibration frame is shifted, so part of it is in motion
+	private static final int CALIBRATION_SHIFT = 8;
+
+	private int mFrameWidth;
+	private int mFrameHeight;
+	private int mMinFrameRate;
+	private int mMaxFrameRate;
+	private int mSampleStride = 1;
+	private int mWorkerCount = 1;
+
+	/**
+	 * Creates a profile that picks the frame size automatically, leaves the frame rate to the camera, looks
+	 * at every pixel and runs on a single thread.
+	 */
+	public CaptureProfile() {
+	}
+
+	/**
+	 * Creates a copy of a profile.
+	 * @param profile the profile to copy
+	 */
+	public CaptureProfile(CaptureProfile profile) {
+		mFrameWidth = profile.mFrameWidth;
+		mFrameHeight = profile.mFrameHeight;
+		mMinFrameRate = profile.mMinFrameRate;
+		mMaxFrameRate = profile.mMaxFrameRate;
+		mSampleStride = profile.mSampleStride;
+		mWorkerCount = profile.mWorkerCount;
+	}
+
+	/**
+	 * Sets the largest frame size to ask the camera for. The largest supported size that fits is used, or the
+	 * smallest supported size if none does.
+	 * @param width the largest frame width in pixels, 0 to pick the size automatically
+	 * @param height the largest frame height in pixels, 0 to pick the size automatically
+	 */
+	public void setFrameSize(int width, int height) {
+		mFrameWidth = Math.max(0, width);
+		mFrameHeight = Math.max(0, height);
+	}
+
+	/**
+	 * @return the largest frame width to ask for, 0 if the size is picked automatically
+	 */
+	public int getFrameWidth() {
+		return mFrameWidth;
+	}
+
+	/**
+	 * @return the largest frame height to ask for, 0 if the size is picked automatically
+	 */
+	public int getFrameHeight() {
+		return mFrameHeight;
+	}
+
+	/**
+	 * Test if the frame size is picked automatically.
+	 * @return true if no frame size was set
+	 */
+	public boolean isFrameSizeAutomatic() {
+		return mFrameWidth == 0 || mFrameHeight == 0;
+	}
+
+	/**
+	 * Sets the range of frame rates to ask the camera for. Not every {@link FrameSource} can set its rate, but
+	 * the sensor never reads frames faster than the highest rate either way.
+	 * @param min the lowest acceptable frames per second
+	 * @param max the highest acceptable frames per second, 0 to leave the rate to the camera
+	 */
+	public void setFrameRateRange(int min, int max) {
+		mMaxFrameRate = Math.max(0, max);
+		mMinFrameRate = Math.max(0, Math.min(min, mMaxFrameRate));
+	}
+
+	/**
+	 * @return the lowest acceptable frames per second
+	 */
+	public int getMinFrameRate() {
+		return mMinFrameRate;
+	}
+
+	/**
+	 * @return the highest acceptable frames per second, 0 if the rate is left to the camera
+	 */
+	public int getMaxFrameRate() {
+		return mMaxFrameRate;
+	}
+
+	/**
+	 * Sets how densely frames are sampled between gestures, see {@link CameraGestureSensor#setIdleSampleStride(int)}.
+	 * @param stride 1 to look at every pixel, n to look at every n-th row and column
+	 */
+	public void setSampleStride(int stride) {
+		mSampleStride = Math.max(1, stride);
+	}
+
+	/**
+	 * @return how densely frames are sampled between gestures
+	 */
+	public int getSampleStride() {
+		return mSampleStride;
+	}
+
+	/**
+	 * Sets how many threads share the work on each frame, see
+	 * {@link CameraGestureSensor#setMotionDetectionWorkerCount(int)}.
+	 * @param count the number of threads, 1 to run on the analysis thread only
+	 */
+	public void setWorkerCount(int count) {
+		mWorkerCount = Math.max(1, Math.min(count, MotionDetector.MAX_WORKER_COUNT));
+	}
+
+	/**
+	 * @return how many threads share the work on each frame
+	 */
+	public int getWorkerCount() {
+		return mWorkerCount;
+	}
+
+	/**
+	 * Picks the frame size this profile asks for.
+	 * @param supported the sizes the frame source supports
+	 * @param maxAutomaticArea the largest area, exclusive, an automatically picked size may have
+	 * @param minAutomaticWidth the smallest width an automatically picked size may have
+	 * @return the size, or null if there is none
+	 */
+	Size chooseFrameSize(List<Size> supported, double maxAutomaticArea, double minAutomaticWidth) {
+		Size best = null;
+		Size smallest = null;
+		for(Size size : supported) {
+			if(smallest == null || size.area() < smallest.area())
+				smallest = size;
+
+			boolean fits = isFrameSizeAutomatic()
+					? size.area() < maxAutomaticArea && size.width >= minAutomaticWidth
+					: size.width <= mFrameWidth && size.height <= mFrameHeight;
+			if(fits && (best == null || size.area() > best.area()))
+				best = size;
+		}
+
+		// a size that was asked for is always approximated, an automatic one has to meet its limits
+		if(best == null && !isFrameSizeAutomatic())
+			return smallest;
+		return best;
+	}
+
+	/**
+	 * <p>Picks the largest frame size at which the motion kernel fits a time budget, at full resolution as
+	 * during a gesture. Every size is timed on a single thread and, if more workers are allowed, on that
+	 * many threads; the fewest threads that fit the budget are used. Sizes are tried from the smallest up,
+	 * and stop at the first that does not fit at all. If even the smallest size does not fit, it is used
+	 * with the most threads.</p>
+	 *
+	 * <p>Needs the native library, see {@link CameraGestureSensor#loadLibrary()}. Takes about a second for
+	 * the usual camera sizes.</p>
+	 * @param supported the frame sizes to choose from, usually those the camera supports
+	 * @param frameBudgetNanos the time the motion kernel may take per frame, in nanoseconds
+	 * @param maxWorkerCount the most threads that may share a frame
+	 * @return a profile with the chosen frame size and worker count, and the other settings at their
+	 * defaults, or null if there are no sizes
+	 */
+	public static CaptureProfile calibrate(List<Size> supported, long frameBudgetNanos, int maxWorkerCount) {
+		List<Size> sizes = new ArrayList<Size>(supported);
+		if(sizes.isEmpty())
+			return null;
+		Collections.sort(sizes, new Comparator<Size>() {
+			@Override
+			public int compare(Size a, Size b) {
+				return Double.compare(a.area(), b.area());
+			}
+		});
+
+		maxWorkerCount = Math.max(1, Math.min(maxWorkerCount, MotionDetector.MAX_WORKER_COUNT));
+		int [] workerCounts = maxWorkerCount == 1 ? new int [] { 1 } : new int [] { 1, maxWorkerCount };
+
+		CaptureProfile profile = new CaptureProfile();
+		profile.setFrameSize((int)sizes.get(0).width, (int)sizes.get(0).height);
+		profile.setWorkerCount(maxWorkerCount);
+
+		MotionDetector detector = new MotionDetector();
+		try {
+			for(Size size : sizes) {
+				int fittingWorkerCount = 0;
+				for(int workerCount : workerCounts) {
+					detector.setWorkerCount(workerCount);
+					if(timeKernel(detector, size) <= frameBudgetNanos) {
+						fittingWorkerCount = workerCount;
+						break;
+					}
+				}
+				if(fittingWorkerCount == 0)
+					break;
+
+				profile.setFrameSize((int)size.width, (int)size.height);
+				profile.setWorkerCount(fittingWorkerCount);
+			}
+		} finally {
+			detector.release();
+		}
+		return profile;
+	}
+
+	// a high percentile of the time the kernel takes on a pair of textured frames of the given size
+	private static long timeKernel(MotionDetector detector, Size size) {
+		int rows = (int)size.height;
+		int cols = (int)size.width;
+
+		byte [] pixels = new byte [rows * cols];
+		new Random(rows * 31 + cols).nextBytes(pixels);
+		Mat previous = new Mat(rows, cols, CvType.CV_8U);
+		previous.put(0, 0, pixels);
+		System.arraycopy(pixels, 0, pixels, CALIBRATION_SHIFT, pixels.length - CALIBRATION_SHIFT);
+		Mat current = new Mat(rows, cols, CvType.CV_8U);
+		current.put(0, 0, pixels);
+
+		MotionDetectionReturnValue out = new MotionDetectionReturnValue();
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(int i = 0; i < CALIBRATION_WARMUP_FRAMES + CALIBRATION_FRAMES; i++) {
+			long start = System.nanoTime();
+			detector.detect(current, previous, out);
+			if(i >= CALIBRATION_WARMUP_FRAMES)
+				histogram.record(System.nanoTime() - start);
+		}
+
+		current.release();
+		previous.release();
+		return histogram.getSnapshot().getValueAtPercentile(CALIBRATION_PERCENTILE);
+	}
+
+	@Override
+	public String toString() {
+		String size = isFrameSizeAutomatic() ? "automatic" : mFrameWidth + "x" + mFrameHeight;
+		String rate = mMaxFrameRate == 0 ? "camera default" : mMinFrameRate + "-" + mMaxFrameRate + " fps";
+		return String.format("size=%s rate=%s stride=%d workers=%d", size, rate, mSampleStride, mWorkerCount);
+	}
+}
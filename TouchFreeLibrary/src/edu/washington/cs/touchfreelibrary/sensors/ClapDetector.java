@@ -0,0 +1,29 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * Finds claps in microphone audio for {@link MicrophoneClickSensor}, one block of samples at a time. Blocks
+ * may have any length, and a detector must not allocate once it has been created. Detectors are not thread
+ * safe, apart from {@link #setSensitivity(double)}.
+ */
+interface ClapDetector {
+	/**
+	 * Sets how far above the usual level a sound has to be to count as a clap.
+	 * @param sensitivity the ratio, lower is more sensitive
+	 */
+	public void setSensitivity(double sensitivity);
+
+	public double getSensitivity();
+
+	/**
+	 * Forgets the audio seen so far.
+	 */
+	public void reset();
+
+	/**
+	 * Looks at the next block of audio.
+	 * @param samples the samples, 16 bit signed
+	 * @param count how many of the samples to look at
+	 * @return true if a clap was found in this block
+	 */
+	public boolean process(short [] samples, int count);
+}
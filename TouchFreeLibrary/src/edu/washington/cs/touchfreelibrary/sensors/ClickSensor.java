@@ -1,7 +1,8 @@
 package edu.washington.cs.touchfreelibrary.sensors;
 
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 /**
  * Class <code>ClickSensor</code> is an abstract base class to all other click
@@ -10,6 +11,11 @@ import java.util.List;
  * ClickSensor</code> may use the protected {@link #onSensorClick()}
  * to call all the listeners at once.
  * 
+ * <p>Listeners may be added and removed from any thread, even while they are
+ * being called. By default they are called on the thread that sensed the click;
+ * see {@link #setDispatchMode(DispatchMode)} to call them on another thread instead,
+ * so a slow listener never holds up the sensor.</p>
+ * 
  * @author Leeran Raphaely <leeran.raphaely@gmail.com>
  *
  */
@@ -26,14 +32,32 @@ public abstract class ClickSensor {
 		public void onSensorClick(ClickSensor caller);
 	}
 	
+	/**
+	 * The thread listeners are called on.
+	 */
+	public enum DispatchMode {
+		/** The sensor's own thread, before it goes on sensing. */
+		Inline,
+		/** A background thread, one at a time in order, see {@link ClickSensor#setDispatchExecutor(Executor)}. */
+		Background,
+		/** The application's main thread. */
+		MainThread
+	}
+	
+	/**
+	 * The number of events that may wait to be delivered on another thread before new ones are dropped.
+	 */
+	public static final int DEFAULT_DISPATCH_QUEUE_CAPACITY = 16;
+	
 	private List<Listener> mListeners;
+	private final EventDispatcher mDispatcher = new EventDispatcher();
 	
 	/**
 	 * <code>ClickSensor</code>'s constructor. All derived classes are required to
 	 * call this.
 	 */
 	protected ClickSensor() {
-		mListeners = new LinkedList<Listener>();
+		mListeners = new CopyOnWriteArrayList<Listener>();
 	}
 	
 	/**
@@ -70,6 +94,69 @@ public abstract class ClickSensor {
 		mListeners.clear();
 	}
 	
+	/**
+	 * Sets the thread listeners are called on. In any mode other than {@link DispatchMode#Inline}
+	 * events wait in a queue that holds {@link #getDispatchQueueCapacity()} of them, and
+	 * events that do not fit are dropped and counted by {@link #getDroppedEventCount()}.
+	 * Events already queued are still delivered after the mode changes.
+	 * @param mode the thread to call listeners on, {@link DispatchMode#Inline} by default
+	 */
+	public void setDispatchMode(DispatchMode mode) {
+		mDispatcher.setMode(mode);
+	}
+	
+	/**
+	 * @return the thread listeners are called on
+	 */
+	public DispatchMode getDispatchMode() {
+		return mDispatcher.getMode();
+	}
+	
+	/**
+	 * Sets the executor that calls listeners in {@link DispatchMode#Background}. Listeners
+	 * are called in order only if the executor runs one task at a time.
+	 * @param executor the executor to use, or null for a thread owned by this sensor
+	 */
+	public void setDispatchExecutor(Executor executor) {
+		mDispatcher.setExecutor(executor);
+	}
+	
+	/**
+	 * @return the executor that calls listeners in {@link DispatchMode#Background}, or null if this sensor uses its own thread
+	 */
+	public Executor getDispatchExecutor() {
+		return mDispatcher.getExecutor();
+	}
+	
+	/**
+	 * Sets the number of events that may wait to be delivered on another thread.
+	 * @param capacity the number of events, at least 1
+	 */
+	public void setDispatchQueueCapacity(int capacity) {
+		mDispatcher.setCapacity(capacity);
+	}
+	
+	/**
+	 * @return the number of events that may wait to be delivered on another thread
+	 */
+	public int getDispatchQueueCapacity() {
+		return mDispatcher.getCapacity();
+	}
+	
+	/**
+	 * @return the number of events waiting to be delivered on another thread
+	 */
+	public int getPendingEventCount() {
+		return mDispatcher.getPendingCount();
+	}
+	
+	/**
+	 * @return the number of events dropped because the queue was full, since this sensor was created
+	 */
+	public long getDroppedEventCount() {
+		return mDispatcher.getDroppedCount();
+	}
+	
 	/**
 	 * Causes this <code>ClickSensor</code> to start listening for clicks.
 	 */
@@ -85,8 +172,26 @@ public abstract class ClickSensor {
 	 * methods called.
 	 */
 	protected void onSensorClick() {
-		for(Listener listener : mListeners) {
-			listener.onSensorClick(this);
-		}
+		if(mListeners.isEmpty())
+			return;
+		
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for(Listener listener : mListeners) {
+					listener.onSensorClick(ClickSensor.this);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Calls listeners on the thread set by {@link #setDispatchMode(DispatchMode)}. Derived classes
+	 * with listeners of their own should call them through this.
+	 * @param event calls the listeners
+	 * @return true if the event was delivered or queued, false if it was dropped because the queue was full
+	 */
+	protected boolean dispatch(Runnable event) {
+		return mDispatcher.dispatch(event);
 	}
 }
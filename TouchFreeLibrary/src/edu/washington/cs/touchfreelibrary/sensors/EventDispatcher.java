@@ -0,0 +1,149 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * <p><code>EventDispatcher</code> calls listeners the way a {@link ClickSensor} was told to: right away on the
+ * sensor's thread, on a background thread, or on the main thread. Events that are handed to another thread
+ * wait in a bounded queue; when it is full the event is dropped and counted, so the sensor's thread never
+ * waits for a listener.</p>
+ *
+ * <p>Events are always delivered in the order they were dispatched, unless the mode is changed in between.</p>
+ */
+final class EventDispatcher {
+	private volatile ClickSensor.DispatchMode mMode = ClickSensor.DispatchMode.Inline;
+	private volatile int mCapacity = ClickSensor.DEFAULT_DISPATCH_QUEUE_CAPACITY;
+
+	// the executor given by the user, or else a thread of our own, created when first needed
+	private volatile Executor mExecutor;
+	private ExecutorService mOwnExecutor;
+	private Handler mMainHandler;
+
+	private final AtomicInteger mPendingCount = new AtomicInteger();
+	private final AtomicLong mDroppedCount = new AtomicLong();
+
+	synchronized void setMode(ClickSensor.DispatchMode mode) {
+		mMode = mode;
+		if(mode != ClickSensor.DispatchMode.Background)
+			shutdownOwnExecutor();
+	}
+
+	ClickSensor.DispatchMode getMode() {
+		return mMode;
+	}
+
+	synchronized void setExecutor(Executor executor) {
+		mExecutor = executor;
+		if(executor != null)
+			shutdownOwnExecutor();
+	}
+
+	Executor getExecutor() {
+		return mExecutor;
+	}
+
+	void setCapacity(int capacity) {
+		mCapacity = Math.max(1, capacity);
+	}
+
+	int getCapacity() {
+		return mCapacity;
+	}
+
+	int getPendingCount() {
+		return mPendingCount.get();
+	}
+
+	long getDroppedCount() {
+		return mDroppedCount.get();
+	}
+
+	/**
+	 * Calls the event now, or queues it for the thread the mode says.
+	 * @param event calls the listeners
+	 * @return true if the event was run or queued, false if the queue was full
+	 */
+	boolean dispatch(final Runnable event) {
+		ClickSensor.DispatchMode mode = mMode;
+		if(mode == ClickSensor.DispatchMode.Inline) {
+			event.run();
+			return true;
+		}
+
+		if(mPendingCount.incrementAndGet() > mCapacity) {
+			mPendingCount.decrementAndGet();
+			mDroppedCount.incrementAndGet();
+			return false;
+		}
+
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					event.run();
+				} finally {
+					mPendingCount.decrementAndGet();
+				}
+			}
+		};
+
+		boolean queued;
+		try {
+			if(mode == ClickSensor.DispatchMode.MainThread)
+				queued = getMainHandler().post(task);
+			else {
+				getBackgroundExecutor().execute(task);
+				queued = true;
+			}
+		} catch (RejectedExecutionException e) {
+			queued = false;
+		}
+
+		if(!queued) {
+			mPendingCount.decrementAndGet();
+			mDroppedCount.incrementAndGet();
+		}
+		return queued;
+	}
+
+	private synchronized Handler getMainHandler() {
+		if(mMainHandler == null)
+			mMainHandler = new Handler(Looper.getMainLooper());
+		return mMainHandler;
+	}
+
+	private synchronized Executor getBackgroundExecutor() {
+		if(mExecutor != null)
+			return mExecutor;
+
+		if(mOwnExecutor == null)
+			mOwnExecutor = Executors.newSingleThreadExecutor(sThreadFactory);
+		return mOwnExecutor;
+	}
+
+	// events already queued on the thread are still delivered
+	private void shutdownOwnExecutor() {
+		if(mOwnExecutor != null) {
+			mOwnExecutor.shutdown();
+			mOwnExecutor = null;
+		}
+	}
+
+	private static final ThreadFactory sThreadFactory = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "ClickSensor listeners");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+}
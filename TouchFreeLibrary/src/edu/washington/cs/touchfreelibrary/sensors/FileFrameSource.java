@@ -0,0 +1,142 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+/**
+ * <p>A {@link FrameSource} that plays back raw greyscale frames from a file, for running the gesture
+ * pipeline without a camera. The file holds nothing but frames of <code>width * height</code> bytes,
+ * one byte per pixel, row after row.</p>
+ *
+ * <p>Besides the {@link Mat} based {@link #retrieve(Mat)}, {@link #retrieve(byte[])} hands frames over as
+ * plain arrays, which together with {@link MotionDetector#detect(byte[], byte[], int, int, MotionDetectionReturnValue)}
+ * runs on a plain JVM without the native libraries or Android.</p>
+ */
+public class FileFrameSource implements FrameSource {
+	private final File mFile;
+	private final int mWidth;
+	private final int mHeight;
+	private final boolean mIsLooping;
+
+	private RandomAccessFile mInput;
+	private final byte [] mFrame;
+	private boolean mIsGrabbed;
+	private long mFrameTime;
+
+	/**
+	 * Creates a source for a file of raw frames.
+	 * @param file the file to read
+	 * @param width the width of every frame
+	 * @param height the height of every frame
+	 * @param loop true to start again at the first frame after the last, false to stop
+	 */
+	public FileFrameSource(File file, int width, int height, boolean loop) {
+		mFile = file;
+		mWidth = width;
+		mHeight = height;
+		mIsLooping = loop;
+		mFrame = new byte [width * height];
+	}
+
+	@Override
+	public boolean open(int heldFrames) {
+		release();
+		try {
+			mInput = new RandomAccessFile(mFile, "r");
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public List<Size> getSupportedFrameSizes() {
+		List<Size> sizes = new ArrayList<Size>();
+		sizes.add(new Size(mWidth, mHeight));
+		return sizes;
+	}
+
+	@Override
+	public boolean setFrameRateRange(int minFramesPerSecond, int maxFramesPerSecond) {
+		return false;
+	}
+
+	@Override
+	public boolean setFrameSize(Size size) {
+		return (int)size.width == mWidth && (int)size.height == mHeight;
+	}
+
+	@Override
+	public boolean grab() {
+		mIsGrabbed = false;
+		if(mInput == null)
+			return false;
+
+		try {
+			if(mInput.length() - mInput.getFilePointer() < mFrame.length) {
+				if(!mIsLooping || mInput.length() < mFrame.length)
+					return false;
+				mInput.seek(0);
+			}
+			mInput.readFully(mFrame);
+			mFrameTime = System.nanoTime();
+			mIsGrabbed = true;
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean retrieve(Mat frame) {
+		if(!mIsGrabbed)
+			return false;
+
+		frame.create(mHeight, mWidth, CvType.CV_8U);
+		frame.put(0, 0, mFrame);
+		return true;
+	}
+
+	/**
+	 * Copies the last grabbed frame into an array.
+	 * @param frame an array of at least <code>width * height</code> bytes, overwritten with the frame
+	 * @return true if the frame was retrieved, false otherwise
+	 */
+	public boolean retrieve(byte [] frame) {
+		if(!mIsGrabbed)
+			return false;
+
+		System.arraycopy(mFrame, 0, frame, 0, mFrame.length);
+		return true;
+	}
+
+	@Override
+	public long getFrameTime() {
+		return mFrameTime;
+	}
+
+	@Override
+	public boolean isZeroCopy() {
+		return false;
+	}
+
+	@Override
+	public void release() {
+		mIsGrabbed = false;
+		if(mInput != null) {
+			try {
+				mInput.close();
+			} catch (IOException e) {
+				// nothing left to do with the file
+			}
+			mInput = null;
+		}
+	}
+}
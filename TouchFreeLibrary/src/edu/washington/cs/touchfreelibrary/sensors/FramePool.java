@@ -0,0 +1,106 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.LinkedList;
+
+import org.opencv.core.Mat;
+
+/**
+ * <p><code>FramePool</code> keeps the native memory of frame buffers alive between the time a sensor stops and
+ * the time it, or another sensor, starts again. Activities start and stop their sensors every time they gain or
+ * lose focus, and without the pool each start allocates new frames at the full preview size.</p>
+ *
+ * <p>Only buffers of the requested size and type are handed out. When the pool is full the buffer that was
+ * returned longest ago is released. A {@link FrameRing} raises the capacity to its slot count, so every frame
+ * of a stopped ring survives until the next start. The pool is shared by every sensor in the process and is
+ * thread safe.</p>
+ */
+final class FramePool {
+	/** the most buffers kept alive while nobody uses them, until a ring asks for more */
+	static final int MAX_POOLED_FRAMES = 4;
+
+	private static final FramePool sDefault = new FramePool(MAX_POOLED_FRAMES);
+
+	private int mCapacity;
+	private final LinkedList<Mat> mFrames = new LinkedList<Mat>();
+	private long mHitCount;
+	private long mMissCount;
+
+	FramePool(int capacity) {
+		mCapacity = capacity;
+	}
+
+	/**
+	 * Gets the pool shared by every sensor in the process.
+	 * @return the shared pool
+	 */
+	static FramePool getDefault() {
+		return sDefault;
+	}
+
+	/**
+	 * Makes the pool keep at least the given number of buffers. The capacity never shrinks.
+	 * @param capacity the number of buffers a ring needs back when it starts again
+	 */
+	synchronized void ensureCapacity(int capacity) {
+		if(capacity > mCapacity)
+			mCapacity = capacity;
+	}
+
+	/**
+	 * Takes a buffer of the given size out of the pool, or allocates one if there is none.
+	 * @param rows the height of the frame
+	 * @param cols the width of the frame
+	 * @param type the OpenCV type of the frame, such as <code>CvType.CV_8U</code>
+	 * @return a buffer the caller owns until it hands it back with {@link #release(Mat)}
+	 */
+	synchronized Mat acquire(int rows, int cols, int type) {
+		for(int i = mFrames.size() - 1; i >= 0; i--) {
+			Mat frame = mFrames.get(i);
+			if(frame.rows() == rows && frame.cols() == cols && frame.type() == type) {
+				mFrames.remove(i);
+				mHitCount++;
+				return frame;
+			}
+		}
+
+		mMissCount++;
+		return new Mat(rows, cols, type);
+	}
+
+	/**
+	 * Hands a buffer back to the pool. The caller must not use it afterwards.
+	 * @param frame the buffer to return, may be null
+	 */
+	synchronized void release(Mat frame) {
+		if(frame == null)
+			return;
+
+		mFrames.addLast(frame);
+		if(mFrames.size() > mCapacity)
+			mFrames.removeFirst().release();
+	}
+
+	/**
+	 * Releases the native memory of every buffer in the pool.
+	 */
+	synchronized void clear() {
+		while(!mFrames.isEmpty())
+			mFrames.removeFirst().release();
+	}
+
+	/**
+	 * Gets how many buffers were handed out of the pool instead of being allocated.
+	 * @return the number of requests the pool could serve
+	 */
+	synchronized long getHitCount() {
+		return mHitCount;
+	}
+
+	/**
+	 * Gets how many buffers had to be allocated because the pool had none of the right size.
+	 * @return the number of requests the pool could not serve
+	 */
+	synchronized long getMissCount() {
+		return mMissCount;
+	}
+}
@@ -0,0 +1,264 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.opencv.core.Mat;
+
+/**
+ * <p><code>FrameRecorder</code> writes greyscale frames and their capture times to a session file that
+ * {@link SessionFrameSource} plays back. Frames are copied into one of a few preallocated buffers by the
+ * caller and written to the file by a background thread, through a memory mapping that grows as the
+ * session does. If every buffer is still waiting to be written, the frame is dropped and counted.</p>
+ *
+ * <p>A session file starts with a header of {@link #HEADER_SIZE} bytes: the magic number {@link #MAGIC},
+ * the format {@link #VERSION}, the frame width and height as 32 bit integers, and the number of frames as a
+ * 64 bit integer. Each frame follows as a 64 bit capture time in nanoseconds and <code>width * height</code>
+ * bytes, one per pixel, row after row. All numbers are little endian. The frame count is updated after every
+ * frame, so a session cut short by a crash can still be played back. Files of version
+ * {@link #MILLIS_VERSION} are the same, but with capture times in milliseconds.</p>
+ */
+public final class FrameRecorder {
+	/** "TFRS" in ASCII */
+	public static final int MAGIC = 0x53524654;
+	public static final int VERSION = 2;
+	/** the first format, which recorded capture times in milliseconds */
+	public static final int MILLIS_VERSION = 1;
+	public static final int HEADER_SIZE = 24;
+	static final int FRAME_COUNT_OFFSET = 16;
+
+	/** the default number of frames that may wait for the background thread */
+	public static final int DEFAULT_BUFFER_COUNT = 4;
+
+	// how many frames the file grows by at a time
+	static final int FRAMES_PER_MAPPING = 32;
+
+	// a frame waiting to be written, and the one that tells the background thread to finish
+	private static final class Buffer {
+		final byte [] data;
+		long time;
+
+		Buffer(int size) {
+			data = new byte [size];
+		}
+	}
+	private final Buffer mEnd = new Buffer(0);
+
+	private final int mWidth;
+	private final int mHeight;
+	private final int mRecordSize;
+	private final ArrayBlockingQueue<Buffer> mFreeBuffers;
+	private final ArrayBlockingQueue<Buffer> mFilledBuffers;
+
+	private final RandomAccessFile mFile;
+	private final FileChannel mChannel;
+	private final MappedByteBuffer mHeader;
+	private final Thread mWriter;
+	private IOException mWriteError;
+	private boolean mIsClosed;
+
+	// only touched by the background thread until it has finished
+	private MappedByteBuffer mMapping;
+	private long mMappingOffset;
+	private volatile long mFrameCount;
+	private volatile long mDroppedFrameCount;
+
+	/**
+	 * Creates a session file, replacing any file of the same name, and starts the background thread.
+	 * @param file the session file
+	 * @param width the width of every frame
+	 * @param height the height of every frame
+	 * @param bufferCount how many frames may wait to be written before frames are dropped, at least 1
+	 * @throws IOException if the file could not be created
+	 */
+	public FrameRecorder(File file, int width, int height, int bufferCount) throws IOException {
+		mWidth = width;
+		mHeight = height;
+		mRecordSize = 8 + width * height;
+
+		bufferCount = Math.max(1, bufferCount);
+		mFreeBuffers = new ArrayBlockingQueue<Buffer>(bufferCount);
+		mFilledBuffers = new ArrayBlockingQueue<Buffer>(bufferCount + 1);
+		for(int i = 0; i < bufferCount; i++)
+			mFreeBuffers.add(new Buffer(width * height));
+
+		mFile = new RandomAccessFile(file, "rw");
+		try {
+			mFile.setLength(0);
+			mChannel = mFile.getChannel();
+			mHeader = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			mHeader.order(ByteOrder.LITTLE_ENDIAN);
+			mHeader.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putLong(0);
+			mMappingOffset = HEADER_SIZE;
+		} catch (IOException e) {
+			mFile.close();
+			throw e;
+		}
+
+		mWriter = new Thread(mWriteFramesRunnable, "FrameRecorder");
+		mWriter.start();
+	}
+
+	/**
+	 * Queues a frame to be written.
+	 * @param timeNanos the time the frame was captured, in nanoseconds
+	 * @param frame a single channel 8 bit frame of the size given to the constructor
+	 * @return true if the frame was queued, false if it was dropped
+	 */
+	public boolean record(long timeNanos, Mat frame) {
+		Buffer buffer = beginRecord();
+		if(buffer == null)
+			return false;
+		frame.get(0, 0, buffer.data);
+		return endRecord(buffer, timeNanos);
+	}
+
+	/**
+	 * Queues a frame to be written.
+	 * @param timeNanos the time the frame was captured, in nanoseconds
+	 * @param frame <code>width * height</code> bytes, one per pixel
+	 * @return true if the frame was queued, false if it was dropped
+	 */
+	public boolean record(long timeNanos, byte [] frame) {
+		Buffer buffer = beginRecord();
+		if(buffer == null)
+			return false;
+		System.arraycopy(frame, 0, buffer.data, 0, buffer.data.length);
+		return endRecord(buffer, timeNanos);
+	}
+
+	/**
+	 * @return the width of the frames
+	 */
+	public int getWidth() {
+		return mWidth;
+	}
+
+	/**
+	 * @return the height of the frames
+	 */
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * Gets how many frames have been written to the file.
+	 * @return the number of frames written
+	 */
+	public long getFrameCount() {
+		return mFrameCount;
+	}
+
+	/**
+	 * Gets how many frames were dropped because the background thread fell behind.
+	 * @return the number of frames dropped
+	 */
+	public long getDroppedFrameCount() {
+		return mDroppedFrameCount;
+	}
+
+	/**
+	 * Writes the queued frames, trims the file to its contents and closes it. Frames recorded afterwards
+	 * are dropped.
+	 * @throws IOException if writing the file failed at any point
+	 */
+	public void close() throws IOException {
+		synchronized(this) {
+			if(mIsClosed)
+				return;
+			mIsClosed = true;
+		}
+
+		mFilledBuffers.add(mEnd);
+		boolean interrupted = false;
+		while(mWriter.isAlive()) {
+			try {
+				mWriter.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+
+		try {
+			mHeader.force();
+			mMapping = null;
+			mChannel.truncate(HEADER_SIZE + mFrameCount * mRecordSize);
+		} finally {
+			mFile.close();
+		}
+		if(mWriteError != null)
+			throw mWriteError;
+	}
+
+	private Buffer beginRecord() {
+		Buffer buffer = null;
+		synchronized(this) {
+			if(!mIsClosed)
+				buffer = mFreeBuffers.poll();
+		}
+		if(buffer == null)
+			mDroppedFrameCount++;
+		return buffer;
+	}
+
+	private boolean endRecord(Buffer buffer, long timeNanos) {
+		buffer.time = timeNanos;
+		synchronized(this) {
+			if(!mIsClosed) {
+				mFilledBuffers.add(buffer);
+				return true;
+			}
+		}
+		mFreeBuffers.add(buffer);
+		mDroppedFrameCount++;
+		return false;
+	}
+
+	// appends a frame to the file, mapping more of it when the current mapping is full
+	private void write(Buffer buffer) throws IOException {
+		if(mMapping == null || mMapping.remaining() < mRecordSize) {
+			if(mMapping != null)
+				mMappingOffset += mMapping.capacity();
+			mMapping = mChannel.map(FileChannel.MapMode.READ_WRITE, mMappingOffset, (long)FRAMES_PER_MAPPING * mRecordSize);
+			mMapping.order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		mMapping.putLong(buffer.time);
+		mMapping.put(buffer.data);
+		mFrameCount++;
+		mHeader.putLong(FRAME_COUNT_OFFSET, mFrameCount);
+	}
+
+	private final Runnable mWriteFramesRunnable = new Runnable() {
+		@Override
+		public void run() {
+			while(true) {
+				Buffer buffer;
+				try {
+					buffer = mFilledBuffers.take();
+				} catch (InterruptedException e) {
+					continue;
+				}
+				if(buffer == mEnd)
+					break;
+
+				// after an error the frames are only handed back, close() reports it
+				if(mWriteError == null) {
+					try {
+						write(buffer);
+					} catch (IOException e) {
+						mWriteError = e;
+					}
+				}
+				mFreeBuffers.add(buffer);
+			}
+		}
+	};
+}
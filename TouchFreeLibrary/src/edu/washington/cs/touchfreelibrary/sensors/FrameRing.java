@@ -0,0 +1,332 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.opencv.core.Mat;
+
+/**
+ * <p><code>FrameRing</code> hands preallocated frames from one capture thread to one analysis thread
+ * without locks. Every slot holds a frame and moves through the states free, writing (owned by the capture
+ * thread), ready (queued) and reading (owned by the analysis thread). The analysis thread may hold two slots
+ * at once, the current and the previous frame, and the ring has room for {@link #getCapacity()} queued
+ * frames on top of those.</p>
+ *
+ * <p>When the queue is full the capture thread either waits for the analysis thread, or, with
+ * <code>dropOldest</code>, takes back the oldest queued frame and counts it as dropped. Queued frames are
+ * always read in the order they were captured.</p>
+ */
+final class FrameRing {
+	// slots the analysis thread can hold, and the one the capture thread writes into. A pooled ring asks the
+	// pool to keep all of its slots, see FramePool.ensureCapacity
+	private static final int HELD_SLOTS = 3;
+
+	// the low two bits of a slot word are its state, the rest is the low bits of its frame's sequence
+	// number, so a compare-and-set fails if the slot was refilled in the meantime
+	private static final int FREE = 0;
+	private static final int WRITING = 1;
+	private static final int READY = 2;
+	private static final int READING = 3;
+	private static final int STATE_MASK = 3;
+	private static final long NONE = -1;
+
+	// how long a waiting thread sleeps before it looks again, in case it missed being woken
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final Mat [] mFrames;
+	private final long [] mTimes;
+	private final long [] mCaptureNanos;
+	private final long [] mCaptureCpuNanos;
+	private final long [] mSequences;
+	private final AtomicIntegerArray mSlots;
+	private final boolean mDropOldest;
+	private final int mCapacity;
+	private final boolean mIsPooled;
+
+	// only written by the capture thread
+	private long mNextSequence;
+	private volatile long mDroppedFrameCount;
+	private volatile int mMaxQueueDepth;
+
+	private final AtomicInteger mQueueDepth = new AtomicInteger();
+	private volatile boolean mIsClosed;
+	private volatile Thread mProducer;
+	private volatile Thread mConsumer;
+
+	/**
+	 * Creates a ring and takes its frames from the pool.
+	 * @param capacity how many captured frames may wait for the analysis thread, at least 1
+	 * @param dropOldest true to drop the oldest waiting frame when the ring is full, false to make the capture thread wait
+	 * @param pool where the frames come from, or null for empty frames that a zero-copy source points at its own memory
+	 * @param rows the height of a frame
+	 * @param cols the width of a frame
+	 * @param type the OpenCV type of a frame
+	 */
+	FrameRing(int capacity, boolean dropOldest, FramePool pool, int rows, int cols, int type) {
+		mCapacity = Math.max(1, capacity);
+		int slots = getSlotCount(mCapacity);
+		mFrames = new Mat [slots];
+		mTimes = new long [slots];
+		mCaptureNanos = new long [slots];
+		mCaptureCpuNanos = new long [slots];
+		mSequences = new long [slots];
+		mSlots = new AtomicIntegerArray(slots);
+		mDropOldest = dropOldest;
+		mIsPooled = pool != null;
+		if(pool != null)
+			pool.ensureCapacity(slots);
+		for(int i = 0; i < slots; i++)
+			mFrames[i] = pool != null ? pool.acquire(rows, cols, type) : new Mat();
+	}
+	
+	/**
+	 * Gets how many frames a ring holds, counting those held by the capture and analysis threads.
+	 * @param capacity how many captured frames may wait for the analysis thread
+	 * @return the number of frames in the ring
+	 */
+	static int getSlotCount(int capacity) {
+		return Math.max(1, capacity) + HELD_SLOTS;
+	}
+
+	/**
+	 * Gets how many captured frames may wait for the analysis thread.
+	 * @return the number of frames that can be queued
+	 */
+	int getCapacity() {
+		return mCapacity;
+	}
+
+	/**
+	 * Gets the frame of a slot.
+	 * @param slot a slot returned by {@link #beginWrite()} or {@link #take()}
+	 * @return the frame, only to be used while the slot is owned
+	 */
+	Mat getFrame(int slot) {
+		return mFrames[slot];
+	}
+
+	/**
+	 * Sets the capture time of the frame in a slot the capture thread is writing.
+	 * @param slot a slot returned by {@link #beginWrite()}
+	 * @param timeNanos the time the frame was captured, as {@link FrameSource#getFrameTime()} reports it
+	 */
+	void setTime(int slot, long timeNanos) {
+		mTimes[slot] = timeNanos;
+	}
+
+	/**
+	 * Gets the capture time of the frame in a slot.
+	 * @param slot a slot returned by {@link #take()}
+	 * @return the time set with {@link #setTime(int, long)}
+	 */
+	long getTime(int slot) {
+		return mTimes[slot];
+	}
+
+	/**
+	 * Sets when the frame in a slot the capture thread is writing arrived, as a <code>System.nanoTime()</code> value.
+	 * @param slot a slot returned by {@link #beginWrite()}
+	 * @param nanos the arrival time, or 0 if not measured
+	 */
+	void setCaptureNanos(int slot, long nanos) {
+		mCaptureNanos[slot] = nanos;
+	}
+
+	/**
+	 * Gets when the frame in a slot arrived.
+	 * @param slot a slot returned by {@link #take()}
+	 * @return the time set with {@link #setCaptureNanos(int, long)}
+	 */
+	long getCaptureNanos(int slot) {
+		return mCaptureNanos[slot];
+	}
+
+	/**
+	 * Sets how much processor time the capture thread spent on the frame in a slot it is writing.
+	 * @param slot a slot returned by {@link #beginWrite()}
+	 * @param nanos the processor time, or -1 if not measured
+	 */
+	void setCaptureCpuNanos(int slot, long nanos) {
+		mCaptureCpuNanos[slot] = nanos;
+	}
+
+	/**
+	 * Gets how much processor time the capture thread spent on the frame in a slot.
+	 * @param slot a slot returned by {@link #take()}
+	 * @return the time set with {@link #setCaptureCpuNanos(int, long)}
+	 */
+	long getCaptureCpuNanos(int slot) {
+		return mCaptureCpuNanos[slot];
+	}
+
+	/**
+	 * Called by the capture thread to get a slot to write the next frame into. Waits if the ring is full
+	 * and frames are not dropped.
+	 * @return the slot, or -1 if the ring was closed
+	 */
+	int beginWrite() {
+		mProducer = Thread.currentThread();
+		while(!mIsClosed) {
+			// with fewer than getCapacity() frames queued there is always a free slot
+			if(mQueueDepth.get() < mCapacity) {
+				for(int i = 0; i < mFrames.length; i++) {
+					int word = mSlots.get(i);
+					if((word & STATE_MASK) == FREE && mSlots.compareAndSet(i, word, (word & ~STATE_MASK) | WRITING))
+						return i;
+				}
+			}
+
+			if(mDropOldest) {
+				long oldest = findOldestReady();
+				if(oldest != NONE) {
+					int slot = (int)oldest;
+					int word = (int)(oldest >>> 32);
+					if(mSlots.compareAndSet(slot, word, (word & ~STATE_MASK) | WRITING)) {
+						mQueueDepth.decrementAndGet();
+						mDroppedFrameCount++;
+						return slot;
+					}
+					continue;
+				}
+			}
+
+			LockSupport.parkNanos(this, PARK_NANOS);
+		}
+		return -1;
+	}
+
+	/**
+	 * Called by the capture thread to queue the frame it wrote into a slot.
+	 * @param slot the slot returned by {@link #beginWrite()}
+	 */
+	void publish(int slot) {
+		long sequence = mNextSequence++;
+		mSequences[slot] = sequence;
+		mSlots.set(slot, ((int)sequence << 2) | READY);
+
+		int depth = mQueueDepth.incrementAndGet();
+		if(depth > mMaxQueueDepth)
+			mMaxQueueDepth = depth;
+
+		Thread consumer = mConsumer;
+		if(consumer != null)
+			LockSupport.unpark(consumer);
+	}
+
+	/**
+	 * Called by the capture thread to give back a slot it could not fill.
+	 * @param slot the slot returned by {@link #beginWrite()}
+	 */
+	void cancelWrite(int slot) {
+		mSlots.set(slot, FREE);
+	}
+
+	/**
+	 * Called by the analysis thread to get the oldest queued frame. Waits until there is one.
+	 * @return the slot, to be given back with {@link #release(int)}, or -1 if the ring was closed
+	 */
+	int take() {
+		mConsumer = Thread.currentThread();
+		while(!mIsClosed) {
+			long oldest = findOldestReady();
+			if(oldest != NONE) {
+				int slot = (int)oldest;
+				int word = (int)(oldest >>> 32);
+				if(mSlots.compareAndSet(slot, word, (word & ~STATE_MASK) | READING)) {
+					mQueueDepth.decrementAndGet();
+					return slot;
+				}
+				continue;
+			}
+
+			LockSupport.parkNanos(this, PARK_NANOS);
+		}
+		return -1;
+	}
+
+	/**
+	 * Called by the analysis thread when it is done with a frame.
+	 * @param slot the slot returned by {@link #take()}
+	 */
+	void release(int slot) {
+		mSlots.set(slot, FREE);
+
+		Thread producer = mProducer;
+		if(producer != null && !mDropOldest)
+			LockSupport.unpark(producer);
+	}
+
+	/**
+	 * Wakes up both threads and makes {@link #beginWrite()} and {@link #take()} return -1 from now on.
+	 */
+	void close() {
+		mIsClosed = true;
+
+		Thread producer = mProducer;
+		if(producer != null)
+			LockSupport.unpark(producer);
+		Thread consumer = mConsumer;
+		if(consumer != null)
+			LockSupport.unpark(consumer);
+	}
+
+	boolean isClosed() {
+		return mIsClosed;
+	}
+
+	/**
+	 * Hands the frames back to the pool. Neither thread may use the ring afterwards.
+	 * @param pool the pool the frames came from, not used if the ring was created without one
+	 */
+	void releaseFrames(FramePool pool) {
+		for(int i = 0; i < mFrames.length; i++) {
+			if(mIsPooled)
+				pool.release(mFrames[i]);
+			else
+				mFrames[i].release();
+			mFrames[i] = null;
+		}
+	}
+
+	/**
+	 * Gets how many captured frames were dropped because the analysis thread fell behind.
+	 * @return the number of dropped frames
+	 */
+	long getDroppedFrameCount() {
+		return mDroppedFrameCount;
+	}
+
+	/**
+	 * Gets how many captured frames are waiting for the analysis thread.
+	 * @return the number of queued frames
+	 */
+	int getQueueDepth() {
+		return mQueueDepth.get();
+	}
+
+	/**
+	 * Gets the most frames that were ever waiting for the analysis thread at once.
+	 * @return the largest number of queued frames
+	 */
+	int getMaxQueueDepth() {
+		return mMaxQueueDepth;
+	}
+
+	// The ready slot with the lowest sequence number in the low 32 bits, and the slot word it was seen
+	// with in the high 32 bits, or NONE. Taking the slot with a compare-and-set against that word fails if
+	// the slot was dropped and refilled since.
+	private long findOldestReady() {
+		long oldest = NONE;
+		long oldestSequence = Long.MAX_VALUE;
+		for(int i = 0; i < mFrames.length; i++) {
+			int word = mSlots.get(i);
+			if((word & STATE_MASK) == READY && mSequences[i] < oldestSequence) {
+				oldest = ((long)word << 32) | i;
+				oldestSequence = mSequences[i];
+			}
+		}
+		return oldest;
+	}
+}
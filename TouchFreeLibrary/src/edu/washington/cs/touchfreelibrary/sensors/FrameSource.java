@@ -0,0 +1,80 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+/**
+ * <p>A <code>FrameSource</code> delivers the greyscale frames a {@link CameraGestureSensor} looks for
+ * gestures in. Frames are read the same way as from OpenCV's <code>VideoCapture</code>: {@link #grab()}
+ * waits for the next frame and {@link #retrieve(Mat)} hands it over.</p>
+ *
+ * <p>The sensor calls the methods in this order: {@link #open(int)}, {@link #getSupportedFrameSizes()},
+ * {@link #setFrameRateRange(int, int)} if a frame rate was asked for, {@link #setFrameSize(Size)}, then {@link #grab()} and {@link #retrieve(Mat)} for every frame, and finally
+ * {@link #release()}. All calls but {@link #release()} come from one thread at a time.</p>
+ */
+public interface FrameSource {
+	/**
+	 * Opens the source.
+	 * @param heldFrames the most frames that will have been retrieved and still be in use at the same time
+	 * @return true if the source is available, false otherwise
+	 */
+	public boolean open(int heldFrames);
+
+	/**
+	 * Gets the frame sizes the source can deliver.
+	 * @return the supported sizes, in no particular order
+	 */
+	public List<Size> getSupportedFrameSizes();
+
+	/**
+	 * Asks for frames at a rate within a range, from when {@link #setFrameSize(Size)} starts delivering them.
+	 * @param minFramesPerSecond the lowest acceptable rate
+	 * @param maxFramesPerSecond the highest acceptable rate
+	 * @return true if the source will deliver frames at a rate within the range, false if it cannot set its rate
+	 */
+	public boolean setFrameRateRange(int minFramesPerSecond, int maxFramesPerSecond);
+
+	/**
+	 * Sets the size of the frames and starts delivering them.
+	 * @param size one of {@link #getSupportedFrameSizes()}
+	 * @return true if the source delivers frames of this size from now on, false otherwise
+	 */
+	public boolean setFrameSize(Size size);
+
+	/**
+	 * Waits for the next frame.
+	 * @return true if a frame was grabbed, false if there was none
+	 */
+	public boolean grab();
+
+	/**
+	 * Hands over the last grabbed frame as a single channel 8 bit image. A zero-copy source points
+	 * <code>frame</code> at memory it owns, which stays valid until the same <code>frame</code> is
+	 * passed to <code>retrieve</code> again or the source is released.
+	 * @param frame overwritten with the frame
+	 * @return true if the frame was retrieved, false otherwise
+	 */
+	public boolean retrieve(Mat frame);
+
+	/**
+	 * Gets when the last grabbed frame was captured. Sources that play frames back report the time they were
+	 * originally captured, so gestures are timed the same way on every run.
+	 * @return the capture time in nanoseconds, on a monotonic clock that only has to be consistent within the source
+	 */
+	public long getFrameTime();
+
+	/**
+	 * Test if {@link #retrieve(Mat)} points frames at memory owned by the source instead of copying into them.
+	 * Frames passed to a zero-copy source need no memory of their own.
+	 * @return true if frames are not copied, false otherwise
+	 */
+	public boolean isZeroCopy();
+
+	/**
+	 * Stops delivering frames and frees the device. Frames retrieved from a zero-copy source must not be
+	 * used afterwards.
+	 */
+	public void release();
+}
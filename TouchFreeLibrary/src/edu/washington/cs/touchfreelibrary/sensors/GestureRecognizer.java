@@ -0,0 +1,427 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p><code>GestureRecognizer</code> turns the motion and intensity measured on successive frames into clicks
+ * and directional gestures. It is fed one sample per frame through {@link #update(long, double, double, double, double)}
+ * and calls its {@link Listener} from inside that call when it recognizes something. Frames are timed in
+ * nanoseconds on a monotonic clock, such as <code>System.nanoTime()</code> or a camera's sensor timestamps,
+ * so the wall clock being set does not stretch or cut short a gesture.</p>
+ *
+ * <p>A gesture starts when the fraction of the frame in motion rises above the minimum, and ends when it
+ * drops below it again. Gestures whose intensity dips without rising above the recent baseline are clicks;
+ * the others are swipes in the direction the centroid of the motion moved. A gesture that does not end
+ * within the gesture timeout is dropped.</p>
+ *
+ * <p>Nothing is allocated after construction, and nothing depends on Android or a camera, so it runs on a
+ * plain JVM with samples from anywhere. Timestamps come from the caller or from an injectable {@link Clock}.
+ * This class is not thread safe.</p>
+ */
+public final class GestureRecognizer {
+	/**
+	 * The direction of a swipe, in frame coordinates. The centroid of the motion moving towards larger x is
+	 * {@link #Left}, because the front facing camera sees the user mirrored.
+	 */
+	public enum Direction {
+		Left(0), Down(1), Right(2), Up(3), None(4);
+
+		private int numVal;
+
+		Direction(int numVal) {
+			this.numVal = numVal;
+		}
+
+		public int toInt() {
+			return numVal;
+		}
+	}
+
+	/**
+	 * To receive what a <code>GestureRecognizer</code> recognizes, classes must implement the
+	 * <code>GestureRecognizer.Listener</code> interface.
+	 */
+	public interface Listener {
+		/**
+		 * Called when a click is recognized
+		 * @param caller the GestureRecognizer object that made the call
+		 * @param gestureLength the amount of time the click took in milliseconds
+		 */
+		public void onClick(GestureRecognizer caller, long gestureLength);
+
+		/**
+		 * Called when a swipe is recognized
+		 * @param caller the GestureRecognizer object that made the call
+		 * @param direction the direction of the swipe, never {@link Direction#None}
+		 * @param gestureLength the amount of time the gesture took in milliseconds
+		 */
+		public void onGesture(GestureRecognizer caller, Direction direction, long gestureLength);
+	}
+
+	/**
+	 * Where a <code>GestureRecognizer</code> gets the time from when it is not passed in.
+	 */
+	public interface Clock {
+		/**
+		 * @return the current time in nanoseconds, on a clock that never goes backwards
+		 */
+		public long nanoTime();
+	}
+
+	/** A {@link Clock} that reads <code>System.nanoTime()</code>. */
+	public static final Clock SYSTEM_CLOCK = new Clock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+
+	/** the default fraction of the frame that has to be in motion during a gesture */
+	public static final double DEFAULT_MIN_FRACTION_IN_MOTION = 0.1;
+	/** the default time from the end of one gesture before the next one can start */
+	public static final long DEFAULT_MIN_MILLIS_BETWEEN_GESTURES = 500;
+	/** the default time after which a gesture that has not ended is dropped, about 20 frames at 30 frames a second */
+	public static final long DEFAULT_GESTURE_TIMEOUT_MILLIS = 700;
+	/** the default shortest swipe, in milliseconds */
+	public static final long DEFAULT_MIN_GESTURE_LENGTH_MILLIS = 100;
+	/** the default fraction of the frame's width or height a swipe has to move */
+	public static final double DEFAULT_MIN_SWIPE_FRACTION = 1 / 5.0;
+	/** the default number of frames the darkest frame of a click must come after the brightest, if the frame never brightened */
+	public static final int DEFAULT_CLICK_PEAK_DISTANCE = 1;
+	/** the default number of frames the darkest frame of a click must come after the brightest, if the frame brightened a little */
+	public static final int DEFAULT_CLICK_BRIGHTENED_PEAK_DISTANCE = 3;
+	/** the default amount a click may brighten the frame above the baseline before it counts as a swipe */
+	public static final double DEFAULT_CLICK_MAX_BRIGHTENING = 10;
+
+	// the intensity baseline covers about as long as the 100 frames it used to be measured over
+	static final long INTENSITY_BASELINE_WINDOW_MILLIS = 3000;
+	private static final int INTENSITY_BASELINE_CAPACITY = 256;
+	// the most intensities kept for one gesture, the oldest are dropped from longer gestures
+	private static final int GESTURE_SAMPLE_CAPACITY = 64;
+	private static final long NANOS_PER_MILLI = 1000000;
+
+	private final Clock mClock;
+	private Listener mListener;
+
+	private double mMinFractionInMotion = DEFAULT_MIN_FRACTION_IN_MOTION;
+	private long mMinNanosBetweenGestures = DEFAULT_MIN_MILLIS_BETWEEN_GESTURES * NANOS_PER_MILLI;
+	private long mGestureTimeoutNanos = DEFAULT_GESTURE_TIMEOUT_MILLIS * NANOS_PER_MILLI;
+	private long mMinGestureLengthNanos = DEFAULT_MIN_GESTURE_LENGTH_MILLIS * NANOS_PER_MILLI;
+	private double mMinSwipeFraction = DEFAULT_MIN_SWIPE_FRACTION;
+	private int mWidth;
+	private int mHeight;
+	private double mMinDirectionalMotionX;
+	private double mMinDirectionalMotionY;
+	private int mClickPeakDistance = DEFAULT_CLICK_PEAK_DISTANCE;
+	private int mClickBrightenedPeakDistance = DEFAULT_CLICK_BRIGHTENED_PEAK_DISTANCE;
+	private double mClickMaxBrightening = DEFAULT_CLICK_MAX_BRIGHTENING;
+
+	private final RollingStatistics mIntensityBaseline = new RollingStatistics(INTENSITY_BASELINE_WINDOW_MILLIS, INTENSITY_BASELINE_CAPACITY);
+
+	// the intensities of the gesture in progress, a ring with the oldest at mGestureHead
+	private final double [] mGestureIntensities = new double [GESTURE_SAMPLE_CAPACITY];
+	private int mGestureHead;
+	private int mGestureCount;
+
+	private boolean mIsGestureInProgress;
+	private long mGestureStartNanos;
+	private double mStartX;
+	private double mStartY;
+	private long mLastGestureEndNanos = Long.MIN_VALUE / 2;
+	private long mLastClickNanos = Long.MIN_VALUE / 2;
+	private boolean mIgnoreNext;
+
+	/**
+	 * Creates a recognizer that reads the time from <code>System.nanoTime()</code>.
+	 * @param width the width of the frames, in pixels
+	 * @param height the height of the frames, in pixels
+	 */
+	public GestureRecognizer(int width, int height) {
+		this(width, height, SYSTEM_CLOCK);
+	}
+
+	/**
+	 * Creates a recognizer.
+	 * @param width the width of the frames, in pixels
+	 * @param height the height of the frames, in pixels
+	 * @param clock where {@link #update(MotionDetectionReturnValue)} reads the time from
+	 */
+	public GestureRecognizer(int width, int height, Clock clock) {
+		mClock = clock;
+		setFrameSize(width, height);
+	}
+
+	/**
+	 * Sets the object that is told about clicks and gestures, replacing the previous one.
+	 * @param listener the listener, or null for none
+	 */
+	public void setListener(Listener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Sets the size of the frames. A swipe has to move at least {@link #getMinSwipeFraction()} of the frame.
+	 * @param width the width of the frames, in pixels
+	 * @param height the height of the frames, in pixels
+	 */
+	public void setFrameSize(int width, int height) {
+		mWidth = width;
+		mHeight = height;
+		mMinDirectionalMotionX = width * mMinSwipeFraction;
+		mMinDirectionalMotionY = height * mMinSwipeFraction;
+	}
+
+	/**
+	 * Sets how far a swipe has to move, as a fraction of the width of the frame for a horizontal swipe and of
+	 * its height for a vertical one. The default is {@link #DEFAULT_MIN_SWIPE_FRACTION}.
+	 * @param fraction the fraction of the frame, between 0 and 1
+	 */
+	public void setMinSwipeFraction(double fraction) {
+		mMinSwipeFraction = fraction;
+		setFrameSize(mWidth, mHeight);
+	}
+
+	/**
+	 * @return how far a swipe has to move, as a fraction of the frame
+	 */
+	public double getMinSwipeFraction() {
+		return mMinSwipeFraction;
+	}
+
+	/**
+	 * Sets when a gesture that darkens the frame counts as a click. A hand over the camera darkens the frame
+	 * without brightening it first, so the darkest frame of a click comes well after the brightest: more
+	 * than <code>peakDistance</code> frames after it if the frame never got brighter than the baseline,
+	 * and more than <code>brightenedPeakDistance</code> frames if it got brighter by less than
+	 * <code>maxBrightening</code>. The defaults are {@link #DEFAULT_CLICK_PEAK_DISTANCE},
+	 * {@link #DEFAULT_CLICK_BRIGHTENED_PEAK_DISTANCE} and {@link #DEFAULT_CLICK_MAX_BRIGHTENING}.
+	 * @param peakDistance the frames between the brightest and darkest frame when the frame never brightened
+	 * @param brightenedPeakDistance the frames between the brightest and darkest frame when it brightened a little
+	 * @param maxBrightening how much brighter than the baseline the frame may get, in intensity levels
+	 */
+	public void setClickRules(int peakDistance, int brightenedPeakDistance, double maxBrightening) {
+		mClickPeakDistance = peakDistance;
+		mClickBrightenedPeakDistance = brightenedPeakDistance;
+		mClickMaxBrightening = maxBrightening;
+	}
+
+	/**
+	 * @return the frames between the brightest and darkest frame of a click that never brightened the frame
+	 */
+	public int getClickPeakDistance() {
+		return mClickPeakDistance;
+	}
+
+	/**
+	 * @return the frames between the brightest and darkest frame of a click that brightened the frame a little
+	 */
+	public int getClickBrightenedPeakDistance() {
+		return mClickBrightenedPeakDistance;
+	}
+
+	/**
+	 * @return how much brighter than the baseline a click may make the frame
+	 */
+	public double getClickMaxBrightening() {
+		return mClickMaxBrightening;
+	}
+
+	/**
+	 * Sets the fraction of the frame that has to be in motion for a gesture to start and to continue.
+	 * The default is {@link #DEFAULT_MIN_FRACTION_IN_MOTION}.
+	 * @param fraction the fraction of the frame in motion, between 0 and 1
+	 */
+	public void setMinFractionInMotion(double fraction) {
+		mMinFractionInMotion = fraction;
+	}
+
+	/**
+	 * @return the fraction of the frame that has to be in motion during a gesture
+	 */
+	public double getMinFractionInMotion() {
+		return mMinFractionInMotion;
+	}
+
+	/**
+	 * Sets how long a gesture may last before it is dropped. The default is {@link #DEFAULT_GESTURE_TIMEOUT_MILLIS}.
+	 * @param millis the gesture timeout in milliseconds
+	 */
+	public void setGestureTimeout(long millis) {
+		mGestureTimeoutNanos = millis * NANOS_PER_MILLI;
+	}
+
+	/**
+	 * @return how long a gesture may last before it is dropped, in milliseconds
+	 */
+	public long getGestureTimeout() {
+		return mGestureTimeoutNanos / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * Sets how long after the end of one gesture the next one can start. The default is
+	 * {@link #DEFAULT_MIN_MILLIS_BETWEEN_GESTURES}.
+	 * @param millis the time between gestures in milliseconds
+	 */
+	public void setMinTimeBetweenGestures(long millis) {
+		mMinNanosBetweenGestures = millis * NANOS_PER_MILLI;
+	}
+
+	/**
+	 * @return how long after the end of one gesture the next one can start, in milliseconds
+	 */
+	public long getMinTimeBetweenGestures() {
+		return mMinNanosBetweenGestures / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * @return the clock {@link #update(MotionDetectionReturnValue)} reads the time from
+	 */
+	public Clock getClock() {
+		return mClock;
+	}
+
+	/**
+	 * Test if a gesture has started and not yet ended or timed out.
+	 * @return true while a gesture is in progress
+	 */
+	public boolean isGestureInProgress() {
+		return mIsGestureInProgress;
+	}
+
+	/**
+	 * @return the mean frame intensity over the last few seconds
+	 */
+	public double getIntensityBaselineMean() {
+		return mIntensityBaseline.getMean();
+	}
+
+	/**
+	 * @return the standard deviation of the frame intensity over the last few seconds
+	 */
+	public double getIntensityBaselineDeviation() {
+		return mIntensityBaseline.getStandardDeviation();
+	}
+
+	/**
+	 * Forgets the gesture in progress and the intensity baseline.
+	 */
+	public void reset() {
+		mIntensityBaseline.clear();
+		mIsGestureInProgress = false;
+		mGestureCount = 0;
+		mLastGestureEndNanos = Long.MIN_VALUE / 2;
+		mLastClickNanos = Long.MIN_VALUE / 2;
+		mIgnoreNext = false;
+	}
+
+	/**
+	 * Feeds the result of motion detection on one frame, timestamped by the clock.
+	 * @param motion the motion and intensity of the frame
+	 */
+	public void update(MotionDetectionReturnValue motion) {
+		update(mClock.nanoTime(), motion.intensityMean, motion.fractionOfScreenInMotion,
+				motion.averagePosition.x, motion.averagePosition.y);
+	}
+
+	/**
+	 * Feeds one frame.
+	 * @param timeNanos the time of the frame in nanoseconds, on a monotonic clock, never earlier than the previous frame
+	 * @param intensity the mean intensity of the frame
+	 * @param fractionInMotion the fraction of the frame in motion
+	 * @param x the x coordinate of the centroid of the motion
+	 * @param y the y coordinate of the centroid of the motion
+	 */
+	public void update(long timeNanos, double intensity, double fractionInMotion, double x, double y) {
+		// the baseline includes the current frame, so a click has to stand out from it
+		mIntensityBaseline.add(timeNanos / NANOS_PER_MILLI, intensity);
+
+		if(!mIsGestureInProgress) {
+			if(fractionInMotion > mMinFractionInMotion && timeNanos - mLastGestureEndNanos > mMinNanosBetweenGestures) {
+				mIsGestureInProgress = true;
+				mGestureStartNanos = timeNanos;
+				mStartX = x;
+				mStartY = y;
+				mGestureHead = 0;
+				mGestureCount = 0;
+				addGestureIntensity(intensity);
+
+				// a gesture right after a click is usually the hand pulling back from it
+				if(timeNanos - mLastClickNanos > 3 * mMinNanosBetweenGestures / 2)
+					mIgnoreNext = false;
+			}
+			return;
+		}
+
+		addGestureIntensity(intensity);
+		if(fractionInMotion < mMinFractionInMotion) {
+			mIsGestureInProgress = false;
+			mLastGestureEndNanos = timeNanos;
+			if(mIgnoreNext)
+				mIgnoreNext = false;
+			else
+				endGesture(timeNanos, x, y);
+		}
+		else if(timeNanos - mGestureStartNanos > mGestureTimeoutNanos) {
+			mIsGestureInProgress = false;
+		}
+	}
+
+	private void addGestureIntensity(double intensity) {
+		if(mGestureCount == mGestureIntensities.length) {
+			mGestureHead = (mGestureHead + 1) % mGestureIntensities.length;
+			mGestureCount--;
+		}
+		mGestureIntensities[(mGestureHead + mGestureCount) % mGestureIntensities.length] = intensity;
+		mGestureCount++;
+	}
+
+	private void endGesture(long timeNanos, double x, double y) {
+		long gestureNanos = timeNanos - mGestureStartNanos;
+		long gestureLength = gestureNanos / NANOS_PER_MILLI;
+
+		// a click darkens the frame without brightening it first, a swipe does both
+		double baseline = mIntensityBaseline.getMean();
+		double minValue = baseline;
+		double maxValue = baseline;
+		int minIndex = 0, maxIndex = 0;
+		for(int i = 0; i < mGestureCount; i++) {
+			double value = mGestureIntensities[(mGestureHead + i) % mGestureIntensities.length];
+			if(value < minValue) {
+				minValue = value;
+				minIndex = i;
+			}
+			if(value > maxValue) {
+				maxValue = value;
+				maxIndex = i;
+			}
+		}
+
+		int peakToPeak = maxIndex - minIndex;
+		double amountAbove = maxValue - baseline;
+		if((peakToPeak < -mClickPeakDistance && amountAbove == 0)
+				|| (peakToPeak < -mClickBrightenedPeakDistance && amountAbove < mClickMaxBrightening)) {
+			mLastClickNanos = timeNanos;
+			mIgnoreNext = true;
+			if(mListener != null)
+				mListener.onClick(this, gestureLength);
+			return;
+		}
+
+		Direction direction = getDirection(x - mStartX, y - mStartY, gestureNanos);
+		if(direction != Direction.None && mListener != null)
+			mListener.onGesture(this, direction, gestureLength);
+	}
+
+	private Direction getDirection(double diffX, double diffY, long gestureNanos) {
+		if(gestureNanos <= mMinGestureLengthNanos)
+			return Direction.None;
+
+		if(Math.abs(diffX) > Math.abs(diffY)) {
+			if(Math.abs(diffX) > mMinDirectionalMotionX)
+				return diffX > 0 ? Direction.Left : Direction.Right;
+		}
+		else {
+			if(Math.abs(diffY) > mMinDirectionalMotionY)
+				return diffY > 0 ? Direction.Down : Direction.Up;
+		}
+		return Direction.None;
+	}
+}
@@ -0,0 +1,115 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p>The timeline of one gesture or click a {@link CameraGestureSensor} reported, from the first frame that
+ * moved to the moment the listeners had been called. All times are <code>System.nanoTime()</code> values:
+ * frames are stamped when the frame source hands them over, which is as close to the camera as the sensor
+ * sees.</p>
+ *
+ * <p>Traces are only made while latency tracking is enabled, see
+ * {@link CameraGestureSensor#enableLatencyTracking(boolean)}.</p>
+ */
+public final class GestureTrace {
+	/**
+	 * What was reported, with directions as the listeners saw them, after turning them to match the screen.
+	 */
+	public enum Kind {
+		Click, Left, Right, Up, Down
+	}
+
+	private final Kind mKind;
+	private final long mGestureLength;
+	private final long mOnsetNanos;
+	private final long mEndNanos;
+	private final long mDecisionNanos;
+	private final long mDispatchNanos;
+
+	GestureTrace(Kind kind, long gestureLength, long onsetNanos, long endNanos, long decisionNanos, long dispatchNanos) {
+		mKind = kind;
+		mGestureLength = gestureLength;
+		mOnsetNanos = onsetNanos;
+		mEndNanos = endNanos;
+		mDecisionNanos = decisionNanos;
+		mDispatchNanos = dispatchNanos;
+	}
+
+	/**
+	 * @return what was reported
+	 */
+	public Kind getKind() {
+		return mKind;
+	}
+
+	/**
+	 * @return the gesture length the listeners were given, in milliseconds between the capture times of the
+	 * first and last frame of the gesture
+	 */
+	public long getGestureLength() {
+		return mGestureLength;
+	}
+
+	/**
+	 * @return when the first frame with enough motion to start the gesture was captured
+	 */
+	public long getOnsetNanos() {
+		return mOnsetNanos;
+	}
+
+	/**
+	 * @return when the frame that ended the gesture was captured
+	 */
+	public long getEndNanos() {
+		return mEndNanos;
+	}
+
+	/**
+	 * @return when the gesture was recognized, just before the listeners were called
+	 */
+	public long getDecisionNanos() {
+		return mDecisionNanos;
+	}
+
+	/**
+	 * @return when the last listener returned, or when the listeners were queued if the sensor calls them
+	 * on another thread, see {@link ClickSensor#setDispatchMode(ClickSensor.DispatchMode)}
+	 */
+	public long getDispatchNanos() {
+		return mDispatchNanos;
+	}
+
+	/**
+	 * @return the time from the capture of the first moving frame to the decision
+	 */
+	public long getOnsetToDecisionNanos() {
+		return mDecisionNanos - mOnsetNanos;
+	}
+
+	/**
+	 * @return the time from the capture of the last frame of the gesture to the decision, which is how long
+	 * the frame spent queued and analysed
+	 */
+	public long getEndToDecisionNanos() {
+		return mDecisionNanos - mEndNanos;
+	}
+
+	/**
+	 * @return the time the listeners took, or the time to queue them
+	 */
+	public long getDecisionToDispatchNanos() {
+		return mDispatchNanos - mDecisionNanos;
+	}
+
+	/**
+	 * @return the time from the capture of the first moving frame until the last listener returned
+	 */
+	public long getOnsetToDispatchNanos() {
+		return mDispatchNanos - mOnsetNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s length=%dms decided=%.1fms (%.1fms after the last frame) dispatched=%.1fms total=%.1fms",
+				mKind, mGestureLength, getOnsetToDecisionNanos() / 1e6, getEndToDecisionNanos() / 1e6,
+				getDecisionToDispatchNanos() / 1e6, getOnsetToDispatchNanos() / 1e6);
+	}
+}
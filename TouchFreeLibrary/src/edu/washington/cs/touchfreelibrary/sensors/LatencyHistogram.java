@@ -0,0 +1,177 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p><code>LatencyHistogram</code> counts durations in nanoseconds in a fixed set of buckets, like a
+ * coarse HdrHistogram: values below 16 have a bucket each, and every power of two above that is split into
+ * 16 buckets, so any value is reported to within 1/16th (about 6%). Values up to 2<sup>40</sup> ns, about
+ * 18 minutes, are counted, larger ones land in the last bucket. The largest value is kept exactly.</p>
+ *
+ * <p>Recording takes a few atomic operations and never blocks or allocates. Any thread may record, and any
+ * thread may take a {@link Snapshot} at the same time; a snapshot taken while values are being recorded may
+ * be off by the values recorded during it.</p>
+ */
+public final class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT = 40;
+	static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong mTotal = new AtomicLong();
+	private final AtomicLong mMax = new AtomicLong();
+	private volatile long mStartNanos = System.nanoTime();
+
+	/**
+	 * Counts a duration.
+	 * @param nanos the duration in nanoseconds, negative values count as 0
+	 */
+	public void record(long nanos) {
+		if(nanos < 0)
+			nanos = 0;
+
+		mCounts.incrementAndGet(getBucket(nanos));
+		mTotal.addAndGet(nanos);
+
+		long max = mMax.get();
+		while(nanos > max && !mMax.compareAndSet(max, nanos))
+			max = mMax.get();
+	}
+
+	/**
+	 * Forgets every value, and starts measuring the rate from now.
+	 */
+	public void reset() {
+		for(int i = 0; i < BUCKET_COUNT; i++)
+			mCounts.set(i, 0);
+		mTotal.set(0);
+		mMax.set(0);
+		mStartNanos = System.nanoTime();
+	}
+
+	/**
+	 * Copies the current counts.
+	 * @return the statistics of every value recorded since construction or the last {@link #reset()}
+	 */
+	public Snapshot getSnapshot() {
+		long [] counts = new long [BUCKET_COUNT];
+		// the count is summed from the buckets, so it always matches the percentiles
+		long count = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = mCounts.get(i);
+			count += counts[i];
+		}
+		return new Snapshot(counts, count, mTotal.get(), mMax.get(), System.nanoTime() - mStartNanos);
+	}
+
+	static int getBucket(long value) {
+		if(value < SUB_BUCKETS)
+			return (int)value;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if(exponent > MAX_EXPONENT)
+			return BUCKET_COUNT - 1;
+		int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	// the largest value that falls into a bucket
+	static long getBucketLimit(int bucket) {
+		if(bucket < SUB_BUCKETS)
+			return bucket;
+
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = bucket % SUB_BUCKETS;
+		return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * The statistics of a {@link LatencyHistogram} at one moment. All durations are in nanoseconds.
+	 */
+	public static final class Snapshot {
+		private final long [] mCounts;
+		private final long mCount;
+		private final long mTotal;
+		private final long mMax;
+		private final long mElapsedNanos;
+
+		Snapshot(long [] counts, long count, long total, long max, long elapsedNanos) {
+			mCounts = counts;
+			mCount = count;
+			mTotal = total;
+			mMax = max;
+			mElapsedNanos = elapsedNanos;
+		}
+
+		/**
+		 * @return the number of values recorded
+		 */
+		public long getCount() {
+			return mCount;
+		}
+
+		/**
+		 * @return the mean of the values recorded, 0 if there are none
+		 */
+		public double getMean() {
+			return mCount == 0 ? 0 : (double)mTotal / mCount;
+		}
+
+		/**
+		 * @return the largest value recorded, 0 if there are none
+		 */
+		public long getMax() {
+			return mMax;
+		}
+
+		/**
+		 * Gets a value that the given percentage of the values are no larger than, to within 1/16th.
+		 * @param percentile the percentage, between 0 and 100
+		 * @return the value, never more than {@link #getMax()}, and 0 if there are none
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if(mCount == 0)
+				return 0;
+
+			long rank = (long)Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * mCount);
+			rank = Math.max(1, rank);
+			long seen = 0;
+			for(int i = 0; i < mCounts.length; i++) {
+				seen += mCounts[i];
+				if(seen >= rank)
+					return Math.min(getBucketLimit(i), mMax);
+			}
+			return mMax;
+		}
+
+		/**
+		 * @return the median of the values recorded
+		 */
+		public long getP50() {
+			return getValueAtPercentile(50);
+		}
+
+		/**
+		 * @return the 99th percentile of the values recorded
+		 */
+		public long getP99() {
+			return getValueAtPercentile(99);
+		}
+
+		/**
+		 * Gets how many values were recorded per second, which for a stage of the frame loop is its frame rate.
+		 * @return the values per second since the histogram was created or reset
+		 */
+		public double getRate() {
+			return mElapsedNanos <= 0 ? 0 : mCount * 1e9 / mElapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("count=%d rate=%.1f/s mean=%.0fns p50=%dns p99=%dns max=%dns",
+					mCount, getRate(), getMean(), getP50(), getP99(), mMax);
+		}
+	}
+}
@@ -1,45 +1,48 @@
 package edu.washington.cs.touchfreelibrary.sensors;
 
-import java.util.LinkedList;
-
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
 
 /**
- * Listen for amplitude spikes coming from the microphone to detect clips. This class is meant to
- * detect claps, snaps, and any other sort of audio clicks.
+ * Listen for amplitude spikes, or sudden changes in the spectrum, coming from the microphone to detect clips.
+ * This class is meant to detect claps, snaps, and any other sort of audio clicks.
  * @author Leeran Raphaely <leeran.raphaely@gmail.com>
  */
 public class MicrophoneClickSensor extends ClickSensor {
 	
+	/**
+	 * How claps are told apart from other sounds, see {@link MicrophoneClickSensor#setDetectionMode(DetectionMode)}.
+	 */
+	public enum DetectionMode {
+		/** A block of samples much louder than the last few, that dies down again quickly. Cheapest, but any loud noise may count, and a clap is only reported once it is over. */
+		Amplitude,
+		/** A sudden rise in the spectrum, summed over all frequencies. Reported within a few milliseconds of the start of the clap. */
+		SpectralFlux,
+		/** A sudden rise in the energy of the high frequencies, which claps and snaps have most of. As quick as spectral flux, and less taken in by low sounds such as voices. */
+		HighFrequencyContent
+	}
+	
 	private static final int SAMPLE_RATE = 44100;
 	private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
 	private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
 	// private static final int BITS_PER_SAMPLE = 16; // make sure this matches audio format;
 	private static final int PREFERRED_BUFFER_SIZE = 2048;
 	
-	private static final int NUMBER_IN_LIST = 8;
-	private static final int MAX_LENGTH_OF_CLAP = 4; // in buffer size chunks
-	private static final int TIME_TO_STAY_AVERAGE = 3; // also in buffer size chunks
-	private static final double DEFAULT_MIN_CLAP_TO_SILENCE_RATIO = 8.0;
-	
-	private static final double MAX_CURRENT_TO_PEAK_CLAP_RATIO = 0.33;
-	
 	// how many samples do we need before average can be ascertained
 	private AudioRecord mAudioRecorder;
 	private boolean mIsStarted;
 	
 	private int mBufferSize;
 	
-	private byte [] mRawBuffer;
+	// samples are read straight into this, one block at a time, so reading allocates nothing
+	private short [] mSamples;
 		
 	private Thread mReadAudioDataThread;
 	
-	private LinkedList<Double> mSampleAvgValueList;
-	private double mRunningAverage;
-	
-	private double mSensitivity;
+	// replaced as a whole when the mode changes, the audio thread picks the new one up with the next block
+	private volatile ClapDetector mDetector = new AmplitudeClapDetector();
+	private DetectionMode mDetectionMode = DetectionMode.Amplitude;
 	
 	/**
 	 * Creates a new instance of <code>MicrophoneClickSensor</code>
@@ -60,16 +63,11 @@ public class MicrophoneClickSensor extends ClickSensor {
 				AUDIO_FORMAT,
 				mBufferSize);
 		
-		// allocate the data for the buffer such that sizeof(mBuffer) == mBufferSize
+		// allocate the data for the buffer such that sizeof(mSamples) == mBufferSize
 		// (allocate mBufferSize / 2 because we're working with 16 bit shorts)
-		mRawBuffer = new byte[mBufferSize];
+		mSamples = new short[mBufferSize / 2];
 		
 		mIsStarted = false;
-		
-		mSampleAvgValueList = new LinkedList<Double>();
-		mRunningAverage = 0.0;
-		
-		mSensitivity = DEFAULT_MIN_CLAP_TO_SILENCE_RATIO;
 	}
 	
 	/**
@@ -78,6 +76,7 @@ public class MicrophoneClickSensor extends ClickSensor {
 	 */
 	public void start() {
 		if(!mIsStarted) {
+			mDetector.reset();
 			mAudioRecorder.startRecording();
 			
 			mReadAudioDataThread = new Thread(mThreadRunnable);
@@ -111,74 +110,16 @@ public class MicrophoneClickSensor extends ClickSensor {
 		}
 	}*/
 	
-	private int clapCounter = 0;
-	private int breakCounter = 0;
-	
-	private double peakOfClap;
-	
 	private Runnable mThreadRunnable = new Runnable() {
 		@Override
 		public void run() {
 			while(mAudioRecorder.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
-				// read in the next set of clap data
-				mAudioRecorder.read(mRawBuffer, 0, mRawBuffer.length);
-				
-				// average the amplitudes of the data set
-				short sample = 0;
-				int totalAbsValue = 0;
-				double averageAbsValue = 0.0;
+				// read in the next set of clap data, as 16 bit samples in the platform's byte order
+				int count = mAudioRecorder.read(mSamples, 0, mSamples.length);
 				
-				for(int i = 0; i < mRawBuffer.length; i+=2) {
-					sample = (short)((mRawBuffer[i]) | mRawBuffer[i + 1] << 8);
-					totalAbsValue += Math.abs(sample);
-				}
-				averageAbsValue = totalAbsValue / mRawBuffer.length / 2.0;
-				// Log.d(TAG, "" + averageAbsValue);
-				
-				if(breakCounter == 0) {
-					// now, let's check if our latest number is far from the norm
-					if(mSampleAvgValueList.size() == NUMBER_IN_LIST && clapCounter == 0) {
-						if(averageAbsValue > mRunningAverage * mSensitivity) {
-							// potential clap detected!
-							// mOldAverage = mRunningAverage;
-							peakOfClap = averageAbsValue;
-							clapCounter++;
-						}
-					} else if(clapCounter >= MAX_LENGTH_OF_CLAP) {
-						// the clap lasted too long. Let's let it be.
-						clapCounter = 0;
-						breakCounter = NUMBER_IN_LIST;
-					} else if(clapCounter > 0) {
-						// see if we're still at a "clap" point
-						if(averageAbsValue / peakOfClap >= MAX_CURRENT_TO_PEAK_CLAP_RATIO) {
-							if(peakOfClap < averageAbsValue && clapCounter < 2)
-								peakOfClap = averageAbsValue;
-							clapCounter++;
-						} else {
-							// we're out of the clap, I believe
-							mSampleAvgValueList.clear();
-							
-							clapCounter = -TIME_TO_STAY_AVERAGE;
-						}
-					} else if(clapCounter < 0) {
-						if(averageAbsValue / peakOfClap < MAX_CURRENT_TO_PEAK_CLAP_RATIO) {
-							clapCounter++;
-							if(clapCounter == 0) {
-								onSensorClick();
-							}
-						}
-						else clapCounter = 0;
-					} 
-				} else breakCounter--;
-				
-				// update the average
-				mRunningAverage *= mSampleAvgValueList.size();
-				
-				mSampleAvgValueList.add(averageAbsValue);
-				if(mSampleAvgValueList.size() > NUMBER_IN_LIST) {
-					mRunningAverage -= mSampleAvgValueList.pop();
-				}
-				mRunningAverage = (mRunningAverage + averageAbsValue) / mSampleAvgValueList.size();
+				ClapDetector detector = mDetector;
+				if(detector.process(mSamples, count))
+					onSensorClick();
 			}
 		}
 	};
@@ -191,14 +132,45 @@ public class MicrophoneClickSensor extends ClickSensor {
 		return mIsStarted;
 	}
 	
+	/**
+	 * <p>Chooses how claps are told apart from other sounds. The default is {@link DetectionMode#Amplitude}.
+	 * The spectral modes take tens of times as long per second of audio, a small share of one core all the same,
+	 * and report claps about a hundred milliseconds sooner.</p>
+	 * <p>May be called while this is started; the new mode learns what quiet sounds like again, which takes
+	 * about a quarter of a second. The sensitivity is kept.</p>
+	 * @param mode the detection mode
+	 */
+	public void setDetectionMode(DetectionMode mode) {
+		if(mode == mDetectionMode)
+			return;
+		
+		ClapDetector detector;
+		if(mode == DetectionMode.Amplitude)
+			detector = new AmplitudeClapDetector();
+		else
+			detector = new SpectralOnsetDetector(mode == DetectionMode.HighFrequencyContent);
+		detector.setSensitivity(mDetector.getSensitivity());
+		mDetectionMode = mode;
+		mDetector = detector;
+	}
+	
+	/**
+	 * Gets how claps are told apart from other sounds.
+	 * @return the detection mode
+	 */
+	public DetectionMode getDetectionMode() {
+		return mDetectionMode;
+	}
+	
 	/**
 	 * Adjusts how sensitive the microphone is to clap data. The lower the sensitivity constant,
 	 * the more sensitive this sensor is. The higher, the less sensitive. Default value is 8.0.
+	 * In every detection mode it is how many times its usual level a sound must reach.
 	 * @param s The sensitivity constant.
 	 */
 	public void setSensitivity(double s) {
 		if(s > 0.0)
-			mSensitivity = s;
+			mDetector.setSensitivity(s);
 	}
 	
 	/**
@@ -206,6 +178,6 @@ public class MicrophoneClickSensor extends ClickSensor {
 	 * @return The sensitivity constant.
 	 */
 	public double getSensitivity() {
-		return mSensitivity;
+		return mDetector.getSensitivity();
 	}
 }
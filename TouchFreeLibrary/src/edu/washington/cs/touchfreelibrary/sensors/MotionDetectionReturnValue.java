@@ -13,8 +13,25 @@ public class MotionDetectionReturnValue {
 	double bottomLeftFraction;
 	double topRightFraction;
 	double topLeftFraction;
-	
-	public MotionDetectionReturnValue(double x, double y, double fraction, double bottomRightFraction, double bottomLeftFraction, double topRightFraction, double topLeftFraction) 
+
+	/** Second central moments of the moving pixels, in pixels squared. */
+	public double varianceX;
+	public double varianceY;
+	public double covarianceXY;
+
+	/** Every sampleStride-th row and column was looked at, 1 when every pixel was. */
+	public int sampleStride = 1;
+	/** Size of the grid of pixels that was sampled. Positions are still in full frame pixels. */
+	public int sampledWidth;
+	public int sampledHeight;
+
+	/** Mean and variance of the intensity of the sampled pixels of the current frame, edges excluded. */
+	public double intensityMean;
+	public double intensityVariance;
+	/** Sampled pixels per 16 intensity levels, only filled in when the histogram is enabled. */
+	public final int [] intensityHistogram = new int [MotionMoments.HISTOGRAM_BINS];
+
+	public MotionDetectionReturnValue(double x, double y, double fraction, double bottomRightFraction, double bottomLeftFraction, double topRightFraction, double topLeftFraction)
 	{
 		averagePosition = new Point(x, y);
 		fractionOfScreenInMotion = fraction;
@@ -23,4 +40,40 @@ public class MotionDetectionReturnValue {
 		this.topRightFraction = topRightFraction;
 		this.topLeftFraction = topLeftFraction;
 	}
+
+	/**
+	 * Creates an empty value meant to be refilled every frame by {@link MotionDetector}.
+	 */
+	public MotionDetectionReturnValue()
+	{
+		this(-1.0, -1.0, 0.0, 0.0, 0.0, 0.0, 0.0);
+	}
+
+	/**
+	 * Gets how far the moving region extends along its major axis.
+	 * @return the standard deviation of the moving pixels along the major axis, in pixels
+	 */
+	public double getMajorSpread() {
+		double halfTrace = (varianceX + varianceY) / 2;
+		double root = Math.sqrt((varianceX - varianceY) * (varianceX - varianceY) / 4 + covarianceXY * covarianceXY);
+		return Math.sqrt(Math.max(halfTrace + root, 0));
+	}
+
+	/**
+	 * Gets how far the moving region extends across its major axis.
+	 * @return the standard deviation of the moving pixels along the minor axis, in pixels
+	 */
+	public double getMinorSpread() {
+		double halfTrace = (varianceX + varianceY) / 2;
+		double root = Math.sqrt((varianceX - varianceY) * (varianceX - varianceY) / 4 + covarianceXY * covarianceXY);
+		return Math.sqrt(Math.max(halfTrace - root, 0));
+	}
+
+	/**
+	 * Gets the direction of the major axis of the moving region.
+	 * @return the angle between the major axis and the x axis, in radians from -pi/2 to pi/2
+	 */
+	public double getOrientation() {
+		return 0.5 * Math.atan2(2 * covarianceXY, varianceX - varianceY);
+	}
 }
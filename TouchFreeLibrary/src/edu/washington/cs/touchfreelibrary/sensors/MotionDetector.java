@@ -0,0 +1,304 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import org.opencv.core.Mat;
+
+/**
+ * <p><code>MotionDetector</code> runs the native motion kernel over a pair of frames. In parallel mode the
+ * frame is split into horizontal stripes: the calling thread takes the first stripe and a small, fixed
+ * pool of worker threads takes the rest. The integer sums of the stripes are added together, so the
+ * result is exactly the same as in single threaded mode.</p>
+ * 
+ * <p>Only one thread may call {@link #detect(Mat, Mat, MotionDetectionReturnValue)} at a time. Nothing
+ * is allocated per frame.</p>
+ * 
+ * <p>With a sample stride above 1 only every stride-th row and column is looked at. Positions and spreads
+ * are still reported in full frame pixels, fractions are relative to the pixels that were sampled.</p>
+ */
+class MotionDetector {
+	private static final String TAG = "MotionDetector";
+	
+	/** the largest number of threads a frame is split over */
+	static final int MAX_WORKER_COUNT = 8;
+	
+	/** the default change in intensity above which a pixel counts as moving */
+	static final int DEFAULT_THRESHOLD = 20;
+	/** the default number of pixels along each edge that are ignored */
+	static final int DEFAULT_BORDER = 2;
+	/** the largest threshold the native kernel accepts */
+	static final int MAX_THRESHOLD = 254;
+	
+	private int mWorkerCount;
+	private int mThreshold = DEFAULT_THRESHOLD;
+	private int mBorder = DEFAULT_BORDER;
+	private int mSampleStride = 1;
+	private boolean mIsHistogramEnabled = false;
+	
+	// one set of sums per stripe, stripe 0 belongs to the calling thread
+	private MotionMoments [] mStripeMoments;
+	private final MotionMoments mMoments = new MotionMoments();
+	private StripeWorker [] mWorkers;
+	
+	// the job the workers are currently running, guarded by mLock
+	private final Object mLock = new Object();
+	private long mCurrentFrameAddr;
+	private long mPreviousFrameAddr;
+	private int mRows;
+	private int mStripes;
+	private int mJobThreshold;
+	private int mJobBorder;
+	private int mJobStride;
+	private boolean mJobHistogram;
+	private int mGeneration;
+	private int mPendingStripes;
+	
+	/**
+	 * Creates a single threaded <code>MotionDetector</code>.
+	 */
+	MotionDetector() {
+		mWorkerCount = 1;
+		mStripeMoments = new MotionMoments [] { mMoments };
+	}
+	
+	/**
+	 * Gets a sensible number of threads for parallel mode on this device.
+	 * @return the number of available processors, at most {@link #MAX_WORKER_COUNT}
+	 */
+	static int getDefaultWorkerCount() {
+		return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_WORKER_COUNT));
+	}
+	
+	/**
+	 * Sets how many threads, including the calling thread, share the work on each frame. Any workers from
+	 * the previous setting are stopped.
+	 * @param count the number of threads, 1 for single threaded mode
+	 */
+	synchronized void setWorkerCount(int count) {
+		count = Math.max(1, Math.min(count, MAX_WORKER_COUNT));
+		if(count == mWorkerCount)
+			return;
+		
+		stopWorkers();
+		
+		mWorkerCount = count;
+		mStripeMoments = new MotionMoments [count];
+		mStripeMoments[0] = mMoments;
+		for(int i = 1; i < count; i++)
+			mStripeMoments[i] = new MotionMoments();
+		
+		mWorkers = new StripeWorker [count - 1];
+		for(int i = 1; i < count; i++) {
+			mWorkers[i - 1] = new StripeWorker(i, mGeneration);
+			mWorkers[i - 1].start();
+		}
+	}
+	
+	/**
+	 * Gets how many threads share the work on each frame.
+	 * @return the number of threads, 1 in single threaded mode
+	 */
+	int getWorkerCount() {
+		return mWorkerCount;
+	}
+	
+	/**
+	 * Sets the change in intensity above which a pixel counts as moving.
+	 * @param threshold from 0 to {@link #MAX_THRESHOLD}
+	 */
+	synchronized void setThreshold(int threshold) {
+		mThreshold = Math.max(0, Math.min(threshold, MAX_THRESHOLD));
+	}
+	
+	synchronized int getThreshold() {
+		return mThreshold;
+	}
+	
+	/**
+	 * Sets how many pixels along each edge of the frame are ignored.
+	 * @param border the width of the ignored edge in pixels, at least 0
+	 */
+	synchronized void setBorder(int border) {
+		mBorder = Math.max(0, border);
+	}
+	
+	synchronized int getBorder() {
+		return mBorder;
+	}
+	
+	/**
+	 * Sets how densely the frame is sampled. The native kernel is vectorised for strides 1, 2 and 4,
+	 * other strides fall back to the scalar kernel.
+	 * @param stride 1 to look at every pixel, n to look at every n-th row and column
+	 */
+	synchronized void setSampleStride(int stride) {
+		mSampleStride = Math.max(1, stride);
+	}
+	
+	synchronized int getSampleStride() {
+		return mSampleStride;
+	}
+	
+	/**
+	 * Enables/disables the intensity histogram. The mean and variance of the intensity are always collected,
+	 * the histogram costs a little extra per pixel.
+	 * @param enabled true to fill in {@link MotionDetectionReturnValue#intensityHistogram}
+	 */
+	synchronized void enableHistogram(boolean enabled) {
+		mIsHistogramEnabled = enabled;
+	}
+	
+	synchronized boolean isHistogramEnabled() {
+		return mIsHistogramEnabled;
+	}
+	
+	/**
+	 * Stops the worker threads and goes back to single threaded mode.
+	 */
+	synchronized void release() {
+		stopWorkers();
+		mWorkerCount = 1;
+		mStripeMoments = new MotionMoments [] { mMoments };
+	}
+	
+	/**
+	 * Finds the pixels that changed between two frames of the same size and writes the result into out.
+	 * @param currentFrame the newest frame
+	 * @param previousFrame the frame before it
+	 * @param out overwritten with the result
+	 */
+	synchronized void detect(Mat currentFrame, Mat previousFrame, MotionDetectionReturnValue out) {
+		int rows = currentFrame.rows();
+		long currentAddr = currentFrame.getNativeObjAddr();
+		long previousAddr = previousFrame.getNativeObjAddr();
+		
+		if(mWorkerCount == 1) {
+			AccumulateMotion(currentAddr, previousAddr, 0, rows, mThreshold, mBorder, mSampleStride, mIsHistogramEnabled, mMoments.values);
+		}
+		else {
+			synchronized(mLock) {
+				mCurrentFrameAddr = currentAddr;
+				mPreviousFrameAddr = previousAddr;
+				mRows = rows;
+				mStripes = mWorkerCount;
+				mJobThreshold = mThreshold;
+				mJobBorder = mBorder;
+				mJobStride = mSampleStride;
+				mJobHistogram = mIsHistogramEnabled;
+				mPendingStripes = mWorkerCount - 1;
+				mGeneration++;
+				mLock.notifyAll();
+			}
+			
+			AccumulateMotion(currentAddr, previousAddr, 0, stripeEnd(0, rows, mWorkerCount),
+					mThreshold, mBorder, mSampleStride, mIsHistogramEnabled, mMoments.values);
+			
+			boolean interrupted = false;
+			synchronized(mLock) {
+				while(mPendingStripes > 0) {
+					try {
+						mLock.wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+			if(interrupted)
+				Thread.currentThread().interrupt();
+			
+			for(int i = 1; i < mWorkerCount; i++)
+				mMoments.add(mStripeMoments[i]);
+		}
+		
+		mMoments.finish(out, rows, currentFrame.cols(), mSampleStride);
+	}
+	
+	/**
+	 * Like {@link #detect(Mat, Mat, MotionDetectionReturnValue)}, but for frames in Java arrays. Runs the plain
+	 * Java kernel on the calling thread, so it needs neither the native library nor OpenCV's native code.
+	 * @param currentFrame the newest frame, one byte per pixel, row after row
+	 * @param previousFrame the frame before it
+	 * @param rows the height of the frames
+	 * @param cols the width of the frames
+	 * @param out overwritten with the result
+	 */
+	synchronized void detect(byte [] currentFrame, byte [] previousFrame, int rows, int cols, MotionDetectionReturnValue out) {
+		MotionKernel.accumulate(currentFrame, previousFrame, cols, rows, cols, 0, rows,
+				mThreshold, mBorder, mSampleStride, mIsHistogramEnabled, mMoments.values);
+		mMoments.finish(out, rows, cols, mSampleStride);
+	}
+	
+	private static int stripeEnd(int stripe, int rows, int stripes) {
+		return (int)((long)rows * (stripe + 1) / stripes);
+	}
+	
+	private void stopWorkers() {
+		if(mWorkers == null)
+			return;
+		
+		for(StripeWorker worker : mWorkers)
+			worker.interrupt();
+		for(StripeWorker worker : mWorkers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		mWorkers = null;
+	}
+	
+	// runs one stripe of every frame until interrupted
+	private class StripeWorker extends Thread {
+		private final int mStripe;
+		private int mSeenGeneration;
+		
+		// generation must be read before the thread starts, or the first frame could be missed
+		StripeWorker(int stripe, int generation) {
+			super(TAG + "-" + stripe);
+			mStripe = stripe;
+			mSeenGeneration = generation;
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			MotionMoments moments = mStripeMoments[mStripe];
+			
+			while(!isInterrupted()) {
+				long currentAddr, previousAddr;
+				int rows, stripes, threshold, border, stride;
+				boolean histogram;
+				synchronized(mLock) {
+					while(mGeneration == mSeenGeneration) {
+						try {
+							mLock.wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+					mSeenGeneration = mGeneration;
+					currentAddr = mCurrentFrameAddr;
+					previousAddr = mPreviousFrameAddr;
+					rows = mRows;
+					stripes = mStripes;
+					threshold = mJobThreshold;
+					border = mJobBorder;
+					stride = mJobStride;
+					histogram = mJobHistogram;
+				}
+				
+				AccumulateMotion(currentAddr, previousAddr, stripeEnd(mStripe - 1, rows, stripes), stripeEnd(mStripe, rows, stripes),
+						threshold, border, stride, histogram, moments.values);
+				
+				synchronized(mLock) {
+					if(--mPendingStripes == 0)
+						mLock.notifyAll();
+				}
+			}
+		}
+	}
+	
+	// writes the integer sums of the sampled rows in [rowStart, rowEnd) into sums (see MotionMoments for the layout)
+	private static native void AccumulateMotion(long currentFrame, long previousFrame, int rowStart, int rowEnd,
+			int threshold, int border, int stride, boolean histogram, long [] sums);
+}
@@ -0,0 +1,74 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * A plain Java version of the native motion kernel in motion_kernel.cpp. It collects exactly the same
+ * sums, only more slowly, so frames that are not in native memory can go through the same
+ * {@link MotionMoments} as frames from the camera.
+ */
+final class MotionKernel {
+	private MotionKernel() {
+	}
+
+	/**
+	 * Writes the sums of the sampled rows in [rowStart, rowEnd) into sums, see {@link MotionMoments} for the layout.
+	 * @param current the newest frame, one byte per pixel
+	 * @param previous the frame before it, laid out the same way
+	 * @param step the number of bytes from one row to the next
+	 * @param rows the height of the frames
+	 * @param cols the width of the frames
+	 * @param rowStart the first row of the stripe
+	 * @param rowEnd the row after the last row of the stripe
+	 * @param threshold the change in intensity above which a pixel counts as moving
+	 * @param border the number of pixels along each edge that are ignored
+	 * @param stride every stride-th row and column is sampled, starting at the border
+	 * @param histogram true to also fill in the intensity histogram
+	 * @param sums overwritten with the sums
+	 */
+	static void accumulate(byte [] current, byte [] previous, int step, int rows, int cols, int rowStart, int rowEnd,
+			int threshold, int border, int stride, boolean histogram, long [] sums) {
+		for(int i = 0; i < MotionMoments.SIZE; i++)
+			sums[i] = 0;
+
+		// rows are sampled on a grid that starts at the border, so stripes add up to the whole frame
+		int y0 = border;
+		if(rowStart > border)
+			y0 = border + (rowStart - border + stride - 1) / stride * stride;
+		int y1 = Math.min(rowEnd, rows - border);
+		int x1 = cols - border;
+
+		for(int y = y0; y < y1; y += stride) {
+			int row = y * step;
+			for(int x = border; x < x1; x += stride) {
+				int value = current[row + x] & 0xFF;
+				sums[MotionMoments.SAMPLES]++;
+				sums[MotionMoments.INTENSITY_SUM] += value;
+				sums[MotionMoments.INTENSITY_SUM_SQUARES] += value * value;
+				if(histogram)
+					sums[MotionMoments.HISTOGRAM + (value >> 4)]++;
+
+				if(Math.abs(value - (previous[row + x] & 0xFF)) <= threshold)
+					continue;
+
+				sums[MotionMoments.COUNT]++;
+				sums[MotionMoments.SUM_X] += x;
+				sums[MotionMoments.SUM_Y] += y;
+				sums[MotionMoments.SUM_XX] += (long)x * x;
+				sums[MotionMoments.SUM_YY] += (long)y * y;
+				sums[MotionMoments.SUM_XY] += (long)x * y;
+
+				if(y > rows/2) {
+					if(x > cols/2)
+						sums[MotionMoments.BOTTOM_RIGHT]++;
+					else
+						sums[MotionMoments.BOTTOM_LEFT]++;
+				}
+				else {
+					if(x > cols/2)
+						sums[MotionMoments.TOP_RIGHT]++;
+					else
+						sums[MotionMoments.TOP_LEFT]++;
+				}
+			}
+		}
+	}
+}
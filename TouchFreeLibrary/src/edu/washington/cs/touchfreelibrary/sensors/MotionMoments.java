@@ -0,0 +1,96 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * The exact integer sums the native motion kernel collects over the moving pixels of a frame
+ * (or of a stripe of rows of a frame). Sums of stripes are added together before they are turned
+ * into a {@link MotionDetectionReturnValue}, so a frame gives the same result however it was split.
+ */
+final class MotionMoments {
+	// layout of the long[] filled in by the native code, must match MotionSums in motion_kernel.h
+	static final int COUNT = 0;
+	static final int SUM_X = 1;
+	static final int SUM_Y = 2;
+	static final int SUM_XX = 3;
+	static final int SUM_YY = 4;
+	static final int SUM_XY = 5;
+	static final int TOP_LEFT = 6;
+	static final int TOP_RIGHT = 7;
+	static final int BOTTOM_LEFT = 8;
+	static final int BOTTOM_RIGHT = 9;
+	static final int SAMPLES = 10;
+	static final int INTENSITY_SUM = 11;
+	static final int INTENSITY_SUM_SQUARES = 12;
+	static final int HISTOGRAM = 13;
+	static final int HISTOGRAM_BINS = 16;
+	static final int SIZE = HISTOGRAM + HISTOGRAM_BINS;
+	
+	final long [] values = new long [SIZE];
+	
+	void clear() {
+		for(int i = 0; i < SIZE; i++)
+			values[i] = 0;
+	}
+	
+	void add(MotionMoments other) {
+		for(int i = 0; i < SIZE; i++)
+			values[i] += other.values[i];
+	}
+	
+	/**
+	 * Turns the sums into fractions, the centroid and the second central moments of the moving pixels,
+	 * and the intensity statistics of the sampled pixels. Every value is a single division of exact sums.
+	 * @param out the value to overwrite
+	 * @param rows the height of the frame the sums were collected over
+	 * @param cols the width of the frame the sums were collected over
+	 * @param stride the sample stride the sums were collected with, 1 if every pixel was looked at
+	 */
+	void finish(MotionDetectionReturnValue out, int rows, int cols, int stride) {
+		long count = values[COUNT];
+		double pointsCounted = count;
+		
+		// fractions are relative to the sampled grid, so they do not depend on the stride
+		int sampledRows = (rows + stride - 1) / stride;
+		int sampledCols = (cols + stride - 1) / stride;
+		double area = (double)(sampledRows/2 * sampledCols/2);
+		
+		if(count == 0) {
+			out.averagePosition.x = -1.0;
+			out.averagePosition.y = -1.0;
+			out.varianceX = 0.0;
+			out.varianceY = 0.0;
+			out.covarianceXY = 0.0;
+		}
+		else {
+			double meanX = values[SUM_X] / pointsCounted;
+			double meanY = values[SUM_Y] / pointsCounted;
+			
+			out.averagePosition.x = meanX;
+			out.averagePosition.y = meanY;
+			out.varianceX = values[SUM_XX] / pointsCounted - meanX * meanX;
+			out.varianceY = values[SUM_YY] / pointsCounted - meanY * meanY;
+			out.covarianceXY = values[SUM_XY] / pointsCounted - meanX * meanY;
+		}
+		
+		out.fractionOfScreenInMotion = pointsCounted / ((double)sampledRows * sampledCols);
+		out.sampleStride = stride;
+		out.sampledWidth = sampledCols;
+		out.sampledHeight = sampledRows;
+		out.bottomRightFraction = values[BOTTOM_RIGHT] / area;
+		out.bottomLeftFraction = values[BOTTOM_LEFT] / area;
+		out.topRightFraction = values[TOP_RIGHT] / area;
+		out.topLeftFraction = values[TOP_LEFT] / area;
+		
+		long samples = values[SAMPLES];
+		if(samples == 0) {
+			out.intensityMean = 0.0;
+			out.intensityVariance = 0.0;
+		}
+		else {
+			double mean = values[INTENSITY_SUM] / (double)samples;
+			out.intensityMean = mean;
+			out.intensityVariance = Math.max(values[INTENSITY_SUM_SQUARES] / (double)samples - mean * mean, 0.0);
+		}
+		for(int i = 0; i < HISTOGRAM_BINS; i++)
+			out.intensityHistogram[i] = (int)values[HISTOGRAM + i];
+	}
+}
@@ -0,0 +1,158 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p><code>PowerModeController</code> decides when the sensor can drop into low power mode, where frames
+ * are captured at a low rate and looked at with a coarse sample stride, and when it has to wake up again.
+ * It wakes up as soon as the fraction of the frame in motion passes the wake fraction, and goes back to
+ * low power mode once nothing has moved for the quiet period.</p>
+ *
+ * <p>It also keeps track of how long was spent in each mode. All times are passed in, in milliseconds, so
+ * the same clock must be used for every call. {@link #update(long, double, boolean)} is called from the
+ * analysis thread; the mode and the statistics can be read from any thread.</p>
+ */
+final class PowerModeController {
+	private volatile boolean mIsEnabled;
+	private volatile boolean mIsLowPower;
+	private volatile double mWakeFraction;
+	private volatile long mQuietMillis;
+
+	// guarded by this
+	private boolean mIsRunning;
+	private long mLastMotionMillis;
+	private long mModeStartMillis;
+	private long mActiveMillis;
+	private long mLowPowerMillis;
+	private int mWakeCount;
+
+	PowerModeController(double wakeFraction, long quietMillis) {
+		mWakeFraction = wakeFraction;
+		mQuietMillis = quietMillis;
+	}
+
+	/**
+	 * Enables/disables low power mode. Once disabled, the next {@link #update(long, double, boolean)} switches
+	 * back to active mode.
+	 * @param enabled true to allow low power mode
+	 */
+	void setEnabled(boolean enabled) {
+		mIsEnabled = enabled;
+	}
+
+	boolean isEnabled() {
+		return mIsEnabled;
+	}
+
+	void setWakeFraction(double fraction) {
+		mWakeFraction = fraction;
+	}
+
+	double getWakeFraction() {
+		return mWakeFraction;
+	}
+
+	void setQuietMillis(long millis) {
+		mQuietMillis = millis;
+	}
+
+	long getQuietMillis() {
+		return mQuietMillis;
+	}
+
+	/**
+	 * Starts timing in active mode, and clears the statistics.
+	 * @param nowMillis the current time
+	 */
+	synchronized void start(long nowMillis) {
+		mIsRunning = true;
+		mIsLowPower = false;
+		mLastMotionMillis = nowMillis;
+		mModeStartMillis = nowMillis;
+		mActiveMillis = 0;
+		mLowPowerMillis = 0;
+		mWakeCount = 0;
+	}
+
+	/**
+	 * Stops timing. The statistics keep their values until the next {@link #start(long)}.
+	 * @param nowMillis the current time
+	 */
+	synchronized void stop(long nowMillis) {
+		if(!mIsRunning)
+			return;
+		addModeTime(nowMillis);
+		mIsRunning = false;
+	}
+
+	/**
+	 * Looks at the motion of a frame and switches modes if needed.
+	 * @param nowMillis the time of the frame
+	 * @param fractionInMotion the fraction of the frame in motion
+	 * @param isGestureInProgress true while a gesture is being followed, which keeps the controller active
+	 * @return true if the controller is in low power mode for the next frame
+	 */
+	synchronized boolean update(long nowMillis, double fractionInMotion, boolean isGestureInProgress) {
+		boolean moved = isGestureInProgress || fractionInMotion > mWakeFraction;
+		if(moved)
+			mLastMotionMillis = nowMillis;
+
+		if(mIsLowPower) {
+			if(moved || !mIsEnabled) {
+				switchMode(false, nowMillis);
+				if(moved)
+					mWakeCount++;
+			}
+		}
+		else if(mIsEnabled && nowMillis - mLastMotionMillis >= mQuietMillis) {
+			switchMode(true, nowMillis);
+		}
+		return mIsLowPower;
+	}
+
+	/**
+	 * Test if the controller is in low power mode.
+	 * @return true in low power mode, false in active mode
+	 */
+	boolean isLowPower() {
+		return mIsLowPower;
+	}
+
+	/**
+	 * Gets how long was spent in active mode since {@link #start(long)}.
+	 * @param nowMillis the current time
+	 * @return the time in milliseconds
+	 */
+	synchronized long getActiveMillis(long nowMillis) {
+		return mActiveMillis + (mIsRunning && !mIsLowPower ? nowMillis - mModeStartMillis : 0);
+	}
+
+	/**
+	 * Gets how long was spent in low power mode since {@link #start(long)}.
+	 * @param nowMillis the current time
+	 * @return the time in milliseconds
+	 */
+	synchronized long getLowPowerMillis(long nowMillis) {
+		return mLowPowerMillis + (mIsRunning && mIsLowPower ? nowMillis - mModeStartMillis : 0);
+	}
+
+	/**
+	 * Gets how many times motion woke the controller up from low power mode since {@link #start(long)}.
+	 * @return the number of wake ups
+	 */
+	synchronized int getWakeCount() {
+		return mWakeCount;
+	}
+
+	private void switchMode(boolean lowPower, long nowMillis) {
+		if(mIsRunning)
+			addModeTime(nowMillis);
+		mIsLowPower = lowPower;
+		mModeStartMillis = nowMillis;
+	}
+
+	private void addModeTime(long nowMillis) {
+		if(mIsLowPower)
+			mLowPowerMillis += nowMillis - mModeStartMillis;
+		else
+			mActiveMillis += nowMillis - mModeStartMillis;
+	}
+}
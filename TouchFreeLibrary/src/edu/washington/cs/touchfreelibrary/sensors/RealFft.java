@@ -0,0 +1,133 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p>A fast Fourier transform of real input whose size is a power of two. The input is transformed in place
+ * as a complex transform of half the size, which is then split into the spectrum of the real input. The bit
+ * reversal order and every twiddle factor are worked out once, so a transform allocates nothing.</p>
+ *
+ * <p>The spectrum is packed into the input array: element 0 holds the real bin 0, element 1 the real bin
+ * size / 2, and elements 2k and 2k + 1 the real and imaginary parts of bin k for 0 &lt; k &lt; size / 2.
+ * Bins are not scaled.</p>
+ *
+ * <p>This class is not thread safe.</p>
+ */
+final class RealFft {
+	private final int mSize;
+	private final int mHalf;
+	// where each complex element goes in bit reversed order
+	private final int [] mBitReverse;
+	// cos and sin of 2 pi k / (size / 2), for the butterflies of the complex transform
+	private final float [] mCos;
+	private final float [] mSin;
+	// cos and sin of 2 pi k / size, for splitting the complex result into the real spectrum
+	private final float [] mSplitCos;
+	private final float [] mSplitSin;
+
+	/**
+	 * Creates a transform.
+	 * @param size the number of real samples, a power of two of at least 4
+	 */
+	RealFft(int size) {
+		if(size < 4 || (size & (size - 1)) != 0)
+			throw new IllegalArgumentException("size must be a power of two of at least 4");
+
+		mSize = size;
+		mHalf = size / 2;
+
+		int bits = Integer.numberOfTrailingZeros(mHalf);
+		mBitReverse = new int [mHalf];
+		for(int i = 0; i < mHalf; i++)
+			mBitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+
+		mCos = new float [mHalf / 2];
+		mSin = new float [mHalf / 2];
+		for(int k = 0; k < mHalf / 2; k++) {
+			mCos[k] = (float)Math.cos(2 * Math.PI * k / mHalf);
+			mSin[k] = (float)Math.sin(2 * Math.PI * k / mHalf);
+		}
+
+		mSplitCos = new float [mHalf / 2 + 1];
+		mSplitSin = new float [mHalf / 2 + 1];
+		for(int k = 0; k <= mHalf / 2; k++) {
+			mSplitCos[k] = (float)Math.cos(2 * Math.PI * k / size);
+			mSplitSin[k] = (float)Math.sin(2 * Math.PI * k / size);
+		}
+	}
+
+	/**
+	 * @return the number of real samples
+	 */
+	int getSize() {
+		return mSize;
+	}
+
+	/**
+	 * Transforms real samples into their packed spectrum, in place.
+	 * @param data the samples, at least size long, overwritten with the spectrum
+	 */
+	void forward(float [] data) {
+		// pairs of real samples are the real and imaginary parts of a complex sequence of half the size
+		for(int i = 0; i < mHalf; i++) {
+			int j = mBitReverse[i];
+			if(j > i) {
+				float re = data[2 * i];
+				float im = data[2 * i + 1];
+				data[2 * i] = data[2 * j];
+				data[2 * i + 1] = data[2 * j + 1];
+				data[2 * j] = re;
+				data[2 * j + 1] = im;
+			}
+		}
+
+		for(int length = 2; length <= mHalf; length <<= 1) {
+			int half = length >> 1;
+			int step = mHalf / length;
+			for(int start = 0; start < mHalf; start += length) {
+				for(int k = 0; k < half; k++) {
+					float wr = mCos[k * step];
+					float wi = -mSin[k * step];
+					int a = 2 * (start + k);
+					int b = a + 2 * half;
+					float xr = data[b] * wr - data[b + 1] * wi;
+					float xi = data[b] * wi + data[b + 1] * wr;
+					data[b] = data[a] - xr;
+					data[b + 1] = data[a + 1] - xi;
+					data[a] += xr;
+					data[a + 1] += xi;
+				}
+			}
+		}
+
+		// bins 0 and size / 2 are real, and share the first two elements
+		float re0 = data[0];
+		float im0 = data[1];
+		data[0] = re0 + im0;
+		data[1] = re0 - im0;
+
+		// bins k and half - k are worked out together from the complex bins k and half - k
+		for(int k = 1; k <= mHalf / 2; k++) {
+			int a = 2 * k;
+			int b = 2 * (mHalf - k);
+			float zr = data[a];
+			float zi = data[a + 1];
+			float cr = data[b];
+			float ci = data[b + 1];
+
+			// the transforms of the even and of the odd samples
+			float evenRe = (zr + cr) * 0.5f;
+			float evenIm = (zi - ci) * 0.5f;
+			float oddRe = (zi + ci) * 0.5f;
+			float oddIm = (cr - zr) * 0.5f;
+
+			float wr = mSplitCos[k];
+			float wi = -mSplitSin[k];
+			float twistedRe = oddRe * wr - oddIm * wi;
+			float twistedIm = oddRe * wi + oddIm * wr;
+
+			data[a] = evenRe + twistedRe;
+			data[a + 1] = evenIm + twistedIm;
+			data[b] = evenRe - twistedRe;
+			data[b + 1] = twistedIm - evenIm;
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p><code>RollingStatistics</code> keeps the mean and standard deviation of the values added during the
+ * last <code>windowMillis</code> milliseconds. Adding a value and reading the statistics take constant
+ * time, and nothing is allocated after construction.</p>
+ *
+ * <p>At most <code>capacity</code> values are kept. If values arrive faster than that, the oldest values
+ * are dropped early and the window is shorter than requested. Before the window has filled up, the
+ * statistics are over the values seen so far.</p>
+ *
+ * <p>This class is not thread safe.</p>
+ */
+public final class RollingStatistics {
+	private final long mWindowMillis;
+
+	// a ring of the values in the window and the times they were added, oldest at mHead
+	private final long [] mTimes;
+	private final double [] mValues;
+	private int mHead;
+	private int mCount;
+
+	// sums of (value - mShift), which keeps the variance accurate when the values are far from zero
+	private double mShift;
+	private double mSum;
+	private double mSumSquares;
+
+	/**
+	 * Creates an empty <code>RollingStatistics</code>.
+	 * @param windowMillis how long a value stays in the statistics, in milliseconds
+	 * @param capacity the most values that are kept at once
+	 */
+	public RollingStatistics(long windowMillis, int capacity) {
+		if(windowMillis <= 0)
+			throw new IllegalArgumentException("windowMillis must be positive");
+		if(capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive");
+
+		mWindowMillis = windowMillis;
+		mTimes = new long [capacity];
+		mValues = new double [capacity];
+	}
+
+	/**
+	 * Adds a value and drops the values that are no longer inside the window.
+	 * @param timeMillis the time of the value in milliseconds, never earlier than the previous value
+	 * @param value the value to add
+	 */
+	public void add(long timeMillis, double value) {
+		expire(timeMillis);
+		if(mCount == mValues.length)
+			removeOldest();
+
+		if(mCount == 0) {
+			mShift = value;
+			mSum = 0;
+			mSumSquares = 0;
+		}
+
+		int tail = (mHead + mCount) % mValues.length;
+		mTimes[tail] = timeMillis;
+		mValues[tail] = value;
+		mCount++;
+
+		double shifted = value - mShift;
+		mSum += shifted;
+		mSumSquares += shifted * shifted;
+	}
+
+	/**
+	 * Drops the values that are no longer inside the window at the given time.
+	 * @param timeMillis the current time in milliseconds
+	 */
+	public void expire(long timeMillis) {
+		while(mCount > 0 && timeMillis - mTimes[mHead] >= mWindowMillis)
+			removeOldest();
+	}
+
+	/**
+	 * Drops every value.
+	 */
+	public void clear() {
+		mHead = 0;
+		mCount = 0;
+		mSum = 0;
+		mSumSquares = 0;
+	}
+
+	/**
+	 * Gets how many values are inside the window.
+	 * @return the number of values
+	 */
+	public int getCount() {
+		return mCount;
+	}
+
+	/**
+	 * Gets the mean of the values inside the window.
+	 * @return the mean, or 0 if there are no values
+	 */
+	public double getMean() {
+		if(mCount == 0)
+			return 0;
+		return mShift + mSum / mCount;
+	}
+
+	/**
+	 * Gets the population variance of the values inside the window.
+	 * @return the variance, or 0 if there are no values
+	 */
+	public double getVariance() {
+		if(mCount == 0)
+			return 0;
+		double mean = mSum / mCount;
+		return Math.max(mSumSquares / mCount - mean * mean, 0);
+	}
+
+	/**
+	 * Gets the population standard deviation of the values inside the window.
+	 * @return the standard deviation, or 0 if there are no values
+	 */
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * Gets how long a value stays in the statistics.
+	 * @return the length of the window in milliseconds
+	 */
+	public long getWindowMillis() {
+		return mWindowMillis;
+	}
+
+	private void removeOldest() {
+		double shifted = mValues[mHead] - mShift;
+		mSum -= shifted;
+		mSumSquares -= shifted * shifted;
+		mHead = (mHead + 1) % mValues.length;
+		mCount--;
+
+		if(mCount == 0) {
+			mSum = 0;
+			mSumSquares = 0;
+		}
+	}
+}
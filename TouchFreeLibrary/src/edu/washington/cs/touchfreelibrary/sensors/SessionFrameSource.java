@@ -0,0 +1,225 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+/**
+ * <p>A {@link FrameSource} that plays back a session file written by {@link FrameRecorder}. Every frame keeps
+ * the capture time it was recorded with, so a {@link CameraGestureSensor} reading from this source times
+ * gestures exactly as it did when the session was recorded. Times are reported in nanoseconds, also for
+ * sessions recorded in milliseconds by the first version of the format.</p>
+ *
+ * <p>Frames are played back as fast as they are read, or, in real time, no faster than they were recorded.
+ * For the same decisions on every run the sensor must not skip frames, so use
+ * {@link CameraGestureSensor.FrameQueuePolicy#Block} and leave low power mode off, which paces the camera by
+ * the wall clock.</p>
+ *
+ * <p>Like {@link FileFrameSource}, {@link #retrieve(byte[])} hands frames over as plain arrays to run on a
+ * plain JVM without the native libraries or Android.</p>
+ */
+public class SessionFrameSource implements FrameSource {
+	private final File mFile;
+	private final boolean mIsRealTime;
+
+	private volatile RandomAccessFile mInput;
+	private FileChannel mChannel;
+	private int mWidth;
+	private int mHeight;
+	private int mRecordSize;
+	private long mFrameCount;
+
+	// the part of the file mapped at the moment, FrameRecorder.FRAMES_PER_MAPPING frames from mMappingFirstFrame
+	private MappedByteBuffer mMapping;
+	private long mMappingFirstFrame;
+
+	private long mNextFrame;
+	private long mFrameTime;
+	// sessions in the first format were recorded in milliseconds
+	private long mNanosPerTimeUnit;
+	private final Object mFrameLock = new Object();
+	private byte [] mFrame;
+	private boolean mIsGrabbed;
+
+	// the wall clock and recorded times of the first frame, for real time playback
+	private long mStartNanos;
+	private long mFirstFrameTime;
+
+	/**
+	 * Creates a source for a session file. The file is read when the source is opened.
+	 * @param file the session file
+	 * @param realTime true to play frames back no faster than they were recorded, false to play them as fast as possible
+	 */
+	public SessionFrameSource(File file, boolean realTime) {
+		mFile = file;
+		mIsRealTime = realTime;
+	}
+
+	@Override
+	public boolean open(int heldFrames) {
+		release();
+		try {
+			mInput = new RandomAccessFile(mFile, "r");
+			mChannel = mInput.getChannel();
+
+			MappedByteBuffer header = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, FrameRecorder.HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			int version = header.getInt() == FrameRecorder.MAGIC ? header.getInt() : 0;
+			if(version != FrameRecorder.VERSION && version != FrameRecorder.MILLIS_VERSION) {
+				release();
+				return false;
+			}
+			mNanosPerTimeUnit = version == FrameRecorder.MILLIS_VERSION ? 1000000 : 1;
+			mWidth = header.getInt();
+			mHeight = header.getInt();
+			mRecordSize = 8 + mWidth * mHeight;
+
+			// a session cut short may hold fewer whole frames than its header says
+			long recorded = (mChannel.size() - FrameRecorder.HEADER_SIZE) / mRecordSize;
+			mFrameCount = Math.min(header.getLong(), recorded);
+			mFrame = new byte [mWidth * mHeight];
+			mNextFrame = 0;
+			return true;
+		} catch (IOException e) {
+			release();
+			return false;
+		}
+	}
+
+	/**
+	 * Gets the number of frames in the session.
+	 * @return the number of frames, 0 before the source is opened
+	 */
+	public long getFrameCount() {
+		return mFrameCount;
+	}
+
+	@Override
+	public List<Size> getSupportedFrameSizes() {
+		List<Size> sizes = new ArrayList<Size>();
+		sizes.add(new Size(mWidth, mHeight));
+		return sizes;
+	}
+
+	// frames are played back at the rate they were recorded at
+	@Override
+	public boolean setFrameRateRange(int minFramesPerSecond, int maxFramesPerSecond) {
+		return false;
+	}
+
+	@Override
+	public boolean setFrameSize(Size size) {
+		return mInput != null && (int)size.width == mWidth && (int)size.height == mHeight;
+	}
+
+	@Override
+	public boolean grab() {
+		mIsGrabbed = false;
+		if(mInput == null || mNextFrame >= mFrameCount)
+			return false;
+
+		try {
+			if(mMapping == null || mNextFrame >= mMappingFirstFrame + FrameRecorder.FRAMES_PER_MAPPING) {
+				mMappingFirstFrame = mNextFrame;
+				long frames = Math.min(FrameRecorder.FRAMES_PER_MAPPING, mFrameCount - mNextFrame);
+				mMapping = mChannel.map(FileChannel.MapMode.READ_ONLY,
+						FrameRecorder.HEADER_SIZE + mMappingFirstFrame * mRecordSize, frames * mRecordSize);
+				mMapping.order(ByteOrder.LITTLE_ENDIAN);
+			}
+		} catch (IOException e) {
+			return false;
+		}
+
+		mFrameTime = mMapping.getLong() * mNanosPerTimeUnit;
+		mMapping.get(mFrame);
+		if(mIsRealTime)
+			waitForFrameTime();
+		mNextFrame++;
+		mIsGrabbed = true;
+		return true;
+	}
+
+	@Override
+	public boolean retrieve(Mat frame) {
+		if(!mIsGrabbed)
+			return false;
+
+		frame.create(mHeight, mWidth, CvType.CV_8U);
+		frame.put(0, 0, mFrame);
+		return true;
+	}
+
+	/**
+	 * Copies the last grabbed frame into an array.
+	 * @param frame an array of at least <code>width * height</code> bytes, overwritten with the frame
+	 * @return true if the frame was retrieved, false otherwise
+	 */
+	public boolean retrieve(byte [] frame) {
+		if(!mIsGrabbed)
+			return false;
+
+		System.arraycopy(mFrame, 0, frame, 0, mFrame.length);
+		return true;
+	}
+
+	@Override
+	public long getFrameTime() {
+		return mFrameTime;
+	}
+
+	@Override
+	public boolean isZeroCopy() {
+		return false;
+	}
+
+	@Override
+	public void release() {
+		mIsGrabbed = false;
+		mMapping = null;
+		mChannel = null;
+		mFrameCount = 0;
+		if(mInput != null) {
+			try {
+				mInput.close();
+			} catch (IOException e) {
+				// nothing left to do with the file
+			}
+			mInput = null;
+		}
+		// wakes up a real time grab() so it notices
+		synchronized(mFrameLock) {
+			mFrameLock.notifyAll();
+		}
+	}
+
+	// sleeps until as much time has passed since the first frame as had when the frame was recorded
+	private void waitForFrameTime() {
+		if(mNextFrame == 0) {
+			mStartNanos = System.nanoTime();
+			mFirstFrameTime = mFrameTime;
+			return;
+		}
+
+		long due = mStartNanos + mFrameTime - mFirstFrameTime;
+		synchronized(mFrameLock) {
+			long remaining;
+			while(mInput != null && (remaining = due - System.nanoTime()) > 0) {
+				try {
+					mFrameLock.wait(remaining / 1000000, (int)(remaining % 1000000));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+/**
+ * <p>Finds claps as sudden onsets in the spectrum of the audio, rather than as loud blocks. The audio is cut
+ * into overlapping frames of {@link #FRAME_SIZE} samples, a new one every {@link #HOP_SIZE} samples, whatever
+ * the size of the blocks it arrives in. Every frame is windowed and transformed, and its onset strength is
+ * compared with the mean of the last second:</p>
+ * <ul>
+ * <li>spectral flux, how much the magnitude of each frequency grew since the previous frame, summed over all
+ * frequencies. Sound that swells slowly, however loud, grows little from one frame to the next.</li>
+ * <li>high frequency content, how much the energy weighted by frequency grew since the previous frame. Claps
+ * and snaps are mostly high frequencies, voices and hums are not.</li>
+ * </ul>
+ *
+ * <p>A clap is reported with the frame it starts in, so at most a hop after the end of its first block, and
+ * sounds in the next {@link #REFRACTORY_HOPS} hops are taken to be part of it. Every buffer and table is
+ * created with the detector. This class is not thread safe, apart from {@link #setSensitivity(double)}.</p>
+ */
+final class SpectralOnsetDetector implements ClapDetector {
+	/** the number of samples in a frame, 23 ms at 44.1 kHz */
+	static final int FRAME_SIZE = 1024;
+	/** the number of samples from one frame to the next, 5.8 ms at 44.1 kHz */
+	static final int HOP_SIZE = 256;
+	/** the number of frames after a clap in which no other clap is reported, about 150 ms */
+	static final int REFRACTORY_HOPS = 26;
+	/** the number of frames the usual onset strength is taken over, about a second */
+	static final int HISTORY_HOPS = 172;
+	/** the default ratio of the onset strength of a clap to the usual onset strength */
+	static final double DEFAULT_SENSITIVITY = 8.0;
+
+	// claps are only looked for once this many frames have been seen
+	private static final int MIN_HISTORY_HOPS = HISTORY_HOPS / 4;
+
+	private final boolean mIsHighFrequencyContent;
+	private final RealFft mFft = new RealFft(FRAME_SIZE);
+	private final float [] mWindow = new float [FRAME_SIZE];
+
+	// the last FRAME_SIZE samples, oldest first, of which mHopFill belong to the hop being filled
+	private final float [] mSamples = new float [FRAME_SIZE];
+	private int mHopFill;
+	// the windowed frame, transformed in place
+	private final float [] mSpectrum = new float [FRAME_SIZE];
+	private float [] mMagnitudes = new float [FRAME_SIZE / 2 + 1];
+	private float [] mPreviousMagnitudes = new float [FRAME_SIZE / 2 + 1];
+	private double mPreviousContent;
+
+	// the onset strength of the last frames. The window never expires, the capacity bounds it.
+	private final RollingStatistics mStrengths = new RollingStatistics(Long.MAX_VALUE, HISTORY_HOPS);
+	private int mRefractoryHops;
+
+	private volatile double mSensitivity = DEFAULT_SENSITIVITY;
+
+	/**
+	 * Creates a detector.
+	 * @param highFrequencyContent true to use the growth of high frequency content as the onset strength,
+	 * false to use spectral flux
+	 */
+	SpectralOnsetDetector(boolean highFrequencyContent) {
+		mIsHighFrequencyContent = highFrequencyContent;
+		// a Hann window, so a clap in the middle of a frame counts most
+		for(int i = 0; i < FRAME_SIZE; i++)
+			mWindow[i] = (float)(0.5 - 0.5 * Math.cos(2 * Math.PI * i / FRAME_SIZE));
+	}
+
+	/**
+	 * Test if the onset strength is the growth of high frequency content.
+	 * @return true for high frequency content, false for spectral flux
+	 */
+	boolean isHighFrequencyContent() {
+		return mIsHighFrequencyContent;
+	}
+
+	@Override
+	public void setSensitivity(double sensitivity) {
+		mSensitivity = sensitivity;
+	}
+
+	@Override
+	public double getSensitivity() {
+		return mSensitivity;
+	}
+
+	@Override
+	public void reset() {
+		for(int i = 0; i < FRAME_SIZE; i++)
+			mSamples[i] = 0;
+		for(int i = 0; i < mPreviousMagnitudes.length; i++)
+			mPreviousMagnitudes[i] = 0;
+		mHopFill = 0;
+		mPreviousContent = 0;
+		mStrengths.clear();
+		mRefractoryHops = 0;
+	}
+
+	@Override
+	public boolean process(short [] samples, int count) {
+		boolean clapped = false;
+		int i = 0;
+		while(i < count) {
+			int n = Math.min(count - i, HOP_SIZE - mHopFill);
+			int offset = FRAME_SIZE - HOP_SIZE + mHopFill;
+			for(int j = 0; j < n; j++)
+				mSamples[offset + j] = samples[i + j];
+			mHopFill += n;
+			i += n;
+
+			if(mHopFill == HOP_SIZE) {
+				if(analyseFrame())
+					clapped = true;
+				// the oldest hop makes room for the next one
+				System.arraycopy(mSamples, HOP_SIZE, mSamples, 0, FRAME_SIZE - HOP_SIZE);
+				mHopFill = 0;
+			}
+		}
+		return clapped;
+	}
+
+	// works out the onset strength of the frame that was just filled, true if a clap starts in it
+	private boolean analyseFrame() {
+		for(int i = 0; i < FRAME_SIZE; i++)
+			mSpectrum[i] = mSamples[i] * mWindow[i];
+		mFft.forward(mSpectrum);
+
+		int bins = FRAME_SIZE / 2;
+		mMagnitudes[0] = Math.abs(mSpectrum[0]);
+		mMagnitudes[bins] = Math.abs(mSpectrum[1]);
+		for(int k = 1; k < bins; k++) {
+			float re = mSpectrum[2 * k];
+			float im = mSpectrum[2 * k + 1];
+			mMagnitudes[k] = (float)Math.sqrt(re * re + im * im);
+		}
+
+		double strength;
+		if(mIsHighFrequencyContent) {
+			double content = 0;
+			for(int k = 1; k <= bins; k++)
+				content += k * (double)mMagnitudes[k] * mMagnitudes[k];
+			strength = Math.max(0, content - mPreviousContent);
+			mPreviousContent = content;
+		}
+		else {
+			strength = 0;
+			for(int k = 0; k <= bins; k++) {
+				float growth = mMagnitudes[k] - mPreviousMagnitudes[k];
+				if(growth > 0)
+					strength += growth;
+			}
+		}
+
+		float [] swap = mPreviousMagnitudes;
+		mPreviousMagnitudes = mMagnitudes;
+		mMagnitudes = swap;
+
+		boolean clapped = false;
+		if(mRefractoryHops > 0)
+			mRefractoryHops--;
+		else if(mStrengths.getCount() >= MIN_HISTORY_HOPS && strength > mStrengths.getMean() * mSensitivity) {
+			clapped = true;
+			mRefractoryHops = REFRACTORY_HOPS;
+		}
+		mStrengths.add(0, strength);
+		return clapped;
+	}
+}
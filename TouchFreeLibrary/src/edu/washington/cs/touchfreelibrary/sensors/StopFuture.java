@@ -0,0 +1,76 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p><code>StopFuture</code> is what {@link CameraGestureSensor#stopAsync()} returns. It is done once both
+ * frame threads have finished and the camera and the frames have been handed back, after which the sensor
+ * can be started again without waiting.</p>
+ *
+ * <p>A stop cannot be called off, so it cannot be cancelled either.</p>
+ */
+final class StopFuture implements Future<Void> {
+	private final CountDownLatch mDone = new CountDownLatch(1);
+
+	/**
+	 * Creates a future that is done already, for a sensor that was never started.
+	 * @return the future
+	 */
+	static StopFuture completed() {
+		StopFuture future = new StopFuture();
+		future.complete();
+		return future;
+	}
+
+	void complete() {
+		mDone.countDown();
+	}
+
+	/**
+	 * Waits for the stop to finish. An interrupt does not end the wait, it is kept for the caller.
+	 */
+	void awaitUninterruptibly() {
+		boolean interrupted = false;
+		while(true) {
+			try {
+				mDone.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public boolean isDone() {
+		return mDone.getCount() == 0;
+	}
+
+	@Override
+	public Void get() throws InterruptedException {
+		mDone.await();
+		return null;
+	}
+
+	@Override
+	public Void get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		if(!mDone.await(timeout, unit))
+			throw new TimeoutException("the frame threads have not finished yet");
+		return null;
+	}
+}
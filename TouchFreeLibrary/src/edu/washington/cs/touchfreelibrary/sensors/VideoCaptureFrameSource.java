@@ -0,0 +1,90 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.highgui.Highgui;
+import org.opencv.highgui.VideoCapture;
+
+/**
+ * A {@link FrameSource} that reads the camera through OpenCV's <code>VideoCapture</code>. OpenCV converts
+ * every preview frame to greyscale and copies it into the frame that is passed in. This is the source a
+ * {@link CameraGestureSensor} uses unless it is given another one.
+ */
+public class VideoCaptureFrameSource implements FrameSource {
+	private final int mCameraId;
+	private VideoCapture mCamera;
+	private long mFrameTime;
+
+	/**
+	 * Creates a source for a camera.
+	 * @param cameraId the id of the camera, as used by <code>android.hardware.Camera</code>
+	 */
+	public VideoCaptureFrameSource(int cameraId) {
+		mCameraId = cameraId;
+	}
+
+	@Override
+	public boolean open(int heldFrames) {
+		release();
+
+		mCamera = new VideoCapture(mCameraId);
+		if(!mCamera.isOpened()) {
+			// the camera was not available
+			release();
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public List<Size> getSupportedFrameSizes() {
+		return mCamera.getSupportedPreviewSizes();
+	}
+
+	@Override
+	public boolean setFrameRateRange(int minFramesPerSecond, int maxFramesPerSecond) {
+		// most of OpenCV's Android camera backends ignore this and return false
+		return mCamera.set(Highgui.CV_CAP_PROP_FPS, maxFramesPerSecond);
+	}
+
+	@Override
+	public boolean setFrameSize(Size size) {
+		mCamera.set(Highgui.CV_CAP_PROP_FRAME_WIDTH, size.width);
+		mCamera.set(Highgui.CV_CAP_PROP_FRAME_HEIGHT, size.height);
+		return true;
+	}
+
+	@Override
+	public boolean grab() {
+		if(!mCamera.grab())
+			return false;
+		mFrameTime = System.nanoTime();
+		return true;
+	}
+
+	@Override
+	public boolean retrieve(Mat frame) {
+		return mCamera.retrieve(frame, Highgui.CV_CAP_ANDROID_GREY_FRAME);
+	}
+
+	@Override
+	public long getFrameTime() {
+		return mFrameTime;
+	}
+
+	@Override
+	public boolean isZeroCopy() {
+		return false;
+	}
+
+	@Override
+	public void release() {
+		if(mCamera != null) {
+			VideoCapture camera = mCamera;
+			mCamera = null; // Make it null before releasing...
+			camera.release();
+		}
+	}
+}
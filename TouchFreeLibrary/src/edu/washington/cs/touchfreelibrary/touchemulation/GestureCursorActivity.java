@@ -9,12 +9,18 @@ import edu.washington.cs.touchfreelibrary.sensors.CameraGestureSensor;
 import edu.washington.cs.touchfreelibrary.sensors.ClickSensor;
 import edu.washington.cs.touchfreelibrary.sensors.MicrophoneClickSensor;
 import android.app.Activity;
+import android.os.Handler;
 
 /**
  * This class provides the simplest way to add a touch-free interface to an activity. Simply
  * extend your activity with <code>GestureCursorActivity</code> and call
  * {@link #initializeTouchFree(ClickSensorType)} in your <code>onCreate</code> method, and
  * you will get a touch-free cursor to play with.
+ * <p>
+ * While the activity loses the focus, to a dialog for instance, the camera stays open
+ * so it can carry on right away. After <code>onPause</code> the camera is released
+ * once the delay set with {@link #setCameraReleaseDelay(long)} has passed, unless the
+ * activity is resumed first.
  * @author Leeran Raphaely <leeran.raphaely@gmail.com>
  *
  */
@@ -34,6 +40,18 @@ public abstract class GestureCursorActivity extends Activity {
 	
 	private boolean mOpenCVInitiated = false;
 	
+	/** the default time the camera stays open after <code>onPause</code>, in milliseconds */
+	public static final long DEFAULT_CAMERA_RELEASE_DELAY_MILLIS = 2000;
+	
+	private long mCameraReleaseDelay = DEFAULT_CAMERA_RELEASE_DELAY_MILLIS;
+	private final Handler mHandler = new Handler();
+	private final Runnable mReleaseCamera = new Runnable() {
+		@Override
+		public void run() {
+			stopSensors();
+		}
+	};
+	
 	private BaseLoaderCallback mLoaderCallback = new BaseLoaderCallback(this) {
 		@Override
 		public void onManagerConnected(int status) {
@@ -82,6 +100,42 @@ public abstract class GestureCursorActivity extends Activity {
 
 		mCursor.attachToActivity(this);
 	}
+	
+	/**
+	 * Sets how long the camera stays open after <code>onPause</code>, so that coming back
+	 * soon after does not reopen it.
+	 * @param millis the delay in milliseconds, 0 to release the camera right away
+	 */
+	protected void setCameraReleaseDelay(long millis) {
+		mCameraReleaseDelay = Math.max(0, millis);
+	}
+	
+	/**
+	 * Gets how long the camera stays open after <code>onPause</code>.
+	 * @return the delay in milliseconds
+	 */
+	protected long getCameraReleaseDelay() {
+		return mCameraReleaseDelay;
+	}
+	
+	// the gesture sensor keeps the camera open while paused, the other click sensors are cheap to restart
+	private void resumeSensors() {
+		mGestureSensor.resume();
+		if(mGestureSensor != mClickSensor)
+			mClickSensor.start();
+	}
+	
+	private void pauseSensors() {
+		mGestureSensor.pause();
+		if(mGestureSensor != mClickSensor)
+			mClickSensor.stop();
+	}
+	
+	private void stopSensors() {
+		mGestureSensor.stop();
+		if(mGestureSensor != mClickSensor)
+			mClickSensor.stop();
+	}
 
 	/**
 	 * If overriding, make sure to call <code>super.onWindowFocusChanged(hasFocus)</code>.
@@ -91,16 +145,10 @@ public abstract class GestureCursorActivity extends Activity {
 		if(!mOpenCVInitiated)
 			return;
 		
-		if(hasFocus) {
-			mGestureSensor.start();
-			if(mGestureSensor != mClickSensor)
-				mClickSensor.start();
-		}
-		else {
-			mGestureSensor.stop();
-			if(mGestureSensor != mClickSensor)
-				mClickSensor.stop();
-		}
+		if(hasFocus)
+			resumeSensors();
+		else
+			pauseSensors();
 	}
 	
 	/**
@@ -113,9 +161,8 @@ public abstract class GestureCursorActivity extends Activity {
 		if(!mOpenCVInitiated)
 			return;
 		
-		mGestureSensor.start();
-		if(mGestureSensor != mClickSensor)
-			mClickSensor.start();
+		mHandler.removeCallbacks(mReleaseCamera);
+		resumeSensors();
 	}
 	
 	
@@ -129,9 +176,11 @@ public abstract class GestureCursorActivity extends Activity {
 		if(!mOpenCVInitiated)
 			return;
 		
-		mGestureSensor.stop();
-		if(mGestureSensor != mClickSensor)
-			mClickSensor.stop();
+		pauseSensors();
+		if(mCameraReleaseDelay == 0)
+			stopSensors();
+		else
+			mHandler.postDelayed(mReleaseCamera, mCameraReleaseDelay);
 	}
 	
 	/**
@@ -141,6 +190,7 @@ public abstract class GestureCursorActivity extends Activity {
 	public void onDestroy() {
 		super.onDestroy();
 		
+		mHandler.removeCallbacks(mReleaseCamera);
 		if(!mOpenCVInitiated)
 			return;
 		
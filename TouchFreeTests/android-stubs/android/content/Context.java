@@ -0,0 +1,12 @@
+package android.content;
+
+/**
+ * Stands in for the Android class on a plain JVM, with only what the library uses.
+ */
+public abstract class Context {
+	public static final String WINDOW_SERVICE = "window";
+
+	public Object getSystemService(String name) {
+		return null;
+	}
+}
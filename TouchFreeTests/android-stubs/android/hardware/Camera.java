@@ -0,0 +1,46 @@
+package android.hardware;
+
+/**
+ * Stands in for the Android class on a plain JVM, a device without cameras.
+ */
+public class Camera {
+	public static class CameraInfo {
+		public static final int CAMERA_FACING_BACK = 0;
+		public static final int CAMERA_FACING_FRONT = 1;
+
+		public int facing;
+	}
+
+	public class Parameters {
+		public void set(String key, String value) {
+		}
+
+		public void setExposureCompensation(int value) {
+		}
+
+		public void setWhiteBalance(String value) {
+		}
+	}
+
+	public static int getNumberOfCameras() {
+		return 0;
+	}
+
+	public static void getCameraInfo(int cameraId, CameraInfo cameraInfo) {
+		throw new RuntimeException("no camera " + cameraId);
+	}
+
+	public static Camera open(int cameraId) {
+		throw new RuntimeException("no camera " + cameraId);
+	}
+
+	public Parameters getParameters() {
+		return new Parameters();
+	}
+
+	public void setParameters(Parameters params) {
+	}
+
+	public void release() {
+	}
+}
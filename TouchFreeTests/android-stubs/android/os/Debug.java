@@ -0,0 +1,11 @@
+package android.os;
+
+/**
+ * Stands in for the Android class on a plain JVM, with only what the library uses.
+ */
+public final class Debug {
+	// like a device that does not measure it
+	public static long threadCpuTimeNanos() {
+		return -1;
+	}
+}
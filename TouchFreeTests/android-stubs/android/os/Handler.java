@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * Stands in for the Android class on a plain JVM. There is no main thread to post to, so tasks run at once
+ * on the calling thread.
+ */
+public class Handler {
+	public Handler(Looper looper) {
+	}
+
+	public boolean post(Runnable r) {
+		r.run();
+		return true;
+	}
+}
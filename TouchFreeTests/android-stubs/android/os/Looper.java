@@ -0,0 +1,12 @@
+package android.os;
+
+/**
+ * Stands in for the Android class on a plain JVM, with only what the library uses.
+ */
+public class Looper {
+	private static final Looper sMainLooper = new Looper();
+
+	public static Looper getMainLooper() {
+		return sMainLooper;
+	}
+}
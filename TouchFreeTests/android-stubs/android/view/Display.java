@@ -0,0 +1,10 @@
+package android.view;
+
+/**
+ * Stands in for the Android class on a plain JVM, a display that is never turned.
+ */
+public class Display {
+	public int getRotation() {
+		return Surface.ROTATION_0;
+	}
+}
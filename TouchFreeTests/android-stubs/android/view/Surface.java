@@ -0,0 +1,11 @@
+package android.view;
+
+/**
+ * Stands in for the Android class on a plain JVM, with only what the library uses.
+ */
+public class Surface {
+	public static final int ROTATION_0 = 0;
+	public static final int ROTATION_90 = 1;
+	public static final int ROTATION_180 = 2;
+	public static final int ROTATION_270 = 3;
+}
@@ -0,0 +1,8 @@
+package android.view;
+
+/**
+ * Stands in for the Android interface on a plain JVM, with only what the library uses.
+ */
+public interface WindowManager {
+	public Display getDefaultDisplay();
+}
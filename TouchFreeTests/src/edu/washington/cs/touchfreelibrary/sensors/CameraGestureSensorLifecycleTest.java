@@ -0,0 +1,216 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+import android.content.Context;
+
+/**
+ * Starts and stops a {@link CameraGestureSensor} over a camera that is only a {@link FrameSource} on a
+ * plain JVM, with the stand-ins for Android from <code>android-stubs</code>. The frames are never looked
+ * at: every frame misses a 1 ms deadline, so the analysis thread skips it without calling the native
+ * motion kernel, and the late frame count shows that frames went through both threads. The frames are
+ * OpenCV matrices, so the OpenCV Java library has to be on <code>java.library.path</code>.
+ */
+public class CameraGestureSensorLifecycleTest {
+	// a camera at 30 frames a second, and how much later than that the camera may come back
+	private static final long FRAME_MILLIS = 33;
+	private static final long SLACK_MILLIS = 50;
+	private static final long TIMEOUT_MILLIS = 2000;
+
+	// a camera whose grab waits for the next frame, and whose frames are late by the time they are retrieved
+	private static final class FakeCamera implements FrameSource {
+		volatile boolean mIsBroken;
+		volatile int mOpenCount;
+		volatile int mReleaseCount;
+
+		@Override
+		public boolean open(int heldFrames) {
+			mOpenCount++;
+			return true;
+		}
+
+		@Override
+		public List<Size> getSupportedFrameSizes() {
+			List<Size> sizes = new ArrayList<Size>();
+			sizes.add(new Size(320, 240));
+			return sizes;
+		}
+
+		@Override
+		public boolean setFrameRateRange(int minFramesPerSecond, int maxFramesPerSecond) {
+			return true;
+		}
+
+		@Override
+		public boolean setFrameSize(Size size) {
+			return true;
+		}
+
+		@Override
+		public boolean grab() {
+			if(mIsBroken)
+				throw new RuntimeException("the camera broke");
+			sleep(FRAME_MILLIS);
+			return true;
+		}
+
+		@Override
+		public boolean retrieve(Mat frame) {
+			sleep(2);
+			return true;
+		}
+
+		@Override
+		public long getFrameTime() {
+			return System.nanoTime();
+		}
+
+		@Override
+		public boolean isZeroCopy() {
+			return false;
+		}
+
+		@Override
+		public void release() {
+			mReleaseCount++;
+		}
+
+		private static void sleep(long millis) {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private FakeCamera mCamera;
+	private CameraGestureSensor mSensor;
+
+	@BeforeClass
+	public static void loadOpenCV() {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	@Before
+	public void createSensor() {
+		mCamera = new FakeCamera();
+		mSensor = new CameraGestureSensor(new Context() {});
+		mSensor.setFrameSource(mCamera);
+		mSensor.setFrameDeadline(1);
+	}
+
+	@After
+	public void stopSensor() throws Exception {
+		mSensor.stopAsync().get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	// waits until frames have gone through both frame threads
+	private void awaitFrames() throws InterruptedException {
+		long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while(mSensor.getLateFrameCount() == 0 && System.currentTimeMillis() < end)
+			Thread.sleep(10);
+		assertTrue("no frames reached the analysis thread", mSensor.getLateFrameCount() > 0);
+	}
+
+	private void awaitStopped() throws InterruptedException {
+		long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while(mSensor.getLifecycleState() != CameraGestureSensor.LifecycleState.Stopped && System.currentTimeMillis() < end)
+			Thread.sleep(10);
+		assertEquals(CameraGestureSensor.LifecycleState.Stopped, mSensor.getLifecycleState());
+	}
+
+	@Test
+	public void startsAndStopsAgainAndAgain() throws Exception {
+		for(int i = 1; i <= 3; i++) {
+			mSensor.start();
+			assertEquals(CameraGestureSensor.LifecycleState.Running, mSensor.getLifecycleState());
+			awaitFrames();
+
+			mSensor.stopAsync().get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			assertEquals(CameraGestureSensor.LifecycleState.Stopped, mSensor.getLifecycleState());
+			assertEquals(i, mCamera.mOpenCount);
+			assertEquals(i, mCamera.mReleaseCount);
+		}
+	}
+
+	@Test
+	public void handsTheCameraBackWithinAFrame() throws Exception {
+		mSensor.start();
+		awaitFrames();
+
+		Future<Void> stopped = mSensor.stopAsync();
+		stopped.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		assertEquals(1, mCamera.mReleaseCount);
+		long handoverMillis = TimeUnit.NANOSECONDS.toMillis(mSensor.getCameraHandoverNanos());
+		assertTrue("the camera came back after " + handoverMillis + " ms", handoverMillis <= FRAME_MILLIS + SLACK_MILLIS);
+	}
+
+	@Test
+	public void startWaitsForAStopInProgress() throws Exception {
+		mSensor.start();
+		awaitFrames();
+
+		Future<Void> stopped = mSensor.stopAsync();
+		assertEquals(CameraGestureSensor.LifecycleState.Stopping, mSensor.getLifecycleState());
+		mSensor.start();
+		assertTrue(stopped.isDone());
+		assertEquals(CameraGestureSensor.LifecycleState.Running, mSensor.getLifecycleState());
+		assertEquals(2, mCamera.mOpenCount);
+		assertEquals(1, mCamera.mReleaseCount);
+		awaitFrames();
+	}
+
+	@Test
+	public void brokenCameraStopsTheSensorAndTheRecording() throws Exception {
+		mSensor.start();
+		awaitFrames();
+		File session = File.createTempFile("session", ".tfrs");
+		try {
+			mSensor.startRecording(session);
+			assertTrue(mSensor.isRecording());
+
+			mCamera.mIsBroken = true;
+			awaitStopped();
+			assertFalse(mSensor.isRecording());
+			assertEquals(1, mCamera.mReleaseCount);
+
+			// the recording was closed, so it plays back
+			SessionFrameSource playback = new SessionFrameSource(session, false);
+			assertTrue(playback.open(1));
+			playback.release();
+		} finally {
+			session.delete();
+		}
+	}
+
+	@Test
+	public void recordingNeedsARunningSensor() throws IOException {
+		File session = new File("never-written.tfrs");
+		try {
+			mSensor.startRecording(session);
+			fail("startRecording() should need a running sensor");
+		} catch (IllegalStateException e) {
+			assertFalse(mSensor.isRecording());
+		}
+		assertFalse(session.exists());
+	}
+}
@@ -0,0 +1,164 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Plays frames back through {@link FileFrameSource} and runs them through the Java motion kernel and the
+ * {@link GestureRecognizer}, as the sensor would, without a camera, Android or native code.
+ */
+public class FileFrameSourceTest {
+	private static final int WIDTH = 160;
+	private static final int HEIGHT = 120;
+	private static final int BACKGROUND = 100;
+	private static final int HAND = 20;
+	// a dark bar the full height of the frame moves this far to the right every frame, then slows down for a
+	// frame like a hand coming to rest, which ends the gesture where the bar stopped
+	private static final int BAR_WIDTH = 40;
+	private static final int BAR_STEP = 16;
+	private static final int SETTLING_STEP = 2;
+	private static final int STILL_FRAMES = 5;
+	private static final int MOVING_FRAMES = 7;
+	private static final int BAR_END = MOVING_FRAMES * BAR_STEP + SETTLING_STEP;
+	private static final int FRAME_COUNT = 2 * STILL_FRAMES + MOVING_FRAMES + 1;
+	private static final long FRAME_NANOS = 33 * 1000000;
+
+	private File mFile;
+
+	@Before
+	public void writeFrames() throws IOException {
+		mFile = File.createTempFile("frames", ".raw");
+		FileOutputStream out = new FileOutputStream(mFile);
+		try {
+			for(int i = 0; i < STILL_FRAMES; i++)
+				out.write(drawFrame(0));
+			for(int i = 1; i <= MOVING_FRAMES; i++)
+				out.write(drawFrame(i * BAR_STEP));
+			for(int i = 0; i <= STILL_FRAMES; i++)
+				out.write(drawFrame(BAR_END));
+		} finally {
+			out.close();
+		}
+	}
+
+	@After
+	public void deleteFrames() {
+		mFile.delete();
+	}
+
+	private byte [] drawFrame(int barLeft) {
+		byte [] frame = new byte [WIDTH * HEIGHT];
+		for(int y = 0; y < HEIGHT; y++) {
+			for(int x = 0; x < WIDTH; x++)
+				frame[y * WIDTH + x] = (byte)(x >= barLeft && x < barLeft + BAR_WIDTH ? HAND : BACKGROUND);
+		}
+		return frame;
+	}
+
+	@Test
+	public void readsEveryFrameOnceWithoutLooping() {
+		FileFrameSource source = new FileFrameSource(mFile, WIDTH, HEIGHT, false);
+		assertTrue(source.open(1));
+		assertTrue(source.setFrameSize(source.getSupportedFrameSizes().get(0)));
+
+		byte [] frame = new byte [WIDTH * HEIGHT];
+		int frames = 0;
+		while(source.grab()) {
+			assertTrue(source.retrieve(frame));
+			frames++;
+		}
+		assertEquals(FRAME_COUNT, frames);
+		assertArrayEquals(drawFrame(BAR_END), frame);
+		assertFalse(source.retrieve(frame));
+		source.release();
+	}
+
+	@Test
+	public void startsOverAtTheFirstFrameWhenLooping() {
+		FileFrameSource source = new FileFrameSource(mFile, WIDTH, HEIGHT, true);
+		assertTrue(source.open(1));
+
+		byte [] frame = new byte [WIDTH * HEIGHT];
+		for(int i = 0; i <= FRAME_COUNT; i++)
+			assertTrue(source.grab());
+		assertTrue(source.retrieve(frame));
+		assertArrayEquals(drawFrame(0), frame);
+		source.release();
+	}
+
+	@Test
+	public void doesNotOpenAMissingFile() {
+		FileFrameSource source = new FileFrameSource(new File(mFile.getPath() + ".missing"), WIDTH, HEIGHT, false);
+		assertFalse(source.open(1));
+		assertFalse(source.grab());
+	}
+
+	@Test
+	public void rejectsOtherFrameSizes() {
+		FileFrameSource source = new FileFrameSource(mFile, WIDTH, HEIGHT, false);
+		assertTrue(source.open(1));
+		assertFalse(source.setFrameSize(new org.opencv.core.Size(WIDTH * 2, HEIGHT * 2)));
+		source.release();
+	}
+
+	@Test
+	public void detectsTheSwipeInTheFrames() {
+		FileFrameSource source = new FileFrameSource(mFile, WIDTH, HEIGHT, false);
+		assertTrue(source.open(1));
+
+		MotionDetector detector = new MotionDetector();
+		MotionDetectionReturnValue motion = new MotionDetectionReturnValue();
+		GestureRecognizer recognizer = new GestureRecognizer(WIDTH, HEIGHT);
+		final int [] gestures = new int [GestureRecognizer.Direction.values().length];
+		final int [] clicks = new int [1];
+		recognizer.setListener(new GestureRecognizer.Listener() {
+			@Override
+			public void onClick(GestureRecognizer caller, long gestureLength) {
+				clicks[0]++;
+			}
+
+			@Override
+			public void onGesture(GestureRecognizer caller, GestureRecognizer.Direction direction, long gestureLength) {
+				gestures[direction.ordinal()]++;
+			}
+		});
+
+		byte [] current = new byte [WIDTH * HEIGHT];
+		byte [] previous = new byte [WIDTH * HEIGHT];
+		int frames = 0;
+		double maxFraction = 0;
+		while(source.grab()) {
+			byte [] swap = previous;
+			previous = current;
+			current = swap;
+			assertTrue(source.retrieve(current));
+			if(frames++ == 0)
+				continue;
+
+			// frames are timed as if they came from a camera at 30 frames a second
+			detector.detect(current, previous, HEIGHT, WIDTH, motion);
+			maxFraction = Math.max(maxFraction, motion.fractionOfScreenInMotion);
+			recognizer.update(frames * FRAME_NANOS, motion.intensityMean, motion.fractionOfScreenInMotion,
+					motion.averagePosition.x, motion.averagePosition.y);
+		}
+		source.release();
+
+		assertTrue("the bar should count as motion, was " + maxFraction, maxFraction > recognizer.getMinFractionInMotion());
+		assertFalse(recognizer.isGestureInProgress());
+		assertEquals(0, clicks[0]);
+		// the bar moves towards larger x, which the mirrored front camera sees as a swipe to the left
+		assertEquals(1, gestures[GestureRecognizer.Direction.Left.ordinal()]);
+		assertEquals(1, gestures[GestureRecognizer.Direction.Left.ordinal()] + gestures[GestureRecognizer.Direction.Right.ordinal()]
+				+ gestures[GestureRecognizer.Direction.Up.ordinal()] + gestures[GestureRecognizer.Direction.Down.ordinal()]);
+	}
+}
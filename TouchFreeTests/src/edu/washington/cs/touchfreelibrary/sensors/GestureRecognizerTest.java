@@ -0,0 +1,244 @@
+package edu.washington.cs.touchfreelibrary.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Feeds {@link GestureRecognizer} made up frames, one (time, intensity, fraction in motion, x, y) sample each,
+ * and checks what it reports.
+ */
+public class GestureRecognizerTest {
+	private static final int WIDTH = 160;
+	private static final int HEIGHT = 120;
+	private static final long FRAME_MILLIS = 33;
+	private static final long NANOS_PER_MILLI = 1000000;
+	private static final double INTENSITY = 100;
+	private static final double MOVING = 0.3;
+
+	private GestureRecognizer mRecognizer;
+	// the time of the last frame in milliseconds, handed to the recognizer in nanoseconds
+	private long mTime;
+
+	// what the listener was told last, and how often
+	private int mClickCount;
+	private int mGestureCount;
+	private GestureRecognizer.Direction mDirection;
+	private long mGestureLength;
+
+	@Before
+	public void createRecognizer() {
+		mRecognizer = new GestureRecognizer(WIDTH, HEIGHT);
+		mRecognizer.setListener(new GestureRecognizer.Listener() {
+			@Override
+			public void onClick(GestureRecognizer caller, long gestureLength) {
+				mClickCount++;
+				mGestureLength = gestureLength;
+			}
+
+			@Override
+			public void onGesture(GestureRecognizer caller, GestureRecognizer.Direction direction, long gestureLength) {
+				mGestureCount++;
+				mDirection = direction;
+				mGestureLength = gestureLength;
+			}
+		});
+
+		// a second of nothing moving, so the intensity baseline is known
+		mTime = 0;
+		stayStill(30);
+	}
+
+	private void feed(double intensity, double fraction, double x, double y) {
+		mTime += FRAME_MILLIS;
+		mRecognizer.update(mTime * NANOS_PER_MILLI, intensity, fraction, x, y);
+	}
+
+	private void stayStill(int frames) {
+		for(int i = 0; i < frames; i++)
+			feed(INTENSITY, 0, -1, -1);
+	}
+
+	// moves the centroid of the motion in a straight line over the given frames, then lets it come to rest
+	private void swipe(double fromX, double fromY, double toX, double toY, int frames) {
+		for(int i = 0; i < frames; i++) {
+			double t = frames == 1 ? 1 : (double)i / (frames - 1);
+			feed(INTENSITY, MOVING, fromX + (toX - fromX) * t, fromY + (toY - fromY) * t);
+		}
+		feed(INTENSITY, 0.01, toX, toY);
+	}
+
+	@Test
+	public void motionTowardsLargerXIsASwipeToTheLeft() {
+		swipe(20, 60, 140, 60, 6);
+		assertEquals(1, mGestureCount);
+		assertSame(GestureRecognizer.Direction.Left, mDirection);
+		assertEquals(6 * FRAME_MILLIS, mGestureLength);
+		assertFalse(mRecognizer.isGestureInProgress());
+	}
+
+	@Test
+	public void motionTowardsSmallerXIsASwipeToTheRight() {
+		swipe(140, 60, 20, 60, 6);
+		assertEquals(1, mGestureCount);
+		assertSame(GestureRecognizer.Direction.Right, mDirection);
+	}
+
+	@Test
+	public void verticalMotionIsUpOrDown() {
+		swipe(80, 10, 80, 110, 6);
+		assertSame(GestureRecognizer.Direction.Down, mDirection);
+
+		stayStill(30);
+		swipe(80, 110, 80, 10, 6);
+		assertEquals(2, mGestureCount);
+		assertSame(GestureRecognizer.Direction.Up, mDirection);
+	}
+
+	@Test
+	public void shortMotionIsNoSwipe() {
+		// less than a fifth of the width
+		swipe(70, 60, 90, 60, 6);
+		assertEquals(0, mGestureCount);
+		assertEquals(0, mClickCount);
+	}
+
+	@Test
+	public void briefMotionIsNoSwipe() {
+		// the gesture lasts two frames, 66 ms, which is below the shortest swipe
+		swipe(20, 60, 140, 60, 2);
+		assertEquals(0, mGestureCount);
+	}
+
+	@Test
+	public void nextGestureWaitsForTheTimeBetweenGestures() {
+		swipe(20, 60, 140, 60, 6);
+		// starts well within the 500 ms after the end of the first one, so it never begins
+		swipe(140, 60, 20, 60, 6);
+		assertEquals(1, mGestureCount);
+		assertSame(GestureRecognizer.Direction.Left, mDirection);
+
+		stayStill(30);
+		swipe(140, 60, 20, 60, 6);
+		assertEquals(2, mGestureCount);
+		assertSame(GestureRecognizer.Direction.Right, mDirection);
+	}
+
+	@Test
+	public void darkeningWithoutBrighteningIsAClick() {
+		// a hand covering the camera darkens the frame more and more
+		double [] intensities = { INTENSITY, 80, 60, 40, 30 };
+		for(double intensity : intensities)
+			feed(intensity, MOVING, 80, 60);
+		feed(30, 0.01, 80, 60);
+
+		assertEquals(1, mClickCount);
+		assertEquals(0, mGestureCount);
+		assertEquals(5 * FRAME_MILLIS, mGestureLength);
+	}
+
+	@Test
+	public void brighteningBeforeDarkeningIsNoClick() {
+		double [] intensities = { 130, 140, 120, 90, 60 };
+		for(double intensity : intensities)
+			feed(intensity, MOVING, 80, 60);
+		feed(60, 0.01, 80, 60);
+
+		assertEquals(0, mClickCount);
+	}
+
+	@Test
+	public void gestureRightAfterAClickIsIgnored() {
+		double [] intensities = { INTENSITY, 80, 60, 40, 30 };
+		for(double intensity : intensities)
+			feed(intensity, MOVING, 80, 60);
+		feed(30, 0.01, 80, 60);
+		assertEquals(1, mClickCount);
+
+		// the hand pulling back from the camera, once the time between gestures is over
+		stayStill(16);
+		swipe(20, 60, 140, 60, 6);
+		assertEquals(0, mGestureCount);
+		assertNull(mDirection);
+	}
+
+	@Test
+	public void gestureLongerThanTheTimeoutIsDropped() {
+		long start = mTime + FRAME_MILLIS;
+		while(mTime + FRAME_MILLIS - start <= GestureRecognizer.DEFAULT_GESTURE_TIMEOUT_MILLIS)
+			feed(INTENSITY, MOVING, 20 + (mTime - start) / 10.0, 60);
+		assertTrue(mRecognizer.isGestureInProgress());
+
+		// still moving on the first frame past the timeout
+		feed(INTENSITY, MOVING, 140, 60);
+		assertFalse(mRecognizer.isGestureInProgress());
+		feed(INTENSITY, 0.01, 140, 60);
+		assertEquals(0, mGestureCount);
+	}
+
+	@Test
+	public void gestureEndingOnItsTimeoutFrameCounts() {
+		long start = mTime + FRAME_MILLIS;
+		while(mTime + FRAME_MILLIS - start <= GestureRecognizer.DEFAULT_GESTURE_TIMEOUT_MILLIS)
+			feed(INTENSITY, MOVING, 20 + (mTime - start) / 10.0, 60);
+
+		// the motion stops on the first frame past the timeout
+		feed(INTENSITY, 0.01, 140, 60);
+		assertEquals(1, mGestureCount);
+		assertSame(GestureRecognizer.Direction.Left, mDirection);
+		assertTrue(mGestureLength > GestureRecognizer.DEFAULT_GESTURE_TIMEOUT_MILLIS);
+	}
+
+	@Test
+	public void timeoutCanBeChanged() {
+		mRecognizer.setGestureTimeout(100);
+		swipe(20, 60, 140, 60, 6);
+		assertEquals(0, mGestureCount);
+	}
+
+	@Test
+	public void updateWithoutATimeReadsTheClock() {
+		final long [] now = { 0 };
+		GestureRecognizer recognizer = new GestureRecognizer(WIDTH, HEIGHT, new GestureRecognizer.Clock() {
+			@Override
+			public long nanoTime() {
+				return now[0];
+			}
+		});
+		final GestureRecognizer.Direction [] direction = new GestureRecognizer.Direction [1];
+		recognizer.setListener(new GestureRecognizer.Listener() {
+			@Override
+			public void onClick(GestureRecognizer caller, long gestureLength) {
+			}
+
+			@Override
+			public void onGesture(GestureRecognizer caller, GestureRecognizer.Direction d, long gestureLength) {
+				direction[0] = d;
+			}
+		});
+
+		MotionDetectionReturnValue motion = new MotionDetectionReturnValue();
+		motion.intensityMean = INTENSITY;
+		for(int i = 0; i < 30; i++) {
+			now[0] += FRAME_MILLIS * NANOS_PER_MILLI;
+			recognizer.update(motion);
+		}
+		motion.fractionOfScreenInMotion = MOVING;
+		for(int i = 0; i < 6; i++) {
+			now[0] += FRAME_MILLIS * NANOS_PER_MILLI;
+			motion.averagePosition.x = 140 - 24 * i;
+			motion.averagePosition.y = 60;
+			recognizer.update(motion);
+		}
+		now[0] += FRAME_MILLIS * NANOS_PER_MILLI;
+		motion.fractionOfScreenInMotion = 0.01;
+		recognizer.update(motion);
+
+		assertSame(GestureRecognizer.Direction.Right, direction[0]);
+	}
+}